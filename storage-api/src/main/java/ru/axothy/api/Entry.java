@@ -1,7 +1,20 @@
 package ru.axothy.api;
 
 public interface Entry<D> {
+
+    /**
+     * Expiration time of entries which never expire.
+     */
+    long NEVER_EXPIRES = Long.MAX_VALUE;
+
     D key();
 
     D value();
+
+    /**
+     * @return epoch millisecond from which the entry is treated as deleted, {@link #NEVER_EXPIRES} by default
+     */
+    default long expiresAt() {
+        return NEVER_EXPIRES;
+    }
 }
@@ -2,7 +2,9 @@ package ru.axothy.api;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 public interface Storage<D, E extends Entry<D>> extends Closeable {
 
@@ -64,6 +66,33 @@ public interface Storage<D, E extends Entry<D>> extends Closeable {
      */
     void upsert(E entry);
 
+    /**
+     * Removes all entries with keys between from (inclusive) and to (exclusive).
+     * Note: default implementation upserts a tombstone per entry, storages with their own entry type
+     * have to override it.
+     * @param from lower bound of range (inclusive)
+     * @param to upper bound of range (exclusive)
+     */
+    @SuppressWarnings("unchecked")
+    default void deleteRange(D from, D to) {
+        List<D> keys = new ArrayList<>();
+        get(from, to).forEachRemaining(entry -> keys.add(entry.key()));
+
+        for (D key : keys) {
+            upsert((E) new Entry<D>() {
+                @Override
+                public D key() {
+                    return key;
+                }
+
+                @Override
+                public D value() {
+                    return null;
+                }
+            });
+        }
+    }
+
     /**
      * Persists data (no-op by default).
      */
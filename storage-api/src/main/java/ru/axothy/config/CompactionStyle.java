@@ -0,0 +1,20 @@
+package ru.axothy.config;
+
+public enum CompactionStyle {
+    /**
+     * Flushed tables land in level 0, levels 1..n are non-overlapping sorted runs growing by a fixed ratio.
+     * Compactions are scheduled automatically by level score.
+     */
+    LEVELED,
+
+    /**
+     * Every flushed table is a sorted run, consecutive runs of similar size are merged together
+     * once there are enough of them. Lower write amplification than {@link #LEVELED}, more runs to read.
+     */
+    SIZE_TIERED,
+
+    /**
+     * Tables are only merged by an explicit {@code compact()} call.
+     */
+    MANUAL
+}
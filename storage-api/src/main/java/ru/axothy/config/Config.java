@@ -6,5 +6,173 @@ public record Config(
         Path basePath,
         long flushThresholdBytes,
         double bloomFilterFalsePositiveProbability,
-        int bloomFilterHashFunctionsCount) {
-}
\ No newline at end of file
+        int bloomFilterHashFunctionsCount,
+        WalSyncMode walSyncMode,
+        long walSyncIntervalMillis,
+        CompactionStyle compactionStyle,
+        int maxImmutableMemtables,
+        long blockCacheBytes,
+        FilterType filterType,
+        int subcompactions,
+        long rateLimitBytesPerSecond) {
+
+    public static final long DEFAULT_WAL_SYNC_INTERVAL_MILLIS = 1000;
+
+    /**
+     * Writers are slowed down once half of this many memtables wait for flush and stopped when all of them do.
+     */
+    public static final int DEFAULT_MAX_IMMUTABLE_MEMTABLES = 4;
+
+    /**
+     * Off-heap cache for SSTable blocks read by point lookups, {@code 0} disables the cache.
+     */
+    public static final long DEFAULT_BLOCK_CACHE_BYTES = 32L << 20;
+
+    /**
+     * Number of disjoint key ranges a compaction is split into and merged in parallel.
+     */
+    public static final int DEFAULT_SUBCOMPACTIONS = 1;
+
+    /**
+     * Disk write rate flushes and compactions share, {@code 0} leaves background I/O unlimited.
+     */
+    public static final long DEFAULT_RATE_LIMIT_BYTES_PER_SECOND = 0;
+
+    public Config(Path basePath,
+                  long flushThresholdBytes,
+                  double bloomFilterFalsePositiveProbability,
+                  int bloomFilterHashFunctionsCount) {
+        this(basePath,
+                flushThresholdBytes,
+                bloomFilterFalsePositiveProbability,
+                bloomFilterHashFunctionsCount,
+                WalSyncMode.PERIODIC,
+                DEFAULT_WAL_SYNC_INTERVAL_MILLIS,
+                CompactionStyle.LEVELED,
+                DEFAULT_MAX_IMMUTABLE_MEMTABLES,
+                DEFAULT_BLOCK_CACHE_BYTES,
+                FilterType.BLOOM,
+                DEFAULT_SUBCOMPACTIONS,
+                DEFAULT_RATE_LIMIT_BYTES_PER_SECOND);
+    }
+
+    public Config withBasePath(Path path) {
+        return new Config(path,
+                flushThresholdBytes,
+                bloomFilterFalsePositiveProbability,
+                bloomFilterHashFunctionsCount,
+                walSyncMode,
+                walSyncIntervalMillis,
+                compactionStyle,
+                maxImmutableMemtables,
+                blockCacheBytes,
+                filterType,
+                subcompactions,
+                rateLimitBytesPerSecond);
+    }
+
+    public Config withWalSyncMode(WalSyncMode mode) {
+        return new Config(basePath,
+                flushThresholdBytes,
+                bloomFilterFalsePositiveProbability,
+                bloomFilterHashFunctionsCount,
+                mode,
+                walSyncIntervalMillis,
+                compactionStyle,
+                maxImmutableMemtables,
+                blockCacheBytes,
+                filterType,
+                subcompactions,
+                rateLimitBytesPerSecond);
+    }
+
+    public Config withCompactionStyle(CompactionStyle style) {
+        return new Config(basePath,
+                flushThresholdBytes,
+                bloomFilterFalsePositiveProbability,
+                bloomFilterHashFunctionsCount,
+                walSyncMode,
+                walSyncIntervalMillis,
+                style,
+                maxImmutableMemtables,
+                blockCacheBytes,
+                filterType,
+                subcompactions,
+                rateLimitBytesPerSecond);
+    }
+
+    public Config withMaxImmutableMemtables(int count) {
+        return new Config(basePath,
+                flushThresholdBytes,
+                bloomFilterFalsePositiveProbability,
+                bloomFilterHashFunctionsCount,
+                walSyncMode,
+                walSyncIntervalMillis,
+                compactionStyle,
+                count,
+                blockCacheBytes,
+                filterType,
+                subcompactions,
+                rateLimitBytesPerSecond);
+    }
+
+    public Config withBlockCacheBytes(long bytes) {
+        return new Config(basePath,
+                flushThresholdBytes,
+                bloomFilterFalsePositiveProbability,
+                bloomFilterHashFunctionsCount,
+                walSyncMode,
+                walSyncIntervalMillis,
+                compactionStyle,
+                maxImmutableMemtables,
+                bytes,
+                filterType,
+                subcompactions,
+                rateLimitBytesPerSecond);
+    }
+
+    public Config withFilterType(FilterType type) {
+        return new Config(basePath,
+                flushThresholdBytes,
+                bloomFilterFalsePositiveProbability,
+                bloomFilterHashFunctionsCount,
+                walSyncMode,
+                walSyncIntervalMillis,
+                compactionStyle,
+                maxImmutableMemtables,
+                blockCacheBytes,
+                type,
+                subcompactions,
+                rateLimitBytesPerSecond);
+    }
+
+    public Config withSubcompactions(int count) {
+        return new Config(basePath,
+                flushThresholdBytes,
+                bloomFilterFalsePositiveProbability,
+                bloomFilterHashFunctionsCount,
+                walSyncMode,
+                walSyncIntervalMillis,
+                compactionStyle,
+                maxImmutableMemtables,
+                blockCacheBytes,
+                filterType,
+                count,
+                rateLimitBytesPerSecond);
+    }
+
+    public Config withRateLimit(long bytesPerSecond) {
+        return new Config(basePath,
+                flushThresholdBytes,
+                bloomFilterFalsePositiveProbability,
+                bloomFilterHashFunctionsCount,
+                walSyncMode,
+                walSyncIntervalMillis,
+                compactionStyle,
+                maxImmutableMemtables,
+                blockCacheBytes,
+                filterType,
+                subcompactions,
+                bytesPerSecond);
+    }
+}
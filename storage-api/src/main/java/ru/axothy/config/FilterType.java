@@ -0,0 +1,24 @@
+package ru.axothy.config;
+
+/**
+ * Filter written into new SSTables. Every table records the type it was written with, so the type
+ * can be changed without rewriting existing tables. The ordinal is stored in table headers, new types go last.
+ */
+public enum FilterType {
+    /**
+     * Classic bloom filter, bits of a key are spread over the whole filter.
+     */
+    BLOOM,
+
+    /**
+     * Bloom filter split into 64-byte blocks, all bits of a key are in one block,
+     * so a probe touches a single cache line at a slightly higher false positive rate.
+     */
+    BLOCKED_BLOOM,
+
+    /**
+     * Binary fuse filter with 8-bit fingerprints: about 9 bits per key at a false positive rate of 1/256,
+     * with three memory accesses per probe. False positive probability and hash functions count are ignored.
+     */
+    BINARY_FUSE
+}
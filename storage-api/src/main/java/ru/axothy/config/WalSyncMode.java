@@ -0,0 +1,19 @@
+package ru.axothy.config;
+
+public enum WalSyncMode {
+    /**
+     * Every group commit batch is forced to disk before writers are released.
+     */
+    BATCH,
+
+    /**
+     * Batches are written immediately, the log is forced to disk in the background every
+     * {@link Config#walSyncIntervalMillis()} milliseconds.
+     */
+    PERIODIC,
+
+    /**
+     * Batches are written without forcing, durability is left to the operating system.
+     */
+    NONE
+}
@@ -1,6 +1,7 @@
 plugins {
     java
     id("maven-publish")
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "ru.axothy"
@@ -32,6 +33,10 @@ tasks.withType<JavaExec>().configureEach {
     jvmArgs("--enable-preview")
 }
 
+jmh {
+    jvmArgsAppend.add("--enable-preview")
+}
+
 tasks.withType<Javadoc>().configureEach {
     (options as StandardJavadocDocletOptions).addBooleanOption("-enable-preview", true)
     (options as StandardJavadocDocletOptions).addBooleanOption("-release 21", true)
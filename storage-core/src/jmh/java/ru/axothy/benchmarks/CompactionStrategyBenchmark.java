@@ -0,0 +1,118 @@
+package ru.axothy.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.axothy.api.Entry;
+import ru.axothy.compaction.CompactionStats;
+import ru.axothy.config.CompactionStyle;
+import ru.axothy.config.Config;
+import ru.axothy.config.WalSyncMode;
+import ru.axothy.storage.BaseEntry;
+import ru.axothy.storage.LSMStorage;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Random overwrites over a fixed key space, reporting write amplification (bytes written to disk per byte
+ * flushed) and read amplification (sorted runs a point lookup may probe) next to the throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@Threads(1)
+public class CompactionStrategyBenchmark {
+
+    @Param({"LEVELED", "SIZE_TIERED"})
+    public CompactionStyle style;
+
+    @Param({"1000000"})
+    public int keySpace;
+
+    @Param({"100"})
+    public int valueSize;
+
+    private Path basePath;
+
+    private LSMStorage storage;
+
+    private MemorySegment value;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Amplification {
+        public double writeAmplification;
+
+        public double readAmplification;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        basePath = Files.createTempDirectory("compaction-benchmark");
+        Config config = new Config(basePath, 4L << 20, 0.01, 2)
+                .withCompactionStyle(style)
+                .withWalSyncMode(WalSyncMode.NONE);
+        storage = new LSMStorage(config);
+        value = MemorySegment.ofArray(new byte[valueSize]);
+
+        for (int i = 0; i < keySpace; i++) {
+            storage.upsert(new BaseEntry<>(key(i), value));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        storage.close();
+        try (Stream<Path> files = Files.walk(basePath)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public void overwrite(Amplification amplification) {
+        storage.upsert(new BaseEntry<>(key(ThreadLocalRandom.current().nextInt(keySpace)), value));
+        report(amplification);
+    }
+
+    @Benchmark
+    public Entry<MemorySegment> get(Amplification amplification) {
+        Entry<MemorySegment> entry = storage.get(key(ThreadLocalRandom.current().nextInt(keySpace)));
+        report(amplification);
+        return entry;
+    }
+
+    private void report(Amplification amplification) {
+        CompactionStats stats = storage.compactionStats();
+        amplification.writeAmplification = stats.writeAmplification();
+        amplification.readAmplification = stats.readAmplification();
+    }
+
+    private static MemorySegment key(int index) {
+        return MemorySegment.ofArray(String.format("key%010d", index).getBytes(StandardCharsets.UTF_8));
+    }
+}
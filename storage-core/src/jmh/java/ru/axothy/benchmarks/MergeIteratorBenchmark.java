@@ -0,0 +1,101 @@
+package ru.axothy.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.axothy.api.Entry;
+import ru.axothy.iterators.LoserTreeIterator;
+import ru.axothy.iterators.MergeIterator;
+import ru.axothy.iterators.PeekingIterator;
+import ru.axothy.iterators.PeekingIteratorImpl;
+import ru.axothy.storage.BaseEntry;
+import ru.axothy.storage.LSMStorage;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges {@code sources} sorted runs of {@code entriesPerSource} entries each, as a range scan or a compaction
+ * over that many tables does. About {@code overlap} of the keys are present in several runs and are deduplicated.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MergeIteratorBenchmark {
+
+    public enum Merge {
+        PRIORITY_QUEUE,
+        LOSER_TREE
+    }
+
+    @Param({"PRIORITY_QUEUE", "LOSER_TREE"})
+    public Merge merge;
+
+    @Param({"4", "16", "64"})
+    public int sources;
+
+    @Param({"10000"})
+    public int entriesPerSource;
+
+    @Param({"0.1"})
+    public double overlap;
+
+    private List<List<Entry<MemorySegment>>> runs;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        MemorySegment value = MemorySegment.ofArray(new byte[16]);
+        int keySpace = (int) (sources * entriesPerSource * (1 - overlap));
+
+        runs = new ArrayList<>(sources);
+        for (int source = 0; source < sources; source++) {
+            // Sorted distinct keys spread over the whole key space
+            List<Entry<MemorySegment>> run = new ArrayList<>(entriesPerSource);
+            int key = random.nextInt(keySpace / entriesPerSource + 1);
+            for (int i = 0; i < entriesPerSource; i++) {
+                run.add(new BaseEntry<>(key(key), value));
+                key += 1 + random.nextInt(Math.max(1, 2 * keySpace / entriesPerSource - 1));
+            }
+            runs.add(run);
+        }
+    }
+
+    @Benchmark
+    public void mergeAll(Blackhole blackhole) {
+        List<PeekingIterator<Entry<MemorySegment>>> iterators = new ArrayList<>(sources);
+        int priority = 0;
+        for (List<Entry<MemorySegment>> run : runs) {
+            iterators.add(new PeekingIteratorImpl<>(run.iterator(), priority++));
+        }
+
+        Iterator<Entry<MemorySegment>> merged = switch (merge) {
+            case PRIORITY_QUEUE -> MergeIterator.merge(iterators, LSMStorage::entryComparator);
+            case LOSER_TREE -> LoserTreeIterator.merge(iterators, LSMStorage::entryComparator);
+        };
+        while (merged.hasNext()) {
+            blackhole.consume(merged.next());
+        }
+    }
+
+    private static MemorySegment key(int index) {
+        return MemorySegment.ofArray(String.format("key%010d", index).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,107 @@
+package ru.axothy.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.axothy.config.Config;
+import ru.axothy.config.WalSyncMode;
+import ru.axothy.storage.BaseEntry;
+import ru.axothy.storage.LSMStorage;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Random upserts from 1 to 64 threads. The write-ahead log is not synced and memtables are large, so the
+ * throughput mostly reflects the write path shared by all writers: entering the active memtable, the log append
+ * and the skip list insert.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class UpsertScalingBenchmark {
+
+    @Param({"1000000"})
+    public int keySpace;
+
+    @Param({"100"})
+    public int valueSize;
+
+    private Path basePath;
+
+    private LSMStorage storage;
+
+    private MemorySegment value;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        basePath = Files.createTempDirectory("upsert-benchmark");
+        Config config = new Config(basePath, 64L << 20, 0.01, 2)
+                .withWalSyncMode(WalSyncMode.NONE);
+        storage = new LSMStorage(config);
+        value = MemorySegment.ofArray(new byte[valueSize]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        storage.close();
+        try (Stream<Path> files = Files.walk(basePath)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void upsert1() {
+        upsert();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void upsert4() {
+        upsert();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void upsert16() {
+        upsert();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void upsert64() {
+        upsert();
+    }
+
+    private void upsert() {
+        storage.upsert(new BaseEntry<>(key(ThreadLocalRandom.current().nextInt(keySpace)), value));
+    }
+
+    private static MemorySegment key(int index) {
+        return MemorySegment.ofArray(String.format("key%010d", index).getBytes(StandardCharsets.UTF_8));
+    }
+}
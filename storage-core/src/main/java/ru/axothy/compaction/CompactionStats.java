@@ -0,0 +1,28 @@
+package ru.axothy.compaction;
+
+/**
+ * Cumulative amplification counters of a storage instance.
+ * @param flushedBytes bytes written by memtable flushes
+ * @param compactedBytes bytes written by compactions
+ * @param sstables live tables count
+ * @param sortedRuns sorted runs a point lookup may have to check: every level 0 table plus every non-empty level
+ */
+public record CompactionStats(long flushedBytes, long compactedBytes, int sstables, int sortedRuns) {
+
+    /**
+     * Bytes written to disk per byte flushed from memtables.
+     */
+    public double writeAmplification() {
+        if (flushedBytes == 0) {
+            return 0;
+        }
+        return (double) (flushedBytes + compactedBytes) / flushedBytes;
+    }
+
+    /**
+     * Worst-case number of sorted runs probed by a point lookup.
+     */
+    public double readAmplification() {
+        return sortedRuns;
+    }
+}
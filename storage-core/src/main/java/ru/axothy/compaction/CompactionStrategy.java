@@ -0,0 +1,38 @@
+package ru.axothy.compaction;
+
+import ru.axothy.config.Config;
+import ru.axothy.storage.SSTable;
+
+import java.util.List;
+
+/**
+ * Decides which tables are merged together and where compaction outputs go.
+ */
+public interface CompactionStrategy {
+
+    /**
+     * Picks the next background compaction.
+     * @param tables live tables in read priority order
+     * @return task or {@code null} if nothing needs to be compacted
+     */
+    CompactionTask pick(List<SSTable> tables);
+
+    /**
+     * Merges every table into a single sorted run, used by explicit {@code compact()} calls.
+     * @param tables live tables in read priority order
+     * @return task or {@code null} if there are no tables
+     */
+    CompactionTask full(List<SSTable> tables);
+
+    /**
+     * Compaction output is split into tables of about this size.
+     */
+    long targetFileBytes();
+
+    static CompactionStrategy of(Config config) {
+        return switch (config.compactionStyle()) {
+            case LEVELED, MANUAL -> LeveledCompaction.of(config);
+            case SIZE_TIERED -> SizeTieredCompaction.of(config);
+        };
+    }
+}
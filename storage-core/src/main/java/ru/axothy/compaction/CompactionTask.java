@@ -0,0 +1,22 @@
+package ru.axothy.compaction;
+
+import ru.axothy.storage.SSTable;
+
+import java.util.List;
+
+/**
+ * Set of tables to merge into {@code outputLevel}.
+ * @param inputs tables to merge, in read priority order
+ * @param outputLevel level of the produced tables
+ * @param bottommost no older data overlaps the inputs, so tombstones can be dropped
+ */
+public record CompactionTask(List<SSTable> inputs, int outputLevel, boolean bottommost) {
+
+    /**
+     * Single table without overlapping tables in the next level can be moved without rewriting.
+     */
+    public boolean isTrivialMove() {
+        SSTable input = inputs.getFirst();
+        return inputs.size() == 1 && input.level() > 0 && input.level() != outputLevel;
+    }
+}
@@ -0,0 +1,191 @@
+package ru.axothy.compaction;
+
+import ru.axothy.config.Config;
+import ru.axothy.storage.LSMStorage;
+import ru.axothy.storage.SSTable;
+
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Leveled compaction picker.
+ * <p>
+ * Level 0 holds flushed tables which may overlap each other. Levels 1..{@link #MAX_LEVELS}-1 are sorted runs of
+ * non-overlapping tables, each level is {@code sizeRatio} times larger than the previous one. A level is compacted
+ * into the next one when its score (file count for level 0, size to size limit ratio for the others) reaches 1;
+ * only tables of the next level overlapping the picked ones are rewritten.
+ */
+public final class LeveledCompaction implements CompactionStrategy {
+
+    public static final int MAX_LEVELS = 7;
+
+    public static final int L0_COMPACTION_TRIGGER = 4;
+
+    public static final int DEFAULT_SIZE_RATIO = 10;
+
+    private final long baseLevelBytes;
+
+    private final int sizeRatio;
+
+    private final long targetFileBytes;
+
+    /**
+     * Max key of the last compacted table per level, compactions walk every level round-robin.
+     */
+    private final MemorySegment[] compactPointers = new MemorySegment[MAX_LEVELS];
+
+    public LeveledCompaction(long baseLevelBytes, int sizeRatio, long targetFileBytes) {
+        this.baseLevelBytes = baseLevelBytes;
+        this.sizeRatio = sizeRatio;
+        this.targetFileBytes = targetFileBytes;
+    }
+
+    public static LeveledCompaction of(Config config) {
+        return new LeveledCompaction(
+                L0_COMPACTION_TRIGGER * config.flushThresholdBytes(),
+                DEFAULT_SIZE_RATIO,
+                config.flushThresholdBytes());
+    }
+
+    @Override
+    public long targetFileBytes() {
+        return targetFileBytes;
+    }
+
+    public long maxBytesForLevel(int level) {
+        long limit = baseLevelBytes;
+        for (int i = 1; i < level; i++) {
+            limit *= sizeRatio;
+        }
+        return limit;
+    }
+
+    public double score(int level, List<SSTable> tables) {
+        if (level == 0) {
+            return (double) tablesOf(tables, 0).size() / L0_COMPACTION_TRIGGER;
+        }
+
+        long levelBytes = 0;
+        for (SSTable table : tablesOf(tables, level)) {
+            levelBytes += table.byteSize();
+        }
+        return (double) levelBytes / maxBytesForLevel(level);
+    }
+
+    /**
+     * Picks compaction for the level with the highest score.
+     * @param tables live tables in read priority order
+     * @return task or {@code null} if no level needs compaction
+     */
+    @Override
+    public CompactionTask pick(List<SSTable> tables) {
+        int bestLevel = -1;
+        double bestScore = 0;
+        for (int level = 0; level < MAX_LEVELS - 1; level++) {
+            double score = score(level, tables);
+            if (score >= 1 && score > bestScore) {
+                bestLevel = level;
+                bestScore = score;
+            }
+        }
+
+        if (bestLevel < 0) {
+            return null;
+        }
+        return bestLevel == 0 ? pickLevel0(tables) : pickLevel(bestLevel, tables);
+    }
+
+    /**
+     * Merges every table into a single sorted run at the deepest non-empty level (but at least level 1).
+     */
+    @Override
+    public CompactionTask full(List<SSTable> tables) {
+        if (tables.isEmpty()) {
+            return null;
+        }
+
+        int outputLevel = 1;
+        for (SSTable table : tables) {
+            outputLevel = Math.max(outputLevel, table.level());
+        }
+
+        return new CompactionTask(List.copyOf(tables), outputLevel, true);
+    }
+
+    private CompactionTask pickLevel0(List<SSTable> tables) {
+        List<SSTable> inputs = new ArrayList<>(tablesOf(tables, 0));
+
+        MemorySegment from = inputs.getFirst().minKey();
+        MemorySegment to = inputs.getFirst().maxKey();
+        for (SSTable table : inputs) {
+            from = LSMStorage.comparator(table.minKey(), from) < 0 ? table.minKey() : from;
+            to = LSMStorage.comparator(table.maxKey(), to) > 0 ? table.maxKey() : to;
+        }
+
+        inputs.addAll(overlapping(tables, 1, from, to));
+        return task(inputs, 1, tables, from, to);
+    }
+
+    private CompactionTask pickLevel(int level, List<SSTable> tables) {
+        List<SSTable> levelTables = tablesOf(tables, level);
+
+        SSTable picked = null;
+        MemorySegment pointer = compactPointers[level];
+        if (pointer != null) {
+            for (SSTable table : levelTables) {
+                if (LSMStorage.comparator(table.minKey(), pointer) > 0) {
+                    picked = table;
+                    break;
+                }
+            }
+        }
+        if (picked == null) {
+            picked = levelTables.getFirst();
+        }
+        compactPointers[level] = picked.maxKey();
+
+        List<SSTable> inputs = new ArrayList<>();
+        inputs.add(picked);
+        inputs.addAll(overlapping(tables, level + 1, picked.minKey(), picked.maxKey()));
+        return task(inputs, level + 1, tables, picked.minKey(), picked.maxKey());
+    }
+
+    private static CompactionTask task(List<SSTable> inputs, int outputLevel, List<SSTable> tables,
+                                       MemorySegment from, MemorySegment to) {
+        for (SSTable input : inputs) {
+            from = LSMStorage.comparator(input.minKey(), from) < 0 ? input.minKey() : from;
+            to = LSMStorage.comparator(input.maxKey(), to) > 0 ? input.maxKey() : to;
+        }
+
+        boolean bottommost = true;
+        for (SSTable table : tables) {
+            if (table.level() > outputLevel && table.overlaps(from, to)) {
+                bottommost = false;
+                break;
+            }
+        }
+
+        return new CompactionTask(inputs, outputLevel, bottommost);
+    }
+
+    private static List<SSTable> tablesOf(List<SSTable> tables, int level) {
+        List<SSTable> result = new ArrayList<>();
+        for (SSTable table : tables) {
+            if (table.level() == level) {
+                result.add(table);
+            }
+        }
+        return result;
+    }
+
+    private static List<SSTable> overlapping(List<SSTable> tables, int level, MemorySegment from, MemorySegment to) {
+        List<SSTable> result = new ArrayList<>();
+        for (SSTable table : tables) {
+            if (table.level() == level && table.overlaps(from, to)) {
+                result.add(table);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,105 @@
+package ru.axothy.compaction;
+
+import ru.axothy.config.Config;
+import ru.axothy.storage.SSTable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Size-tiered compaction picker.
+ * <p>
+ * Every level 0 table is a sorted run. Consecutive (in recency order) runs of similar size are grouped into
+ * buckets and a bucket of at least {@link #MIN_THRESHOLD} runs is merged into a single run which takes the place of
+ * the merged ones. Every byte is rewritten about once per tier, which keeps write amplification low at the cost of
+ * more runs to check on reads. Only consecutive runs are merged, so the newer run still wins for a duplicate key.
+ */
+public final class SizeTieredCompaction implements CompactionStrategy {
+
+    public static final int MIN_THRESHOLD = 4;
+
+    public static final int MAX_THRESHOLD = 32;
+
+    public static final double BUCKET_LOW = 0.5;
+
+    public static final double BUCKET_HIGH = 1.5;
+
+    /**
+     * Runs smaller than this are bucketed together regardless of their size ratio.
+     */
+    private final long minTableBytes;
+
+    public SizeTieredCompaction(long minTableBytes) {
+        this.minTableBytes = minTableBytes;
+    }
+
+    public static SizeTieredCompaction of(Config config) {
+        return new SizeTieredCompaction(config.flushThresholdBytes());
+    }
+
+    @Override
+    public long targetFileBytes() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public CompactionTask pick(List<SSTable> tables) {
+        List<SSTable> runs = new ArrayList<>();
+        boolean deeperLevels = false;
+        for (SSTable table : tables) {
+            if (table.level() == 0) {
+                runs.add(table);
+            } else {
+                deeperLevels = true;
+            }
+        }
+
+        List<SSTable> best = null;
+        long bestAverage = 0;
+
+        int start = 0;
+        while (start < runs.size()) {
+            int end = start + 1;
+            long total = runs.get(start).byteSize();
+            while (end < runs.size() && end - start < MAX_THRESHOLD && similar(runs.get(end), total / (end - start))) {
+                total += runs.get(end).byteSize();
+                end++;
+            }
+
+            int count = end - start;
+            long average = total / count;
+            if (count >= MIN_THRESHOLD
+                    && (best == null || count > best.size() || count == best.size() && average < bestAverage)) {
+                best = runs.subList(start, end);
+                bestAverage = average;
+            }
+
+            start = end;
+        }
+
+        if (best == null) {
+            return null;
+        }
+
+        boolean bottommost = !deeperLevels && best.getLast() == runs.getLast();
+        return new CompactionTask(List.copyOf(best), 0, bottommost);
+    }
+
+    @Override
+    public CompactionTask full(List<SSTable> tables) {
+        if (tables.isEmpty()) {
+            return null;
+        }
+
+        return new CompactionTask(List.copyOf(tables), 0, true);
+    }
+
+    private boolean similar(SSTable table, long average) {
+        long size = table.byteSize();
+        if (size < minTableBytes && average < minTableBytes) {
+            return true;
+        }
+
+        return size >= average * BUCKET_LOW && size <= average * BUCKET_HIGH;
+    }
+}
@@ -19,6 +19,15 @@ public final class MurmurHash {
     }
 
     public static long[] hash64(MemorySegment key, int offset, int length, long seed) {
+        long[] result = new long[2];
+        hash64(key, offset, length, seed, result);
+        return result;
+    }
+
+    /**
+     * Writes both 64-bit halves of the hash into {@code out}, so callers can reuse the array.
+     */
+    public static void hash64(MemorySegment key, int offset, int length, long seed, long[] out) {
         final int nBlocks = length >> 4;
 
         long h1 = seed;
@@ -137,7 +146,8 @@ public final class MurmurHash {
         h1 += h2;
         h2 += h1;
 
-        return new long[]{h1, h2};
+        out[0] = h1;
+        out[1] = h2;
     }
 
     private static long getBlock(MemorySegment key, int offset, int index) {
@@ -0,0 +1,57 @@
+package ru.axothy.iterators;
+
+import java.lang.foreign.MemorySegment;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Stops a long merge once {@code cancelled} turns {@code true}, the flag is checked every few hundred entries.
+ */
+public class CancellableCursor implements EntryCursor {
+    private static final int CHECK_INTERVAL = 256;
+
+    private final EntryCursor cursor;
+
+    private final BooleanSupplier cancelled;
+
+    private int untilCheck = CHECK_INTERVAL;
+
+    public CancellableCursor(EntryCursor cursor, BooleanSupplier cancelled) {
+        this.cursor = cursor;
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * @throws CancellationException if the merge is cancelled
+     */
+    @Override
+    public boolean advance() {
+        if (--untilCheck == 0) {
+            untilCheck = CHECK_INTERVAL;
+            if (cancelled.getAsBoolean()) {
+                throw new CancellationException("Merge is cancelled");
+            }
+        }
+        return cursor.advance();
+    }
+
+    @Override
+    public MemorySegment keySegment() {
+        return cursor.keySegment();
+    }
+
+    @Override
+    public MemorySegment valueSegment() {
+        return cursor.valueSegment();
+    }
+
+    @Override
+    public boolean isTombstone() {
+        return cursor.isTombstone();
+    }
+
+    @Override
+    public long expiresAt() {
+        return cursor.expiresAt();
+    }
+}
@@ -0,0 +1,38 @@
+package ru.axothy.iterators;
+
+import ru.axothy.api.Entry;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Forward-only position over sorted entries, an allocation-free alternative to iterating over entries.
+ * A new cursor is positioned before the first entry.
+ * <p>
+ * Segments of the current entry are views over buffers reused by the cursor: they are valid
+ * until the next {@link #advance()} and have to be copied to be kept.
+ */
+public interface EntryCursor {
+
+    /**
+     * Moves to the next entry.
+     *
+     * @return {@code false} if there are no more entries
+     */
+    boolean advance();
+
+    MemorySegment keySegment();
+
+    /**
+     * @return value of the current entry, {@code null} for a tombstone
+     */
+    MemorySegment valueSegment();
+
+    default boolean isTombstone() {
+        return valueSegment() == null;
+    }
+
+    /**
+     * @return expiration time of the current value, {@link Entry#NEVER_EXPIRES} for tombstones
+     */
+    long expiresAt();
+}
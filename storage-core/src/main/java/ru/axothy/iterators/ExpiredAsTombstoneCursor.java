@@ -0,0 +1,47 @@
+package ru.axothy.iterators;
+
+import ru.axothy.api.Entry;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Reports values expired at {@code now} as tombstones, so they keep hiding older versions of their keys.
+ */
+public class ExpiredAsTombstoneCursor implements EntryCursor {
+    private final EntryCursor cursor;
+
+    private final long now;
+
+    /**
+     * @param now epoch millisecond values are checked against
+     */
+    public ExpiredAsTombstoneCursor(EntryCursor cursor, long now) {
+        this.cursor = cursor;
+        this.now = now;
+    }
+
+    @Override
+    public boolean advance() {
+        return cursor.advance();
+    }
+
+    @Override
+    public MemorySegment keySegment() {
+        return cursor.keySegment();
+    }
+
+    @Override
+    public MemorySegment valueSegment() {
+        return isTombstone() ? null : cursor.valueSegment();
+    }
+
+    @Override
+    public boolean isTombstone() {
+        return cursor.isTombstone() || cursor.expiresAt() <= now;
+    }
+
+    @Override
+    public long expiresAt() {
+        return isTombstone() ? Entry.NEVER_EXPIRES : cursor.expiresAt();
+    }
+}
@@ -0,0 +1,40 @@
+package ru.axothy.iterators;
+
+import ru.axothy.api.Entry;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Iterator;
+
+/**
+ * Cursor over entries that are already materialized, such as memtable entries.
+ */
+public class IteratorCursor implements EntryCursor {
+    private final Iterator<Entry<MemorySegment>> iterator;
+
+    private Entry<MemorySegment> current;
+
+    public IteratorCursor(Iterator<Entry<MemorySegment>> iterator) {
+        this.iterator = iterator;
+    }
+
+    @Override
+    public boolean advance() {
+        current = iterator.hasNext() ? iterator.next() : null;
+        return current != null;
+    }
+
+    @Override
+    public MemorySegment keySegment() {
+        return current.key();
+    }
+
+    @Override
+    public MemorySegment valueSegment() {
+        return current.value();
+    }
+
+    @Override
+    public long expiresAt() {
+        return current.expiresAt();
+    }
+}
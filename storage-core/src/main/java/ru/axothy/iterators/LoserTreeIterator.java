@@ -0,0 +1,131 @@
+package ru.axothy.iterators;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * K-way merge over a tournament tree of losers: every internal node keeps the source that lost the match
+ * at this node, so advancing the winner replays a single leaf-to-root path of about log2(k) comparisons.
+ * <p>
+ * Of equal elements only the one from the source with the lowest {@link PeekingIterator#priority()} is returned,
+ * the others are skipped.
+ */
+public class LoserTreeIterator<E> implements Iterator<E> {
+    private final PeekingIterator<E>[] sources;
+
+    private final Comparator<? super E> comparator;
+
+    /**
+     * {@code tree[0]} is the overall winner, {@code tree[1..k)} are losers of internal nodes,
+     * leaf of source {@code i} is node {@code k + i}.
+     */
+    private final int[] tree;
+
+    @SuppressWarnings("unchecked")
+    private LoserTreeIterator(List<PeekingIterator<E>> iterators, Comparator<? super E> comparator) {
+        this.sources = iterators.toArray(new PeekingIterator[0]);
+        this.comparator = comparator;
+        this.tree = new int[sources.length];
+
+        int size = sources.length;
+        int[] winners = new int[2 * size];
+        for (int i = 0; i < size; i++) {
+            winners[size + i] = i;
+        }
+        for (int node = size - 1; node > 0; node--) {
+            int left = winners[2 * node];
+            int right = winners[2 * node + 1];
+            if (beats(left, right)) {
+                winners[node] = left;
+                tree[node] = right;
+            } else {
+                winners[node] = right;
+                tree[node] = left;
+            }
+        }
+        tree[0] = winners[1];
+    }
+
+    public static <E> Iterator<E> merge(List<PeekingIterator<E>> iterators, Comparator<? super E> comparator) {
+        if (iterators.isEmpty()) {
+            return Collections.emptyIterator();
+        }
+
+        if (iterators.size() == 1) {
+            return iterators.getFirst();
+        }
+
+        return new LoserTreeIterator<>(iterators, comparator);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return sources[tree[0]].hasNext();
+    }
+
+    @Override
+    public E next() {
+        int winner = tree[0];
+        PeekingIterator<E> source = sources[winner];
+        if (!source.hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        E next = source.next();
+        replay(winner);
+
+        // Shadowed versions of the same element surface right after the winner
+        while (true) {
+            int top = tree[0];
+            PeekingIterator<E> duplicate = sources[top];
+            if (!duplicate.hasNext() || comparator.compare(duplicate.peek(), next) != 0) {
+                break;
+            }
+            duplicate.next();
+            replay(top);
+        }
+
+        return next;
+    }
+
+    /**
+     * Plays matches from the leaf of advanced {@code source} up to the root.
+     */
+    private void replay(int source) {
+        int winner = source;
+        for (int node = (sources.length + source) >>> 1; node > 0; node >>>= 1) {
+            int loser = tree[node];
+            if (beats(loser, winner)) {
+                tree[node] = winner;
+                winner = loser;
+            }
+        }
+        tree[0] = winner;
+    }
+
+    /**
+     * @return {@code true} if source {@code a} goes before source {@code b}, exhausted sources go last
+     */
+    private boolean beats(int a, int b) {
+        PeekingIterator<E> first = sources[a];
+        PeekingIterator<E> second = sources[b];
+        if (!first.hasNext()) {
+            return false;
+        }
+        if (!second.hasNext()) {
+            return true;
+        }
+
+        int compare = comparator.compare(first.peek(), second.peek());
+        if (compare != 0) {
+            return compare < 0;
+        }
+        if (first.priority() != second.priority()) {
+            return first.priority() < second.priority();
+        }
+        return a < b;
+    }
+}
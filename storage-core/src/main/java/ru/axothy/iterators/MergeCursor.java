@@ -0,0 +1,148 @@
+package ru.axothy.iterators;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Cursor counterpart of {@link LoserTreeIterator}: merges cursors over a tournament tree of losers.
+ * Of equal keys only the entry of the earliest cursor in the list is returned.
+ */
+public class MergeCursor implements EntryCursor {
+    private final EntryCursor[] sources;
+
+    private final boolean[] exhausted;
+
+    private final Comparator<MemorySegment> comparator;
+
+    private final int[] tree;
+
+    private boolean started;
+
+    /**
+     * Key of the last returned entry, views of the winner become invalid once it advances.
+     */
+    private byte[] lastKey = new byte[64];
+
+    private MemorySegment lastKeyView = MemorySegment.NULL;
+
+    /**
+     * @param sources cursors in priority order, the first one has the newest entries
+     */
+    public MergeCursor(List<? extends EntryCursor> sources, Comparator<MemorySegment> comparator) {
+        this.sources = sources.toArray(new EntryCursor[0]);
+        this.exhausted = new boolean[this.sources.length];
+        this.comparator = comparator;
+        this.tree = new int[this.sources.length];
+    }
+
+    @Override
+    public boolean advance() {
+        if (sources.length == 0) {
+            return false;
+        }
+        if (!started) {
+            started = true;
+            init();
+            return !exhausted[tree[0]];
+        }
+
+        int winner = tree[0];
+        if (exhausted[winner]) {
+            return false;
+        }
+
+        rememberKey(sources[winner].keySegment());
+        advance(winner);
+        while (true) {
+            int top = tree[0];
+            if (exhausted[top] || comparator.compare(sources[top].keySegment(), lastKeyView) != 0) {
+                return !exhausted[top];
+            }
+            advance(top);
+        }
+    }
+
+    @Override
+    public MemorySegment keySegment() {
+        return sources[tree[0]].keySegment();
+    }
+
+    @Override
+    public MemorySegment valueSegment() {
+        return sources[tree[0]].valueSegment();
+    }
+
+    @Override
+    public boolean isTombstone() {
+        return sources[tree[0]].isTombstone();
+    }
+
+    @Override
+    public long expiresAt() {
+        return sources[tree[0]].expiresAt();
+    }
+
+    private void init() {
+        int size = sources.length;
+        for (int i = 0; i < size; i++) {
+            exhausted[i] = !sources[i].advance();
+        }
+
+        int[] winners = new int[2 * size];
+        for (int i = 0; i < size; i++) {
+            winners[size + i] = i;
+        }
+        for (int node = size - 1; node > 0; node--) {
+            int left = winners[2 * node];
+            int right = winners[2 * node + 1];
+            if (beats(left, right)) {
+                winners[node] = left;
+                tree[node] = right;
+            } else {
+                winners[node] = right;
+                tree[node] = left;
+            }
+        }
+        tree[0] = winners[1];
+    }
+
+    private void advance(int source) {
+        exhausted[source] = !sources[source].advance();
+
+        int winner = source;
+        for (int node = (sources.length + source) >>> 1; node > 0; node >>>= 1) {
+            int loser = tree[node];
+            if (beats(loser, winner)) {
+                tree[node] = winner;
+                winner = loser;
+            }
+        }
+        tree[0] = winner;
+    }
+
+    private boolean beats(int a, int b) {
+        if (exhausted[a]) {
+            return false;
+        }
+        if (exhausted[b]) {
+            return true;
+        }
+
+        int compare = comparator.compare(sources[a].keySegment(), sources[b].keySegment());
+        return compare == 0 ? a < b : compare < 0;
+    }
+
+    private void rememberKey(MemorySegment key) {
+        int size = (int) key.byteSize();
+        if (size > lastKey.length) {
+            lastKey = new byte[Math.max(size, lastKey.length * 2)];
+            lastKeyView = MemorySegment.NULL;
+        }
+        MemorySegment.copy(key, ValueLayout.JAVA_BYTE, 0, lastKey, 0, size);
+        if (lastKeyView.byteSize() != size) {
+            lastKeyView = MemorySegment.ofArray(lastKey).asSlice(0, size);
+        }
+    }
+}
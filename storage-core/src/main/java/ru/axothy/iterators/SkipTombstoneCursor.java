@@ -0,0 +1,41 @@
+package ru.axothy.iterators;
+
+import java.lang.foreign.MemorySegment;
+
+public class SkipTombstoneCursor implements EntryCursor {
+    private final EntryCursor cursor;
+
+    public SkipTombstoneCursor(EntryCursor cursor) {
+        this.cursor = cursor;
+    }
+
+    @Override
+    public boolean advance() {
+        while (cursor.advance()) {
+            if (!cursor.isTombstone()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public MemorySegment keySegment() {
+        return cursor.keySegment();
+    }
+
+    @Override
+    public MemorySegment valueSegment() {
+        return cursor.valueSegment();
+    }
+
+    @Override
+    public boolean isTombstone() {
+        return false;
+    }
+
+    @Override
+    public long expiresAt() {
+        return cursor.expiresAt();
+    }
+}
@@ -6,16 +6,22 @@ import java.lang.foreign.MemorySegment;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
+/**
+ * Skips tombstones and values expired at {@code now}.
+ */
 public class SkipTombstoneIterator implements Iterator<Entry<MemorySegment>> {
     private final PeekingIterator<Entry<MemorySegment>> iterator;
 
-    public SkipTombstoneIterator(PeekingIterator<Entry<MemorySegment>> iterator) {
+    private final long now;
+
+    public SkipTombstoneIterator(PeekingIterator<Entry<MemorySegment>> iterator, long now) {
         this.iterator = iterator;
+        this.now = now;
     }
 
     @Override
     public boolean hasNext() {
-        while (iterator.hasNext() && iterator.peek().value() == null) {
+        while (iterator.hasNext() && (iterator.peek().value() == null || iterator.peek().expiresAt() <= now)) {
             iterator.next();
         }
 
@@ -0,0 +1,63 @@
+package ru.axothy.iterators;
+
+import java.lang.foreign.MemorySegment;
+import java.util.function.LongConsumer;
+
+/**
+ * Reports bytes of the entries passed through to {@code throttle} in chunks, which may block to slow the reader down.
+ */
+public class ThrottledCursor implements EntryCursor {
+    private static final long CHUNK_BYTES = 64 * 1024;
+
+    private final EntryCursor cursor;
+
+    private final LongConsumer throttle;
+
+    private long unreported;
+
+    public ThrottledCursor(EntryCursor cursor, LongConsumer throttle) {
+        this.cursor = cursor;
+        this.throttle = throttle;
+    }
+
+    @Override
+    public boolean advance() {
+        if (!cursor.advance()) {
+            if (unreported > 0) {
+                throttle.accept(unreported);
+                unreported = 0;
+            }
+            return false;
+        }
+
+        unreported += cursor.keySegment().byteSize();
+        if (!cursor.isTombstone()) {
+            unreported += cursor.valueSegment().byteSize();
+        }
+        if (unreported >= CHUNK_BYTES) {
+            throttle.accept(unreported);
+            unreported = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public MemorySegment keySegment() {
+        return cursor.keySegment();
+    }
+
+    @Override
+    public MemorySegment valueSegment() {
+        return cursor.valueSegment();
+    }
+
+    @Override
+    public boolean isTombstone() {
+        return cursor.isTombstone();
+    }
+
+    @Override
+    public long expiresAt() {
+        return cursor.expiresAt();
+    }
+}
@@ -0,0 +1,158 @@
+package ru.axothy.storage;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs flushes and compactions on separate threads, so a long compaction never holds back a flush
+ * and the writers stalled on it. When I/O is rate limited, flushes take precedence over compactions, see
+ * {@link RateLimiter.Priority}.
+ * <p>
+ * On shutdown queued flushes and explicitly requested compactions are completed, while automatic
+ * compactions are dropped from the queue and running ones are asked to stop.
+ */
+final class BackgroundScheduler {
+
+    private final ThreadPoolExecutor flushPool = singleThreadPool("storage-flush");
+
+    private final ThreadPoolExecutor compactionPool = singleThreadPool("storage-compaction");
+
+    /**
+     * Merges key ranges of a single compaction, {@code null} if compactions are not split.
+     */
+    private final ForkJoinPool subcompactionPool;
+
+    private final JobMetrics flushMetrics = new JobMetrics();
+
+    private final JobMetrics compactionMetrics = new JobMetrics();
+
+    private volatile boolean compactionsCancelled;
+
+    BackgroundScheduler(int subcompactions) {
+        this.subcompactionPool = subcompactions > 1 ? new ForkJoinPool(subcompactions) : null;
+    }
+
+    /**
+     * @throws java.util.concurrent.RejectedExecutionException if the scheduler is shut down
+     */
+    void flush(Runnable job) {
+        flushPool.execute(new Job(job, flushMetrics, false));
+    }
+
+    /**
+     * @param cancellable whether the compaction is dropped on shutdown,
+     *                    a running one has to check {@link #compactionsCancelled()}
+     * @throws java.util.concurrent.RejectedExecutionException if the scheduler is shut down
+     */
+    void compact(Runnable job, boolean cancellable) {
+        compactionPool.execute(new Job(job, compactionMetrics, cancellable));
+    }
+
+    boolean compactionsCancelled() {
+        return compactionsCancelled;
+    }
+
+    ForkJoinPool subcompactionPool() {
+        return subcompactionPool;
+    }
+
+    /**
+     * Drops automatic compactions from the queue and asks running ones to stop.
+     */
+    void cancelCompactions() {
+        compactionsCancelled = true;
+        compactionPool.getQueue().removeIf(task -> task instanceof Job job && job.cancellable);
+    }
+
+    /**
+     * Waits until compactions queued so far are done, the compaction thread runs them in order.
+     */
+    void awaitCompactions() throws InterruptedException {
+        try {
+            compactionPool.submit(() -> { }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Empty job failed", e.getCause());
+        }
+    }
+
+    void shutdown() {
+        cancelCompactions();
+
+        flushPool.shutdown();
+        compactionPool.shutdown();
+    }
+
+    /**
+     * @return {@code false} if jobs are still running after the timeout
+     */
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean terminated = flushPool.awaitTermination(timeout, unit)
+                && compactionPool.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+
+        // Subcompactions are only submitted by compaction jobs, which are finished now
+        if (terminated && subcompactionPool != null) {
+            subcompactionPool.shutdown();
+            terminated = subcompactionPool.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+        return terminated;
+    }
+
+    SchedulerStats stats() {
+        return new SchedulerStats(flushMetrics.stats(flushPool), compactionMetrics.stats(compactionPool));
+    }
+
+    private static ThreadPoolExecutor singleThreadPool(String name) {
+        return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                runnable -> new Thread(runnable, name));
+    }
+
+    private static final class Job implements Runnable {
+        private final Runnable task;
+
+        private final JobMetrics metrics;
+
+        private final boolean cancellable;
+
+        Job(Runnable task, JobMetrics metrics, boolean cancellable) {
+            this.task = task;
+            this.metrics = metrics;
+            this.cancellable = cancellable;
+        }
+
+        @Override
+        public void run() {
+            metrics.running.incrementAndGet();
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                long duration = System.nanoTime() - start;
+                metrics.running.decrementAndGet();
+                metrics.completed.incrementAndGet();
+                metrics.totalNanos.addAndGet(duration);
+                metrics.maxNanos.accumulateAndGet(duration, Math::max);
+            }
+        }
+    }
+
+    private static final class JobMetrics {
+        private final AtomicInteger running = new AtomicInteger();
+
+        private final AtomicLong completed = new AtomicLong();
+
+        private final AtomicLong totalNanos = new AtomicLong();
+
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        SchedulerStats.Jobs stats(ThreadPoolExecutor pool) {
+            return new SchedulerStats.Jobs(pool.getQueue().size(), running.get(), completed.get(),
+                    totalNanos.get(), maxNanos.get());
+        }
+    }
+}
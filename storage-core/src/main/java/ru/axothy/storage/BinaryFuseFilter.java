@@ -0,0 +1,257 @@
+package ru.axothy.storage;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Binary fuse filter with 8-bit fingerprints and three hash functions (Graf, Lemire, "Binary Fuse Filters:
+ * Fast and Smaller Than Xor Filters"). It takes about 9 bits per key at a false positive rate of 1/256
+ * and can only be built from the complete key set, which suits immutable tables.
+ * <p>
+ * Layout: {@code [long seed][long segmentLength][long segmentCountLength][long fingerprintsLength]}
+ * followed by the fingerprints padded to a whole number of longs.
+ */
+public final class BinaryFuseFilter implements KeyFilter {
+
+    private static final int ARITY = 3;
+
+    private static final int MAX_SEGMENT_LENGTH = 1 << 18;
+
+    private static final int MAX_ATTEMPTS = 1000;
+
+    private static final long HEADER_SIZE = 4L * Long.BYTES;
+
+    private final MemorySegment sstable;
+
+    private final long fingerprintsOffset;
+
+    private final long seed;
+
+    private final int segmentLength;
+
+    private final int segmentLengthMask;
+
+    private final int segmentCountLength;
+
+    private BinaryFuseFilter(MemorySegment sstable, long filterOffset) {
+        this.sstable = sstable;
+        this.fingerprintsOffset = filterOffset + HEADER_SIZE;
+        this.seed = sstable.get(ValueLayout.JAVA_LONG_UNALIGNED, filterOffset);
+        this.segmentLength = (int) sstable.get(ValueLayout.JAVA_LONG_UNALIGNED, filterOffset + Long.BYTES);
+        this.segmentLengthMask = segmentLength - 1;
+        this.segmentCountLength = (int) sstable.get(ValueLayout.JAVA_LONG_UNALIGNED, filterOffset + 2L * Long.BYTES);
+    }
+
+    static BinaryFuseFilter open(MemorySegment sstable, long filterOffset) {
+        return new BinaryFuseFilter(sstable, filterOffset);
+    }
+
+    @Override
+    public boolean mayContain(long hashBase, long hashIncrement) {
+        long hash = mix(hashBase, seed);
+        int f = fingerprint(hash);
+
+        int h0 = (int) Math.unsignedMultiplyHigh(hash, segmentCountLength);
+        int h1 = h0 + segmentLength;
+        int h2 = h1 + segmentLength;
+        h1 ^= (int) (hash >>> 18) & segmentLengthMask;
+        h2 ^= (int) hash & segmentLengthMask;
+
+        f ^= sstable.get(ValueLayout.JAVA_BYTE, fingerprintsOffset + h0)
+                ^ sstable.get(ValueLayout.JAVA_BYTE, fingerprintsOffset + h1)
+                ^ sstable.get(ValueLayout.JAVA_BYTE, fingerprintsOffset + h2);
+        return (f & 0xff) == 0;
+    }
+
+    static final class Builder implements KeyFilter.Builder {
+        private long[] hashes = new long[1024];
+
+        private int size;
+
+        @Override
+        public void add(long hashBase, long hashIncrement) {
+            if (size == hashes.length) {
+                hashes = Arrays.copyOf(hashes, size * 2);
+            }
+            hashes[size++] = hashBase;
+        }
+
+        @Override
+        public MemorySegment build() {
+            // Keys with equal hashes are indistinguishable for the filter, and duplicates would fail the peeling
+            Arrays.sort(hashes, 0, size);
+            int unique = 0;
+            for (int i = 0; i < size; i++) {
+                if (unique == 0 || hashes[unique - 1] != hashes[i]) {
+                    hashes[unique++] = hashes[i];
+                }
+            }
+            return construct(Arrays.copyOf(hashes, unique));
+        }
+    }
+
+    private static MemorySegment construct(long[] keys) {
+        int size = keys.length;
+
+        int segmentLength = Math.min(MAX_SEGMENT_LENGTH,
+                size == 0 ? 4 : 1 << (int) Math.floor(Math.log(size) / Math.log(3.33) + 2.25));
+        double sizeFactor = size <= 1 ? 0 : Math.max(1.125, 0.875 + 0.25 * Math.log(1_000_000) / Math.log(size));
+        int capacity = (int) Math.round(size * sizeFactor);
+        int initSegmentCount = (capacity + segmentLength - 1) / segmentLength - (ARITY - 1);
+        int arrayLength = (initSegmentCount + ARITY - 1) * segmentLength;
+        int segmentCount = (arrayLength + segmentLength - 1) / segmentLength;
+        segmentCount = segmentCount <= ARITY - 1 ? 1 : segmentCount - (ARITY - 1);
+        arrayLength = (segmentCount + ARITY - 1) * segmentLength;
+        int segmentCountLength = segmentCount * segmentLength;
+        int segmentLengthMask = segmentLength - 1;
+
+        long[] reverseOrder = new long[size + 1];
+        byte[] reverseH = new byte[size];
+        int[] alone = new int[arrayLength];
+        byte[] t2count = new byte[arrayLength];
+        long[] t2hash = new long[arrayLength];
+        int[] h012 = new int[5];
+
+        int blockBits = 1;
+        while ((1 << blockBits) < segmentCount) {
+            blockBits++;
+        }
+        int block = 1 << blockBits;
+        int[] startPos = new int[block];
+
+        long seed = 0;
+        for (int attempt = 0; ; attempt++) {
+            if (attempt == MAX_ATTEMPTS) {
+                throw new IllegalStateException("Failed to build binary fuse filter for " + size + " keys");
+            }
+
+            seed = ThreadLocalRandom.current().nextLong();
+            Arrays.fill(reverseOrder, 0);
+            reverseOrder[size] = 1;
+            Arrays.fill(t2count, (byte) 0);
+            Arrays.fill(t2hash, 0);
+
+            // Sort hashes by segment, so the fingerprint array is filled with good locality
+            for (int i = 0; i < block; i++) {
+                startPos[i] = (int) ((long) i * size >> blockBits);
+            }
+            for (long key : keys) {
+                long hash = mix(key, seed);
+                int segmentIndex = (int) (hash >>> (64 - blockBits));
+                while (reverseOrder[startPos[segmentIndex]] != 0) {
+                    segmentIndex = (segmentIndex + 1) & (block - 1);
+                }
+                reverseOrder[startPos[segmentIndex]] = hash;
+                startPos[segmentIndex]++;
+            }
+
+            boolean overflow = false;
+            for (int i = 0; i < size; i++) {
+                long hash = reverseOrder[i];
+                for (int index = 0; index < ARITY; index++) {
+                    int h = hashOf(hash, index, segmentLength, segmentLengthMask, segmentCountLength);
+                    t2count[h] += 4;
+                    t2count[h] ^= (byte) index;
+                    t2hash[h] ^= hash;
+                    overflow |= (t2count[h] & 0xff) < 4;
+                }
+            }
+            if (overflow) {
+                continue;
+            }
+
+            // Peel cells referenced by a single key until every key is assigned a cell
+            int queueSize = 0;
+            for (int i = 0; i < arrayLength; i++) {
+                alone[queueSize] = i;
+                if ((t2count[i] >> 2) == 1) {
+                    queueSize++;
+                }
+            }
+
+            int stackSize = 0;
+            while (queueSize > 0) {
+                int index = alone[--queueSize];
+                if ((t2count[index] >> 2) != 1) {
+                    continue;
+                }
+
+                long hash = t2hash[index];
+                int found = t2count[index] & 3;
+                reverseH[stackSize] = (byte) found;
+                reverseOrder[stackSize] = hash;
+                stackSize++;
+
+                fillHashes(hash, h012, segmentLength, segmentLengthMask, segmentCountLength);
+                for (int shift = 1; shift < ARITY; shift++) {
+                    int other = h012[found + shift];
+                    alone[queueSize] = other;
+                    if ((t2count[other] >> 2) == 2) {
+                        queueSize++;
+                    }
+                    t2count[other] -= 4;
+                    t2count[other] ^= (byte) ((found + shift) % ARITY);
+                    t2hash[other] ^= hash;
+                }
+            }
+
+            if (stackSize == size) {
+                break;
+            }
+        }
+
+        byte[] fingerprints = new byte[arrayLength];
+        for (int i = size - 1; i >= 0; i--) {
+            long hash = reverseOrder[i];
+            int found = reverseH[i];
+            fillHashes(hash, h012, segmentLength, segmentLengthMask, segmentCountLength);
+            fingerprints[h012[found]] = (byte) (fingerprint(hash)
+                    ^ fingerprints[h012[found + 1]]
+                    ^ fingerprints[h012[found + 2]]);
+        }
+
+        long fingerprintsLongs = (arrayLength + Long.BYTES - 1) / Long.BYTES;
+        MemorySegment filter = MemorySegment.ofArray(new long[Math.toIntExact(HEADER_SIZE / Long.BYTES + fingerprintsLongs)]);
+        filter.set(ValueLayout.JAVA_LONG_UNALIGNED, 0, seed);
+        filter.set(ValueLayout.JAVA_LONG_UNALIGNED, Long.BYTES, segmentLength);
+        filter.set(ValueLayout.JAVA_LONG_UNALIGNED, 2L * Long.BYTES, segmentCountLength);
+        filter.set(ValueLayout.JAVA_LONG_UNALIGNED, 3L * Long.BYTES, arrayLength);
+        MemorySegment.copy(MemorySegment.ofArray(fingerprints), 0, filter, HEADER_SIZE, arrayLength);
+        return filter;
+    }
+
+    private static void fillHashes(long hash, int[] h012, int segmentLength, int segmentLengthMask, int segmentCountLength) {
+        for (int index = 0; index < ARITY; index++) {
+            h012[index] = hashOf(hash, index, segmentLength, segmentLengthMask, segmentCountLength);
+        }
+        h012[3] = h012[0];
+        h012[4] = h012[1];
+    }
+
+    /**
+     * Cell of the {@code index}-th hash function, each function addresses its own one of three consecutive segments.
+     */
+    private static int hashOf(long hash, int index, int segmentLength, int segmentLengthMask, int segmentCountLength) {
+        long h = Math.unsignedMultiplyHigh(hash, segmentCountLength);
+        h += (long) index * segmentLength;
+        long hh = hash & ((1L << 36) - 1);
+        h ^= (hh >>> (36 - 18 * index)) & segmentLengthMask;
+        return (int) h;
+    }
+
+    private static int fingerprint(long hash) {
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    private static long mix(long key, long seed) {
+        long h = key + seed;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,198 @@
+package ru.axothy.storage;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Off-heap cache of SSTable data blocks shared by all tables of a storage.
+ * <p>
+ * Blocks are copied into fixed-size frames carved out of slabs allocated in the storage arena on demand.
+ * Frames are evicted with CLOCK: a hit sets the frame reference bit, the hand clears set bits and takes
+ * the first unreferenced frame. Blocks enter the cache unreferenced, so blocks read once are the first
+ * to go. A frame is pinned while a reader uses it and is never evicted while pinned.
+ */
+public final class BlockCache {
+
+    /**
+     * Blocks larger than a frame (a single entry above the block size) are read from the table directly.
+     */
+    public static final int FRAME_SIZE = 2 * SSTableFormat.BLOCK_SIZE;
+
+    private static final int FRAMES_PER_SLAB = 128;
+
+    private static final long NO_OWNER = -1;
+
+    /**
+     * Pin count of a frame that is being filled or has never been used.
+     */
+    private static final int EXCLUSIVE = -1;
+
+    private final Arena arena;
+
+    private final int framesCount;
+
+    private final MemorySegment[] slabs;
+
+    private final ConcurrentHashMap<Long, Integer> index = new ConcurrentHashMap<>();
+
+    private final AtomicLongArray owners;
+
+    private final AtomicIntegerArray sizes;
+
+    private final AtomicIntegerArray pins;
+
+    private final AtomicIntegerArray referenced;
+
+    private final AtomicLong hand = new AtomicLong();
+
+    private final AtomicLong freshFrames = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param arena arena slabs are allocated in, the cache must not be used after it is closed
+     */
+    public BlockCache(long capacityBytes, Arena arena) {
+        this.arena = arena;
+        this.framesCount = Math.toIntExact(Math.max(1, capacityBytes / FRAME_SIZE));
+        this.slabs = new MemorySegment[(framesCount + FRAMES_PER_SLAB - 1) / FRAMES_PER_SLAB];
+        this.owners = new AtomicLongArray(framesCount);
+        this.sizes = new AtomicIntegerArray(framesCount);
+        this.pins = new AtomicIntegerArray(framesCount);
+        this.referenced = new AtomicIntegerArray(framesCount);
+
+        for (int frame = 0; frame < framesCount; frame++) {
+            owners.set(frame, NO_OWNER);
+            pins.set(frame, EXCLUSIVE);
+        }
+    }
+
+    /**
+     * Looks the block up and pins its frame.
+     * @return pinned frame or {@code -1} if the block is not cached
+     */
+    public int pin(long tableId, long block) {
+        long key = key(tableId, block);
+
+        Integer frame = index.get(key);
+        if (frame != null && tryPin(frame)) {
+            // The frame could be reused for another block between the lookup and the pin
+            if (owners.get(frame) == key) {
+                referenced.set(frame, 1);
+                hits.increment();
+                return frame;
+            }
+            release(frame);
+        }
+
+        misses.increment();
+        return -1;
+    }
+
+    /**
+     * Copies block into the cache and pins its frame.
+     * @return pinned frame or {@code -1} if the block does not fit a frame or every frame is pinned
+     */
+    public int insert(long tableId, long block, MemorySegment data) {
+        if (data.byteSize() > FRAME_SIZE) {
+            return -1;
+        }
+
+        int frame = claimFrame();
+        if (frame < 0) {
+            return -1;
+        }
+
+        long oldKey = owners.get(frame);
+        if (oldKey != NO_OWNER) {
+            index.remove(oldKey, frame);
+            evictions.increment();
+        }
+
+        MemorySegment.copy(data, 0, slice(frame), 0, data.byteSize());
+        long key = key(tableId, block);
+        sizes.set(frame, (int) data.byteSize());
+        owners.set(frame, key);
+        pins.set(frame, 1);
+        index.put(key, frame);
+
+        return frame;
+    }
+
+    /**
+     * @return data of a pinned frame
+     */
+    public MemorySegment frame(int frame) {
+        return slice(frame).asSlice(0, sizes.get(frame));
+    }
+
+    public void release(int frame) {
+        pins.decrementAndGet(frame);
+    }
+
+    public BlockCacheStats stats() {
+        return new BlockCacheStats(hits.sum(), misses.sum(), evictions.sum(), (long) framesCount * FRAME_SIZE);
+    }
+
+    /**
+     * @return frame with {@link #EXCLUSIVE} pin count, {@code -1} if every frame is pinned
+     */
+    private int claimFrame() {
+        long fresh = freshFrames.getAndIncrement();
+        if (fresh < framesCount) {
+            allocateSlab((int) fresh / FRAMES_PER_SLAB);
+            return (int) fresh;
+        }
+
+        for (int i = 0; i < 2 * framesCount; i++) {
+            int frame = (int) (hand.getAndIncrement() % framesCount);
+            if (referenced.getAndSet(frame, 0) == 1) {
+                continue;
+            }
+            if (pins.compareAndSet(frame, 0, EXCLUSIVE)) {
+                return frame;
+            }
+        }
+
+        return -1;
+    }
+
+    private synchronized void allocateSlab(int slab) {
+        if (slabs[slab] == null) {
+            int frames = Math.min(FRAMES_PER_SLAB, framesCount - slab * FRAMES_PER_SLAB);
+            slabs[slab] = arena.allocate((long) frames * FRAME_SIZE, Long.BYTES);
+        }
+    }
+
+    private boolean tryPin(int frame) {
+        while (true) {
+            int count = pins.get(frame);
+            if (count < 0) {
+                return false;
+            }
+            if (pins.compareAndSet(frame, count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Slab of a frame is published by the pin count write that made the frame available.
+     */
+    private MemorySegment slice(int frame) {
+        return slabs[frame / FRAMES_PER_SLAB].asSlice((long) (frame % FRAMES_PER_SLAB) * FRAME_SIZE, FRAME_SIZE);
+    }
+
+    private static long key(long tableId, long block) {
+        return tableId << 32 | block;
+    }
+}
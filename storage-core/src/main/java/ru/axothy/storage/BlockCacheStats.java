@@ -0,0 +1,11 @@
+package ru.axothy.storage;
+
+public record BlockCacheStats(long hits, long misses, long evictions, long capacityBytes) {
+
+    public static final BlockCacheStats DISABLED = new BlockCacheStats(0, 0, 0, 0);
+
+    public double hitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+}
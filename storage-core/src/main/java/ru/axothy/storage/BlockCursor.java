@@ -0,0 +1,272 @@
+package ru.axothy.storage;
+
+import ru.axothy.api.Entry;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Arrays;
+
+import static ru.axothy.storage.SSTableFormat.ENTRY_HEADER_SIZE;
+import static ru.axothy.storage.SSTableFormat.TOMBSTONE;
+import static ru.axothy.storage.SSTableFormat.expiringValueSize;
+
+/**
+ * Position inside a {@link SSTableFormat block-based} table. Keys are prefix-compressed, so the cursor
+ * rebuilds the current key in its own buffer while moving forward.
+ * <p>
+ * With a {@link BlockCache} the current block is read from a pinned cache frame, the frame is released
+ * when the cursor moves to another block or is closed.
+ */
+final class BlockCursor implements AutoCloseable {
+
+    private final BlockTableReader table;
+
+    private final BlockCache cache;
+
+    private long block = -1;
+
+    private MemorySegment blockData;
+
+    private int frame = -1;
+
+    private long restartsOffset;
+
+    private int restartsCount;
+
+    /**
+     * Offset of the entry following the current one.
+     */
+    private long position;
+
+    private byte[] key = new byte[64];
+
+    private MemorySegment keySegment = MemorySegment.ofArray(key);
+
+    private int keySize;
+
+    /**
+     * Exact-size view of the key buffer, recreated only when the key size or the buffer changes.
+     */
+    private MemorySegment keyView = MemorySegment.NULL;
+
+    private byte[] value = new byte[64];
+
+    private MemorySegment valueView = MemorySegment.NULL;
+
+    private long valueOffset;
+
+    private int valueSize;
+
+    private long expiresAt;
+
+    private boolean valid;
+
+    /**
+     * @param cache cache to read blocks through, {@code null} to read the table directly
+     */
+    BlockCursor(BlockTableReader table, BlockCache cache) {
+        this.table = table;
+        this.cache = cache;
+    }
+
+    void seekToFirst() {
+        if (table.blocksCount() == 0) {
+            valid = false;
+            return;
+        }
+
+        loadBlock(0);
+        advance();
+    }
+
+    /**
+     * Moves to the first entry with key not less than {@code target}.
+     */
+    void seek(MemorySegment target) {
+        seek(target, 0);
+    }
+
+    /**
+     * Same as {@link #seek(MemorySegment)} for a {@code target} not less than the key of the previous seek:
+     * the index search starts from the current block, which is not reloaded if it holds the target.
+     */
+    void seekForward(MemorySegment target) {
+        seek(target, Math.max(block, 0));
+    }
+
+    private void seek(MemorySegment target, long fromBlock) {
+        long targetBlock = table.findBlock(target, fromBlock);
+        if (targetBlock >= table.blocksCount()) {
+            valid = false;
+            return;
+        }
+        if (targetBlock != block) {
+            loadBlock(targetBlock);
+        }
+
+        // Last restart point with key not greater than target, restart keys are stored in full
+        int low = 0;
+        int high = restartsCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            long restart = restartOffset(mid);
+            int restartKeySize = blockData.get(ValueLayout.JAVA_INT_UNALIGNED, restart + Integer.BYTES);
+
+            if (SSTableFormat.compare(blockData, restart + ENTRY_HEADER_SIZE, restartKeySize, target) <= 0) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        position = restartOffset(low);
+        advance();
+        while (valid && compareKey(target) < 0) {
+            advance();
+        }
+    }
+
+    /**
+     * Moves to the next entry, crossing block boundaries.
+     */
+    void advance() {
+        while (position >= restartsOffset) {
+            if (block + 1 >= table.blocksCount()) {
+                valid = false;
+                return;
+            }
+            loadBlock(block + 1);
+        }
+
+        int shared = blockData.get(ValueLayout.JAVA_INT_UNALIGNED, position);
+        int unshared = blockData.get(ValueLayout.JAVA_INT_UNALIGNED, position + Integer.BYTES);
+        int size = blockData.get(ValueLayout.JAVA_INT_UNALIGNED, position + 2L * Integer.BYTES);
+        long keyOffset = position + ENTRY_HEADER_SIZE;
+
+        ensureKeyCapacity(shared + unshared);
+        MemorySegment.copy(blockData, ValueLayout.JAVA_BYTE, keyOffset, key, shared, unshared);
+        keySize = shared + unshared;
+
+        valueOffset = keyOffset + unshared;
+        if (size < TOMBSTONE) {
+            valueSize = expiringValueSize(size);
+            expiresAt = blockData.get(ValueLayout.JAVA_LONG_UNALIGNED, valueOffset + valueSize);
+            position = valueOffset + valueSize + Long.BYTES;
+        } else {
+            valueSize = size;
+            expiresAt = Entry.NEVER_EXPIRES;
+            position = valueOffset + (size == TOMBSTONE ? 0 : size);
+        }
+        valid = true;
+    }
+
+    boolean isValid() {
+        return valid;
+    }
+
+    int compareKey(MemorySegment other) {
+        return SSTableFormat.compare(keySegment, 0, keySize, other);
+    }
+
+    /**
+     * @return key of the current entry, a view of the cursor buffer valid until the cursor moves
+     */
+    MemorySegment keyView() {
+        if (keyView.byteSize() != keySize) {
+            keyView = keySegment.asSlice(0, keySize);
+        }
+        return keyView;
+    }
+
+    /**
+     * @return value of the current entry copied into a buffer reused by the cursor, {@code null} for a tombstone
+     */
+    MemorySegment valueView() {
+        if (valueSize == TOMBSTONE) {
+            return null;
+        }
+
+        if (valueSize > value.length) {
+            value = new byte[Math.max(valueSize, value.length * 2)];
+            valueView = MemorySegment.NULL;
+        }
+        MemorySegment.copy(blockData, ValueLayout.JAVA_BYTE, valueOffset, value, 0, valueSize);
+        if (valueView.byteSize() != valueSize) {
+            valueView = MemorySegment.ofArray(value).asSlice(0, valueSize);
+        }
+        return valueView;
+    }
+
+    boolean isTombstone() {
+        return valueSize == TOMBSTONE;
+    }
+
+    long expiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * @return current entry, the key is copied out of the cursor buffer, the value is a slice of the table
+     * or a copy if the block was read from the cache
+     */
+    Entry<MemorySegment> entry() {
+        MemorySegment entryKey = MemorySegment.ofArray(Arrays.copyOf(key, keySize));
+        if (valueSize == TOMBSTONE) {
+            return new BaseEntry<>(entryKey, null);
+        }
+
+        MemorySegment value = blockData.asSlice(valueOffset, valueSize);
+        if (frame >= 0) {
+            value = MemorySegment.ofArray(value.toArray(ValueLayout.JAVA_BYTE));
+        }
+        return expiresAt == Entry.NEVER_EXPIRES
+                ? new BaseEntry<>(entryKey, value)
+                : new ExpiringEntry<>(entryKey, value, expiresAt);
+    }
+
+    @Override
+    public void close() {
+        if (frame >= 0) {
+            cache.release(frame);
+            frame = -1;
+        }
+    }
+
+    private void loadBlock(long newBlock) {
+        close();
+
+        block = newBlock;
+        long blockOffset = table.blockOffset(newBlock);
+        int blockSize = table.blockSize(newBlock);
+
+        blockData = null;
+        if (cache != null) {
+            frame = cache.pin(table.id(), newBlock);
+            if (frame < 0) {
+                frame = cache.insert(table.id(), newBlock, table.segment().asSlice(blockOffset, blockSize));
+            }
+            if (frame >= 0) {
+                blockData = cache.frame(frame);
+            }
+        }
+        if (blockData == null) {
+            blockData = table.segment().asSlice(blockOffset, blockSize);
+        }
+
+        restartsCount = blockData.get(ValueLayout.JAVA_INT_UNALIGNED, blockSize - Integer.BYTES);
+        restartsOffset = blockSize - Integer.BYTES - (long) restartsCount * Integer.BYTES;
+        position = 0;
+    }
+
+    private long restartOffset(int restart) {
+        return blockData.get(ValueLayout.JAVA_INT_UNALIGNED, restartsOffset + (long) restart * Integer.BYTES);
+    }
+
+    private void ensureKeyCapacity(int capacity) {
+        if (capacity > key.length) {
+            key = Arrays.copyOf(key, Math.max(capacity, key.length * 2));
+            keySegment = MemorySegment.ofArray(key);
+            keyView = MemorySegment.NULL;
+        }
+    }
+}
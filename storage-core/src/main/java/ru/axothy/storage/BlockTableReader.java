@@ -0,0 +1,293 @@
+package ru.axothy.storage;
+
+import ru.axothy.api.Entry;
+import ru.axothy.config.FilterType;
+import ru.axothy.iterators.EntryCursor;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static ru.axothy.storage.SSTableFormat.BLOCKS_COUNT_OFFSET;
+import static ru.axothy.storage.SSTableFormat.ENTRIES_COUNT_OFFSET;
+import static ru.axothy.storage.SSTableFormat.ENTRY_HEADER_SIZE;
+import static ru.axothy.storage.SSTableFormat.EXPIRATION_FLAG;
+import static ru.axothy.storage.SSTableFormat.FILTER_LENGTH_OFFSET;
+import static ru.axothy.storage.SSTableFormat.FILTER_OFFSET_OFFSET;
+import static ru.axothy.storage.SSTableFormat.FILTER_TYPE_OFFSET;
+import static ru.axothy.storage.SSTableFormat.FLAGS_OFFSET;
+import static ru.axothy.storage.SSTableFormat.HASH_FUNCTIONS_OFFSET;
+import static ru.axothy.storage.SSTableFormat.HEADER_SIZE;
+import static ru.axothy.storage.SSTableFormat.INDEX_OFFSET_OFFSET;
+import static ru.axothy.storage.SSTableFormat.INDEX_RECORD_HEADER_SIZE;
+import static ru.axothy.storage.SSTableFormat.RANGE_TOMBSTONES_FLAG;
+
+/**
+ * Reader of {@link SSTableFormat block-based} tables. A point lookup reads the sparse index
+ * and a single data block.
+ */
+final class BlockTableReader implements SSTableReader {
+
+    private final MemorySegment segment;
+
+    private final long id;
+
+    private final BlockCache cache;
+
+    private final long indexOffset;
+
+    private final long blocksCount;
+
+    private final KeyFilter filter;
+
+    private final RangeTombstones rangeTombstones;
+
+    private final long expiresAt;
+
+    BlockTableReader(MemorySegment segment, long id, BlockCache cache) {
+        this.segment = segment;
+        this.id = id;
+        this.cache = cache;
+        this.indexOffset = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, INDEX_OFFSET_OFFSET);
+        this.blocksCount = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, BLOCKS_COUNT_OFFSET);
+        this.filter = KeyFilter.open(
+                FilterType.values()[segment.get(ValueLayout.JAVA_INT_UNALIGNED, FILTER_TYPE_OFFSET)],
+                segment,
+                segment.get(ValueLayout.JAVA_LONG_UNALIGNED, FILTER_OFFSET_OFFSET),
+                segment.get(ValueLayout.JAVA_LONG_UNALIGNED, FILTER_LENGTH_OFFSET),
+                segment.get(ValueLayout.JAVA_LONG_UNALIGNED, HASH_FUNCTIONS_OFFSET));
+
+        // Metadata blocks are laid out back to back before the index
+        int flags = segment.get(ValueLayout.JAVA_INT_UNALIGNED, FLAGS_OFFSET);
+        long metadataOffset = indexOffset;
+        if ((flags & RANGE_TOMBSTONES_FLAG) == 0) {
+            this.rangeTombstones = RangeTombstones.EMPTY;
+        } else {
+            long rangesOffset = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, metadataOffset - Long.BYTES);
+            this.rangeTombstones = readRangeTombstones(rangesOffset, metadataOffset - Long.BYTES);
+            metadataOffset = rangesOffset;
+        }
+        this.expiresAt = (flags & EXPIRATION_FLAG) == 0
+                ? Entry.NEVER_EXPIRES
+                : segment.get(ValueLayout.JAVA_LONG_UNALIGNED, metadataOffset - Long.BYTES);
+    }
+
+    /**
+     * Ranges are written sorted and disjoint.
+     */
+    private RangeTombstones readRangeTombstones(long offset, long end) {
+        List<MemorySegment> starts = new ArrayList<>();
+        List<MemorySegment> ends = new ArrayList<>();
+        while (offset < end) {
+            int fromSize = segment.get(ValueLayout.JAVA_INT_UNALIGNED, offset);
+            MemorySegment from = segment.asSlice(offset + Integer.BYTES, fromSize);
+            offset += Integer.BYTES + fromSize;
+            int toSize = segment.get(ValueLayout.JAVA_INT_UNALIGNED, offset);
+            MemorySegment to = segment.asSlice(offset + Integer.BYTES, toSize);
+            offset += Integer.BYTES + toSize;
+
+            starts.add(from);
+            ends.add(to);
+        }
+        return RangeTombstones.ofSorted(starts, ends);
+    }
+
+    @Override
+    public boolean mayContain(long hashBase, long hashIncrement) {
+        return filter.mayContain(hashBase, hashIncrement);
+    }
+
+    @Override
+    public Entry<MemorySegment> get(MemorySegment key) {
+        try (BlockCursor cursor = new BlockCursor(this, cache)) {
+            cursor.seek(key);
+
+            if (cursor.isValid() && cursor.compareKey(key) == 0) {
+                return cursor.entry();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Looks all keys up with a single cursor, so neighbouring keys share index searches and data blocks.
+     */
+    @Override
+    public List<Entry<MemorySegment>> getAll(List<MemorySegment> sortedKeys) {
+        List<Entry<MemorySegment>> entries = new ArrayList<>(sortedKeys.size());
+        try (BlockCursor cursor = new BlockCursor(this, cache)) {
+            for (MemorySegment key : sortedKeys) {
+                cursor.seekForward(key);
+                entries.add(cursor.isValid() && cursor.compareKey(key) == 0 ? cursor.entry() : null);
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public Iterator<Entry<MemorySegment>> iterator(MemorySegment from, MemorySegment to) {
+        // Scans read past the cache, so a large scan does not evict blocks of point lookups
+        BlockCursor cursor = new BlockCursor(this, null);
+        if (from == null) {
+            cursor.seekToFirst();
+        } else {
+            cursor.seek(from);
+        }
+
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return cursor.isValid() && (to == null || cursor.compareKey(to) < 0);
+            }
+
+            @Override
+            public Entry<MemorySegment> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                Entry<MemorySegment> entry = cursor.entry();
+                cursor.advance();
+                return entry;
+            }
+        };
+    }
+
+    @Override
+    public EntryCursor cursor(MemorySegment from, MemorySegment to) {
+        BlockCursor cursor = new BlockCursor(this, null);
+
+        return new EntryCursor() {
+            private boolean started;
+
+            @Override
+            public boolean advance() {
+                if (started) {
+                    cursor.advance();
+                } else if (from == null) {
+                    started = true;
+                    cursor.seekToFirst();
+                } else {
+                    started = true;
+                    cursor.seek(from);
+                }
+                return cursor.isValid() && (to == null || cursor.compareKey(to) < 0);
+            }
+
+            @Override
+            public MemorySegment keySegment() {
+                return cursor.keyView();
+            }
+
+            @Override
+            public MemorySegment valueSegment() {
+                return cursor.valueView();
+            }
+
+            @Override
+            public boolean isTombstone() {
+                return cursor.isTombstone();
+            }
+
+            @Override
+            public long expiresAt() {
+                return cursor.expiresAt();
+            }
+        };
+    }
+
+    @Override
+    public RangeTombstones rangeTombstones() {
+        return rangeTombstones;
+    }
+
+    @Override
+    public long expiresAt() {
+        return expiresAt;
+    }
+
+    @Override
+    public long entriesCount() {
+        return segment.get(ValueLayout.JAVA_LONG_UNALIGNED, ENTRIES_COUNT_OFFSET);
+    }
+
+    /**
+     * Samples last keys of blocks, blocks hold about the same number of bytes.
+     */
+    @Override
+    public List<MemorySegment> sampleKeys(int count) {
+        int samples = (int) Math.min(count, blocksCount);
+        List<MemorySegment> keys = new ArrayList<>(samples);
+        for (int i = 0; i < samples; i++) {
+            long record = indexRecord((i + 1) * blocksCount / samples - 1);
+            keys.add(segment.asSlice(record + INDEX_RECORD_HEADER_SIZE, indexKeySize(record)));
+        }
+        return keys;
+    }
+
+    @Override
+    public MemorySegment minKey() {
+        // The first entry of a table is a restart point, its key is stored in full
+        int keySize = segment.get(ValueLayout.JAVA_INT_UNALIGNED, HEADER_SIZE + Integer.BYTES);
+        return segment.asSlice(HEADER_SIZE + ENTRY_HEADER_SIZE, keySize);
+    }
+
+    @Override
+    public MemorySegment maxKey() {
+        long record = indexRecord(blocksCount - 1);
+        return segment.asSlice(record + INDEX_RECORD_HEADER_SIZE, indexKeySize(record));
+    }
+
+    /**
+     * @param fromBlock block to start the search from, blocks before it must end with keys less than {@code key}
+     * @return index of the first block whose last key is not less than {@code key}, {@code blocksCount} if none
+     */
+    long findBlock(MemorySegment key, long fromBlock) {
+        long low = fromBlock;
+        long high = blocksCount;
+
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            long record = indexRecord(mid);
+
+            if (SSTableFormat.compare(segment, record + INDEX_RECORD_HEADER_SIZE, indexKeySize(record), key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    long blockOffset(long block) {
+        return segment.get(ValueLayout.JAVA_LONG_UNALIGNED, indexRecord(block));
+    }
+
+    int blockSize(long block) {
+        return segment.get(ValueLayout.JAVA_INT_UNALIGNED, indexRecord(block) + Long.BYTES);
+    }
+
+    private long indexRecord(long block) {
+        return segment.get(ValueLayout.JAVA_LONG_UNALIGNED, indexOffset + block * Long.BYTES);
+    }
+
+    private int indexKeySize(long record) {
+        return segment.get(ValueLayout.JAVA_INT_UNALIGNED, record + Long.BYTES + Integer.BYTES);
+    }
+
+    MemorySegment segment() {
+        return segment;
+    }
+
+    long id() {
+        return id;
+    }
+
+    long blocksCount() {
+        return blocksCount;
+    }
+}
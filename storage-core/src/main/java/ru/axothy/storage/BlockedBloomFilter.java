@@ -0,0 +1,122 @@
+package ru.axothy.storage;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * Bloom filter made of 512-bit blocks. The first half of the key hash selects the block, the second half
+ * selects the bits inside it, so a probe reads one cache line instead of one per hash function.
+ */
+public final class BlockedBloomFilter implements KeyFilter {
+
+    public static final int BLOCK_LONGS = 8;
+
+    private static final int BLOCK_BITS = BLOCK_LONGS * Long.SIZE;
+
+    /**
+     * Shift leaving the 9 high bits of a long, a bit position inside a block.
+     */
+    private static final int BIT_SHIFT = Long.SIZE - Integer.numberOfTrailingZeros(BLOCK_BITS);
+
+    private final MemorySegment sstable;
+
+    private final long filterOffset;
+
+    private final long filterLength;
+
+    private final long hashFunctions;
+
+    public BlockedBloomFilter(MemorySegment sstable, long filterOffset, long filterLength, long hashFunctions) {
+        this.sstable = sstable;
+        this.filterOffset = filterOffset;
+        this.filterLength = filterLength;
+        this.hashFunctions = hashFunctions;
+    }
+
+    @Override
+    public boolean mayContain(long hashBase, long hashIncrement) {
+        return mayContain(hashBase, hashIncrement, sstable, filterOffset, filterLength, hashFunctions);
+    }
+
+    /**
+     * Same as {@link BloomFilter.Builder}, the length is rounded up to whole blocks.
+     */
+    static final class Builder implements KeyFilter.Builder {
+        private final KeyHashes hashes = new KeyHashes();
+
+        private final double falsePositiveRate;
+
+        private final int hashFunctions;
+
+        Builder(double falsePositiveRate, int hashFunctions) {
+            this.falsePositiveRate = falsePositiveRate;
+            this.hashFunctions = hashFunctions;
+        }
+
+        @Override
+        public void add(long hashBase, long hashIncrement) {
+            hashes.add(hashBase, hashIncrement);
+        }
+
+        @Override
+        public MemorySegment build() {
+            long[] filter = new long[Math.toIntExact(filterLength(Math.max(1, BloomFilter.bloomFilterLength(hashes.size(), falsePositiveRate))))];
+            for (int i = 0; i < hashes.size(); i++) {
+                BlockedBloomFilter.add(hashes.base(i), hashes.increment(i), filter, hashFunctions);
+            }
+            return MemorySegment.ofArray(filter);
+        }
+    }
+
+    /**
+     * @return filter length in longs, a whole number of blocks holding at least {@code bloomFilterLength} longs
+     */
+    public static long filterLength(long bloomFilterLength) {
+        long blocks = Math.max(1, (bloomFilterLength + BLOCK_LONGS - 1) / BLOCK_LONGS);
+        return blocks * BLOCK_LONGS;
+    }
+
+    public static void add(long base, long inc, long[] filter, int hashFunctionsNum) {
+        int blockOffset = (int) (block(base, filter.length / BLOCK_LONGS) * BLOCK_LONGS);
+
+        long combinedHash = inc;
+        long step = step(base);
+        for (int i = 0; i < hashFunctionsNum; i++) {
+            int bit = (int) (combinedHash >>> BIT_SHIFT);
+            filter[blockOffset + (bit >>> 6)] |= 1L << bit;
+            combinedHash += step;
+        }
+    }
+
+    /**
+     * Probes filter of {@code filterLength} longs stored in {@code sstable} at {@code filterOffset}.
+     */
+    public static boolean mayContain(long base, long inc, MemorySegment sstable, long filterOffset,
+                                     long filterLength, long hashFunctions) {
+        long blockOffset = filterOffset + block(base, filterLength / BLOCK_LONGS) * BLOCK_LONGS * Long.BYTES;
+
+        long combinedHash = inc;
+        long step = step(base);
+        for (int i = 0; i < hashFunctions; i++) {
+            int bit = (int) (combinedHash >>> BIT_SHIFT);
+            long word = sstable.get(ValueLayout.JAVA_LONG_UNALIGNED, blockOffset + (long) (bit >>> 6) * Long.BYTES);
+            if ((word & (1L << bit)) == 0) {
+                return false;
+            }
+            combinedHash += step;
+        }
+
+        return true;
+    }
+
+    /**
+     * Maps hash to {@code [0; blocks)} without division.
+     */
+    private static long block(long hash, long blocks) {
+        return Math.unsignedMultiplyHigh(hash, blocks);
+    }
+
+    private static long step(long base) {
+        return Long.rotateLeft(base, 32) | 1;
+    }
+}
@@ -5,14 +5,27 @@ import ru.axothy.hash.MurmurHash;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
 
-import static ru.axothy.storage.SSTableUtils.BLOOM_FILTER_HASH_FUNCTIONS_OFFSET;
-import static ru.axothy.storage.SSTableUtils.BLOOM_FILTER_LENGTH_OFFSET;
-
-public final class BloomFilter {
+public final class BloomFilter implements KeyFilter {
     private static final int LONG_ADDRESSABLE_BITS = 6;
 
-    private BloomFilter() {
+    private final MemorySegment sstable;
+
+    private final long filterOffset;
+
+    private final long bitSize;
+
+    private final long hashFunctions;
 
+    public BloomFilter(MemorySegment sstable, long filterOffset, long bitSize, long hashFunctions) {
+        this.sstable = sstable;
+        this.filterOffset = filterOffset;
+        this.bitSize = bitSize;
+        this.hashFunctions = hashFunctions;
+    }
+
+    @Override
+    public boolean mayContain(long hashBase, long hashIncrement) {
+        return mayContain(hashBase, hashIncrement, sstable, filterOffset, bitSize, hashFunctions);
     }
 
     public static long bloomFilterLength(long entriesCount, double falsePositiveRate) {
@@ -20,6 +33,36 @@ public final class BloomFilter {
         return (long) (-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
     }
 
+    /**
+     * Collects key hashes and sizes the filter by their number once all keys are added.
+     */
+    static final class Builder implements KeyFilter.Builder {
+        private final KeyHashes hashes = new KeyHashes();
+
+        private final double falsePositiveRate;
+
+        private final int hashFunctions;
+
+        Builder(double falsePositiveRate, int hashFunctions) {
+            this.falsePositiveRate = falsePositiveRate;
+            this.hashFunctions = hashFunctions;
+        }
+
+        @Override
+        public void add(long hashBase, long hashIncrement) {
+            hashes.add(hashBase, hashIncrement);
+        }
+
+        @Override
+        public MemorySegment build() {
+            long[] filter = new long[Math.toIntExact(Math.max(1, bloomFilterLength(hashes.size(), falsePositiveRate)))];
+            for (int i = 0; i < hashes.size(); i++) {
+                BloomFilter.add(hashes.base(i), hashes.increment(i), filter, hashFunctions);
+            }
+            return MemorySegment.ofArray(filter);
+        }
+    }
+
     /** Divides {@code entriesCount} by {@code 64} with ceiling rounding.
      */
     private static long divide(long entriesCount) {
@@ -33,41 +76,31 @@ public final class BloomFilter {
         return div + 1;
     }
 
-    public static void addToSstable(MemorySegment key, MemorySegment sstable, int hashFunctionsNum, long bitSize) {
-        long[] indexes = MurmurHash.hash64(key, 0, (int) key.byteSize());
-
-        long base = indexes[0];
-        long inc = indexes[1];
+    /**
+     * Hashes {@code key} into {@code out}, the hash is reused to probe the filters of every table.
+     */
+    public static void hash(MemorySegment key, long[] out) {
+        MurmurHash.hash64(key, 0, (int) key.byteSize(), MurmurHash.DEFAULT_SEED, out);
+    }
 
+    public static void add(long base, long inc, long[] filter, int hashFunctionsNum) {
+        long bitSize = (long) filter.length * Long.SIZE;
         long combinedHash = base;
         for (int i = 0; i < hashFunctionsNum; i++) {
             long bitIndex = (combinedHash & Long.MAX_VALUE) % bitSize;
-            set(bitIndex, sstable);
+            filter[(int) (bitIndex >>> LONG_ADDRESSABLE_BITS)] |= 1L << bitIndex;
             combinedHash += inc;
         }
     }
 
-    private static void set(long bitIndex, MemorySegment sstable) {
-        long bitOffset = offsetForIndex(bitIndex);
-
-        long mask = 1L << bitIndex;
-
-        long oldValue = sstable.get(ValueLayout.JAVA_LONG_UNALIGNED, bitOffset);
-        sstable.set(ValueLayout.JAVA_LONG_UNALIGNED, bitOffset, oldValue | mask);
-    }
-
-    public static boolean sstableMayContain(MemorySegment key, MemorySegment sstable) {
-        long[] indexes = MurmurHash.hash64(key, 0, (int) key.byteSize(), MurmurHash.DEFAULT_SEED);
-
-        long base = indexes[0];
-        long inc = indexes[1];
-
-        long bitSize = sstable.get(ValueLayout.JAVA_LONG_UNALIGNED, BLOOM_FILTER_LENGTH_OFFSET) * Long.SIZE;
-        long hashFunctions = sstable.get(ValueLayout.JAVA_LONG_UNALIGNED, BLOOM_FILTER_HASH_FUNCTIONS_OFFSET);
-
+    /**
+     * Probes filter of {@code bitSize} bits stored in {@code sstable} at {@code filterOffset}
+     * with key hash halves {@code base} and {@code inc} from {@link #hash(MemorySegment, long[])}.
+     */
+    public static boolean mayContain(long base, long inc, MemorySegment sstable, long filterOffset, long bitSize, long hashFunctions) {
         long combinedHash = base;
         for (int i = 0; i < hashFunctions; i++) {
-            if (!getFromSstable((combinedHash & Long.MAX_VALUE) % bitSize, sstable)) {
+            if (!getFromSstable((combinedHash & Long.MAX_VALUE) % bitSize, sstable, filterOffset)) {
                 return false;
             }
             combinedHash += inc;
@@ -76,18 +109,18 @@ public final class BloomFilter {
         return true;
     }
 
-    private static boolean getFromSstable(long bitIndex, MemorySegment sstable) {
-        long bitOffset = offsetForIndex(bitIndex);
+    private static boolean getFromSstable(long bitIndex, MemorySegment sstable, long filterOffset) {
+        long bitOffset = filterOffset + offsetForIndex(bitIndex);
 
         long hashFromSstable = sstable.get(ValueLayout.JAVA_LONG_UNALIGNED, bitOffset);
         return (hashFromSstable & (1L << bitIndex)) != 0;
     }
 
-    /** Get sstable offset for bloom filter array index.
+    /** Get offset inside the filter for bloom filter array index.
      */
     private static long offsetForIndex(long bitIndex) {
         long longIndex = bitIndex >>> LONG_ADDRESSABLE_BITS;
-        return 3L * Long.BYTES + longIndex * Long.BYTES;
+        return longIndex * Long.BYTES;
     }
 
 }
@@ -0,0 +1,25 @@
+package ru.axothy.storage;
+
+import ru.axothy.api.Entry;
+
+import java.time.Duration;
+
+/**
+ * Entry hidden from reads from {@code expiresAt} on and dropped by compactions afterwards.
+ *
+ * @param expiresAt epoch millisecond the entry expires at
+ */
+public record ExpiringEntry<Data>(Data key, Data value, long expiresAt) implements Entry<Data> {
+
+    /**
+     * @return entry expiring {@code ttl} after the current time
+     */
+    public static <Data> ExpiringEntry<Data> of(Data key, Data value, Duration ttl) {
+        return new ExpiringEntry<>(key, value, System.currentTimeMillis() + ttl.toMillis());
+    }
+
+    @Override
+    public String toString() {
+        return "{" + key + ":" + value + " until " + expiresAt + "}";
+    }
+}
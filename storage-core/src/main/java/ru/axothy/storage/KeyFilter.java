@@ -0,0 +1,54 @@
+package ru.axothy.storage;
+
+import ru.axothy.config.Config;
+import ru.axothy.config.FilterType;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Approximate membership filter of a table. Keys are probed by their hash from
+ * {@link BloomFilter#hash(MemorySegment, long[])}, computed once per lookup.
+ */
+public interface KeyFilter {
+
+    /**
+     * @return {@code false} if the table has no key with this hash
+     */
+    boolean mayContain(long hashBase, long hashIncrement);
+
+    /**
+     * Filter written into a table, fed with hashes of all table keys.
+     */
+    interface Builder {
+        void add(long hashBase, long hashIncrement);
+
+        /**
+         * @return filter data to store in the table, its size is a multiple of {@code Long.BYTES}
+         */
+        MemorySegment build();
+    }
+
+    /**
+     * Opens filter of {@code filterLength} longs stored in {@code table} at {@code filterOffset}.
+     */
+    static KeyFilter open(FilterType type, MemorySegment table, long filterOffset, long filterLength, long hashFunctions) {
+        return switch (type) {
+            case BLOOM -> new BloomFilter(table, filterOffset, filterLength * Long.SIZE, hashFunctions);
+            case BLOCKED_BLOOM -> new BlockedBloomFilter(table, filterOffset, filterLength, hashFunctions);
+            case BINARY_FUSE -> BinaryFuseFilter.open(table, filterOffset);
+        };
+    }
+
+    /**
+     * @return builder sizing the filter by the number of added keys
+     */
+    static Builder builder(FilterType type, Config config) {
+        return switch (type) {
+            case BLOOM -> new BloomFilter.Builder(
+                    config.bloomFilterFalsePositiveProbability(), config.bloomFilterHashFunctionsCount());
+            case BLOCKED_BLOOM -> new BlockedBloomFilter.Builder(
+                    config.bloomFilterFalsePositiveProbability(), config.bloomFilterHashFunctionsCount());
+            case BINARY_FUSE -> new BinaryFuseFilter.Builder();
+        };
+    }
+}
@@ -0,0 +1,33 @@
+package ru.axothy.storage;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of key hashes, filters sized by the number of keys are built from it once a table is complete.
+ */
+final class KeyHashes {
+    private long[] hashes = new long[2048];
+
+    private int size;
+
+    void add(long hashBase, long hashIncrement) {
+        if (2 * size == hashes.length) {
+            hashes = Arrays.copyOf(hashes, hashes.length * 2);
+        }
+        hashes[2 * size] = hashBase;
+        hashes[2 * size + 1] = hashIncrement;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long base(int index) {
+        return hashes[2 * index];
+    }
+
+    long increment(int index) {
+        return hashes[2 * index + 1];
+    }
+}
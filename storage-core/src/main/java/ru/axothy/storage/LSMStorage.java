@@ -2,34 +2,57 @@ package ru.axothy.storage;
 
 import ru.axothy.api.Storage;
 import ru.axothy.api.Entry;
+import ru.axothy.compaction.CompactionStats;
+import ru.axothy.compaction.CompactionStrategy;
+import ru.axothy.compaction.CompactionTask;
+import ru.axothy.config.CompactionStyle;
 import ru.axothy.config.Config;
-import ru.axothy.iterators.MergeIterator;
+import ru.axothy.iterators.CancellableCursor;
+import ru.axothy.iterators.EntryCursor;
+import ru.axothy.iterators.ExpiredAsTombstoneCursor;
+import ru.axothy.iterators.IteratorCursor;
+import ru.axothy.iterators.LoserTreeIterator;
+import ru.axothy.iterators.MergeCursor;
 import ru.axothy.iterators.PeekingIterator;
 import ru.axothy.iterators.PeekingIteratorImpl;
+import ru.axothy.iterators.SkipTombstoneCursor;
 import ru.axothy.iterators.SkipTombstoneIterator;
+import ru.axothy.iterators.ThrottledCursor;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.SortedMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 
 import static ru.axothy.storage.SSTableUtils.sizeOf;
 
 public class LSMStorage implements Storage<MemorySegment, Entry<MemorySegment>> {
 
+    /**
+     * Per-thread buffer for the key hash, a lookup hashes the key once for the filters of all tables.
+     */
+    private static final ThreadLocal<long[]> KEY_HASH = ThreadLocal.withInitial(() -> new long[2]);
+
     private final SSTableManager ssTablesStorage;
 
     private final Config config;
@@ -38,19 +61,54 @@ public class LSMStorage implements Storage<MemorySegment, Entry<MemorySegment>>
 
     private final AtomicReference<StorageState> state;
 
-    private final ExecutorService bgExecutor = Executors.newSingleThreadExecutor();
+    private final BackgroundScheduler scheduler;
+
+    /**
+     * Flushes and compactions run concurrently, the manifest has to be written in the order of state updates.
+     */
+    private final Object manifestLock = new Object();
 
     private final AtomicBoolean closed = new AtomicBoolean();
 
-    private final ReadWriteLock upsertLock = new ReentrantReadWriteLock();
+    private final CountDownLatch closeLatch = new CountDownLatch(1);
+
+    /**
+     * Serializes memtable seals and snapshots, the only operations blocking writers of the active memtable.
+     */
+    private final Object sealLock = new Object();
+
+    /**
+     * Sequence number of the last write, assigned in the write-ahead log order once the writer entered the active
+     * memtable. Writes of the same key may reach the memtable out of that order, the newer sequence number wins.
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final Snapshots snapshots = new Snapshots();
+
+    private final WriteAheadLog wal;
+
+    private final WriteController writeController;
 
-    private final AtomicLong size = new AtomicLong();
+    private final CompactionStrategy compaction;
+
+    private final AtomicLong flushedBytes = new AtomicLong();
+
+    private final AtomicLong compactedBytes = new AtomicLong();
 
     public LSMStorage(Config config) {
         this.config = config;
         this.arena = Arena.ofShared();
-        this.ssTablesStorage = new SSTableManager(config);
-        this.state = new AtomicReference<>(StorageState.initial(SSTableManager.loadOrRecover(config.basePath(), arena)));
+        this.ssTablesStorage = new SSTableManager(config, arena);
+        this.compaction = CompactionStrategy.of(config);
+        this.scheduler = new BackgroundScheduler(config.subcompactions());
+
+        StorageState initialState = StorageState.initial(ssTablesStorage.loadOrRecover());
+        this.wal = WriteAheadLog.open(config, initialState.getActive()::upsert, initialState.getActive()::deleteRange);
+        this.state = new AtomicReference<>(initialState);
+        this.writeController = new WriteController(
+                () -> state.get().getImmutables().size(),
+                config.maxImmutableMemtables(),
+                WriteController.DEFAULT_DELAYED_WRITE_RATE);
     }
 
     public static int comparator(MemorySegment segment1, MemorySegment segment2) {
@@ -80,177 +138,659 @@ public class LSMStorage implements Storage<MemorySegment, Entry<MemorySegment>>
     public Iterator<Entry<MemorySegment>> get(MemorySegment from, MemorySegment to) {
         StorageState currState = this.state.get();
 
-        PeekingIterator<Entry<MemorySegment>> rangeIterator = range(
-                memoryIterator(currState.getReadEntries(), from, to),
-                memoryIterator(currState.getWriteEntries(), from, to),
-                currState.getSstables(),
-                from,
-                to);
+        return get(currState, from, to, Long.MAX_VALUE);
+    }
 
-        return new SkipTombstoneIterator(rangeIterator);
+    Iterator<Entry<MemorySegment>> get(StorageState state, MemorySegment from, MemorySegment to, long sequence) {
+        return new SkipTombstoneIterator(range(state, from, to, sequence), System.currentTimeMillis());
     }
 
     @Override
     public Entry<MemorySegment> get(MemorySegment key) {
-        StorageState currState = this.state.get();
-
-        Entry<MemorySegment> result = currState.getWriteEntries().get(key);
-        if (result != null) {
-            return result.value() == null ? null : result;
+        RateLimiter rateLimiter = ssTablesStorage.rateLimiter();
+        if (!rateLimiter.autoTuning()) {
+            return lookup(key, state.get(), Long.MAX_VALUE);
         }
-        result = currState.getReadEntries().get(key);
-        if (result != null) {
-            return result.value() == null ? null : result;
+
+        long start = System.nanoTime();
+        Entry<MemorySegment> result = lookup(key, state.get(), Long.MAX_VALUE);
+        rateLimiter.recordLatency(System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Looks the key up from the newest source to the oldest. An entry of a source is newer than its range
+     * tombstones, so the entry is checked first. An expired value hides older versions just like a tombstone.
+     * Memtable updates written after {@code sequence} are not seen.
+     */
+    Entry<MemorySegment> lookup(MemorySegment key, StorageState currState, long sequence) {
+        long now = System.currentTimeMillis();
+
+        for (Memtable memtable : memtables(currState)) {
+            Entry<MemorySegment> result = memtable.get(key, sequence);
+            if (result != null) {
+                return live(result, now);
+            }
+            if (memtable.rangeTombstones(sequence).covers(key)) {
+                return null;
+            }
         }
 
-        return getFromDisk(key, currState);
+        return getFromDisk(key, currState, now);
+    }
+
+    private static Entry<MemorySegment> live(Entry<MemorySegment> entry, long now) {
+        return entry.value() == null || entry.expiresAt() <= now ? null : entry;
     }
 
-    private static Entry<MemorySegment> getFromDisk(MemorySegment key, StorageState state) {
+    private static Entry<MemorySegment> getFromDisk(MemorySegment key, StorageState state, long now) {
+        List<SSTable> sstables = state.getSstables();
+        if (sstables.isEmpty()) {
+            return null;
+        }
+
+        long[] keyHash = null;
+
         Entry<MemorySegment> result;
+        for (SSTable sstable : sstables) {
+            if (!sstable.covers(key)) {
+                continue;
+            }
+            if (keyHash == null) {
+                keyHash = KEY_HASH.get();
+                BloomFilter.hash(key, keyHash);
+            }
 
-        for (MemorySegment sstable : state.getSstables()) {
-            boolean mayContain = BloomFilter.sstableMayContain(key, sstable);
-            if (mayContain) {
-                result = SSTableUtils.get(sstable, key);
+            if (sstable.mayContain(keyHash)) {
+                result = sstable.get(key);
 
                 if (result != null) {
-                    return result.value() == null ? null : result;
+                    return live(result, now);
                 }
             }
+            if (sstable.rangeTombstones().covers(key)) {
+                return null;
+            }
         }
 
         return null;
     }
 
-    private PeekingIterator<Entry<MemorySegment>> range(Iterator<Entry<MemorySegment>> firstIterator, Iterator<Entry<MemorySegment>> secondIterator,
-                                                        List<MemorySegment> segments, MemorySegment from, MemorySegment to) {
-        final List<PeekingIterator<Entry<MemorySegment>>> iterators = List.of(
-                new PeekingIteratorImpl<>(firstIterator, 1),
-                new PeekingIteratorImpl<>(secondIterator, 0),
-                new PeekingIteratorImpl<>(SSTableManager.iteratorsAll(segments, from, to), 2)
-        );
+    /**
+     * Looks many keys up at once. Keys are sorted and hashed once and every table is probed in key order,
+     * so neighbouring keys share index searches and data blocks instead of starting from scratch.
+     *
+     * @return entries in the order of {@code keys}, {@code null} for a missing key
+     */
+    public List<Entry<MemorySegment>> multiGet(Collection<MemorySegment> keys) {
+        StorageState currState = this.state.get();
+        long now = System.currentTimeMillis();
+
+        List<Lookup> pending = new ArrayList<>(keys.size());
+        for (MemorySegment key : keys) {
+            pending.add(new Lookup(key, pending.size()));
+        }
+        List<Entry<MemorySegment>> results = new ArrayList<>(Collections.nCopies(pending.size(), null));
+        pending.sort((a, b) -> comparator(a.key, b.key));
+
+        for (Memtable memtable : memtables(currState)) {
+            RangeTombstones deleted = memtable.rangeTombstones();
+            pending.removeIf(lookup -> {
+                Entry<MemorySegment> result = memtable.get(lookup.key);
+                if (result != null) {
+                    results.set(lookup.position, live(result, now));
+                    return true;
+                }
+                return !deleted.isEmpty() && deleted.covers(lookup.key);
+            });
+            if (pending.isEmpty()) {
+                return results;
+            }
+        }
+
+        for (Lookup lookup : pending) {
+            BloomFilter.hash(lookup.key, lookup.hash);
+        }
+        List<MemorySegment> probed = new ArrayList<>(pending.size());
+        List<Lookup> probedLookups = new ArrayList<>(pending.size());
+        for (SSTable sstable : currState.getSstables()) {
+            probed.clear();
+            probedLookups.clear();
+            for (Lookup lookup : pending) {
+                if (sstable.covers(lookup.key) && sstable.mayContain(lookup.hash)) {
+                    probed.add(lookup.key);
+                    probedLookups.add(lookup);
+                }
+            }
+
+            if (!probed.isEmpty()) {
+                List<Entry<MemorySegment>> found = sstable.getAll(probed);
+                for (int i = 0; i < found.size(); i++) {
+                    Entry<MemorySegment> result = found.get(i);
+                    if (result != null) {
+                        Lookup lookup = probedLookups.get(i);
+                        results.set(lookup.position, live(result, now));
+                        lookup.resolved = true;
+                    }
+                }
+            }
+            RangeTombstones deleted = sstable.rangeTombstones();
+            pending.removeIf(lookup -> lookup.resolved
+                    || !deleted.isEmpty() && sstable.covers(lookup.key) && deleted.covers(lookup.key));
+            if (pending.isEmpty()) {
+                break;
+            }
+        }
 
-        return new PeekingIteratorImpl<>(MergeIterator.merge(iterators, LSMStorage::entryComparator));
+        return results;
     }
 
-    private PeekingIterator<Entry<MemorySegment>> iteratorForCompaction(List<MemorySegment> segments) {
-        return new PeekingIteratorImpl<>(SSTableManager.iteratorsAll(segments, null, null));
+    private static final class Lookup {
+        private final MemorySegment key;
+        private final int position;
+        private final long[] hash = new long[2];
+        private boolean resolved;
+
+        private Lookup(MemorySegment key, int position) {
+            this.key = key;
+            this.position = position;
+        }
     }
 
-    private static Iterator<Entry<MemorySegment>> memoryIterator(SortedMap<MemorySegment, Entry<MemorySegment>> entries, MemorySegment from, MemorySegment to
-    ) {
-        if (from == null && to == null) {
-            return entries.values().iterator();
-        } else if (from == null) {
-            return entries.headMap(to).values().iterator();
-        } else if (to == null) {
-            return entries.tailMap(from).values().iterator();
-        } else {
-            return entries.subMap(from, to).values().iterator();
+    /**
+     * Cursor over live entries with keys in {@code [from; to)}, {@code null} bound is unbounded.
+     * Unlike {@link #get(MemorySegment, MemorySegment)} it does not create an entry per row:
+     * segments of the current entry are valid until the cursor advances.
+     */
+    public EntryCursor scan(MemorySegment from, MemorySegment to) {
+        StorageState currState = state.get();
+        List<Memtable> memtables = memtables(currState);
+        List<EntryCursor> cursors = new ArrayList<>(memtables.size() + 1);
+
+        RangeTombstones deleted = RangeTombstones.EMPTY;
+        for (Memtable memtable : memtables) {
+            cursors.add(deleted.intersects(from, to)
+                    ? new RangeTombstoneCursor(
+                            (lower, upper) -> new IteratorCursor(memtable.iterator(lower, upper)), from, to, deleted)
+                    : new IteratorCursor(memtable.iterator(from, to)));
+            deleted = deleted.union(memtable.rangeTombstones());
+        }
+        cursors.add(SSTableManager.cursorsAll(currState.getSstables(), from, to, deleted));
+
+        EntryCursor merged = new MergeCursor(cursors, LSMStorage::comparator);
+        return new SkipTombstoneCursor(new ExpiredAsTombstoneCursor(merged, System.currentTimeMillis()));
+    }
+
+    /**
+     * Merges memtables and tables in read priority order: active memtable, sealed memtables from newest to oldest,
+     * then tables on disk.
+     */
+    private static PeekingIterator<Entry<MemorySegment>> range(StorageState state, MemorySegment from,
+                                                               MemorySegment to, long sequence) {
+        List<Memtable> memtables = memtables(state);
+        List<PeekingIterator<Entry<MemorySegment>>> iterators = new ArrayList<>(memtables.size() + 1);
+
+        int priority = 0;
+        RangeTombstones deleted = RangeTombstones.EMPTY;
+        for (Memtable memtable : memtables) {
+            Iterator<Entry<MemorySegment>> iterator = deleted.intersects(from, to)
+                    ? new RangeTombstoneIterator((lower, upper) -> memtable.iterator(lower, upper, sequence),
+                            from, to, deleted)
+                    : memtable.iterator(from, to, sequence);
+            iterators.add(new PeekingIteratorImpl<>(iterator, priority++));
+            deleted = deleted.union(memtable.rangeTombstones(sequence));
         }
+        iterators.add(new PeekingIteratorImpl<>(
+                SSTableManager.iteratorsAll(state.getSstables(), from, to, deleted), priority));
+
+        return new PeekingIteratorImpl<>(LoserTreeIterator.merge(iterators, LSMStorage::entryComparator));
+    }
+
+    /**
+     * @return active memtable followed by sealed ones from newest to oldest
+     */
+    private static List<Memtable> memtables(StorageState state) {
+        List<Memtable> immutables = state.getImmutables();
+        if (immutables.isEmpty()) {
+            return List.of(state.getActive());
+        }
+
+        List<Memtable> memtables = new ArrayList<>(immutables.size() + 1);
+        memtables.add(state.getActive());
+        memtables.addAll(immutables);
+        return memtables;
     }
 
     @Override
     public void upsert(Entry<MemorySegment> entry) {
-        final boolean autoFlush;
-        final MemorySegment key = entry.key();
+        writeController.beforeWrite(sizeOf(entry));
 
-        Entry<MemorySegment> old;
-        upsertLock.readLock().lock();
+        Memtable memtable = enterActive();
+        long memtableSize;
         try {
-            old = state.get().getWriteEntries().put(key, entry);
-
-            final long curSize = size.addAndGet(sizeOf(entry) - sizeOf(old));
-            autoFlush = curSize > config.flushThresholdBytes();
+            memtableSize = memtable.upsert(entry, wal.append(entry, sequence::incrementAndGet), snapshots);
         } finally {
-            upsertLock.readLock().unlock();
+            memtable.exitWrite();
         }
 
-        if (autoFlush) {
-            flush();
+        if (memtableSize > config.flushThresholdBytes() && memtable.requestSeal() && seal(memtable)) {
+            scheduleFlush();
         }
     }
 
-    @Override
-    public void compact() {
-        bgExecutor.execute(() -> {
+    /**
+     * Applies {@code batch} with a single write-ahead log append and a single memtable size update. All updates of
+     * the batch go to the same memtable, so a flush never persists a part of it.
+     */
+    public void write(WriteBatch batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        writeController.beforeWrite(batch.byteSize());
+
+        Memtable memtable;
+        long memtableSize;
+        if (batch.hasRangeDeletions()) {
+            memtable = writeExclusively(active -> {
+                active.apply(batch, wal.append(batch, sequence::incrementAndGet), snapshots);
+            });
+            memtableSize = memtable.byteSize();
+        } else {
+            memtable = enterActive();
             try {
-                StorageState currState = this.state.get();
-                MemorySegment newPage = compact(currState.getSstables());
-                this.state.set(currState.compact(newPage));
-            } catch (IOException e) {
-                throw new UncheckedIOException(e);
+                memtableSize = memtable.apply(batch, wal.append(batch, sequence::incrementAndGet), snapshots);
+            } finally {
+                memtable.exitWrite();
             }
+        }
+
+        if (memtableSize > config.flushThresholdBytes() && memtable.requestSeal() && seal(memtable)) {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Deletes keys in {@code [from; to)} with a single range tombstone instead of a tombstone per key.
+     */
+    @Override
+    public void deleteRange(MemorySegment from, MemorySegment to) {
+        if (from == null || to == null) {
+            throw new IllegalArgumentException("Range bounds are required");
+        }
+        if (comparator(from, to) >= 0) {
+            return;
+        }
+        writeController.beforeWrite(from.byteSize() + to.byteSize());
+
+        Memtable memtable = writeExclusively(active -> {
+            active.deleteRange(from, to, wal.appendRangeDeletion(from, to, sequence::incrementAndGet), snapshots);
         });
+
+        if (memtable.byteSize() > config.flushThresholdBytes() && memtable.requestSeal() && seal(memtable)) {
+            scheduleFlush();
+        }
+    }
+
+    @Override
+    public void compact() {
+        scheduler.compact(() -> {
+            dropExpiredTables();
+            runCompaction(compaction.full(state.get().getSstables()), false);
+        }, false);
     }
 
-    private MemorySegment compact(List<MemorySegment> segments) throws IOException {
-        Iterator<Entry<MemorySegment>> iterator = new SkipTombstoneIterator(iteratorForCompaction(segments));
+    private void scheduleCompaction() {
+        if (config.compactionStyle() == CompactionStyle.MANUAL || closed.get()) {
+            return;
+        }
+
+        try {
+            scheduler.compact(this::compactByScore, true);
+        } catch (RejectedExecutionException e) {
+            //storage is closing
+        }
+    }
 
-        long sizeForCompaction = 0;
-        long entryCount = 0;
-        long nonEmptyEntryCount = 0;
-        while (iterator.hasNext()) {
-            Entry<MemorySegment> entry = iterator.next();
-            sizeForCompaction += entry.key().byteSize();
-            MemorySegment value = entry.value();
-            if (value != null) {
-                sizeForCompaction += value.byteSize();
-                nonEmptyEntryCount++;
+    private void compactByScore() {
+        dropExpiredTables();
+        while (!closed.get()) {
+            CompactionTask task = compaction.pick(state.get().getSstables());
+            if (task == null) {
+                return;
             }
-            entryCount++;
+            runCompaction(task, true);
         }
+    }
 
-        if (entryCount == 0) {
-            return null;
+    /**
+     * Removes tables whose values have all expired without rewriting them. Tombstones of such a table go away
+     * with it, so only tables which no older table overlaps are removed.
+     */
+    private void dropExpiredTables() {
+        long now = System.currentTimeMillis();
+        List<SSTable> sstables = state.get().getSstables();
+
+        Set<SSTable> expired = new HashSet<>();
+        for (int i = 0; i < sstables.size(); i++) {
+            SSTable sstable = sstables.get(i);
+            if (sstable.expiresAt() <= now && !overlapsOlder(sstables, i)) {
+                expired.add(sstable);
+            }
+        }
+        if (expired.isEmpty()) {
+            return;
         }
 
-        long newBloomFilterLength = BloomFilter.bloomFilterLength(entryCount, config.bloomFilterFalsePositiveProbability());
+        try {
+            synchronized (manifestLock) {
+                StorageState nextState = state.updateAndGet(current -> current.compact(expired, List.of()));
+                ssTablesStorage.updateManifest(expired, List.of(), nextState.getSstables());
+            }
+            ssTablesStorage.delete(expired);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-        sizeForCompaction += 2L * Long.BYTES * nonEmptyEntryCount;
-        sizeForCompaction += 3L * Long.BYTES + Long.BYTES * nonEmptyEntryCount; //for metadata (header + key offsets)
-        sizeForCompaction += Long.BYTES * newBloomFilterLength; //for bloom filter
+    /**
+     * @param sstables tables in read priority order, older tables follow newer ones
+     */
+    private static boolean overlapsOlder(List<SSTable> sstables, int table) {
+        SSTable sstable = sstables.get(table);
+        for (int i = table + 1; i < sstables.size(); i++) {
+            if (sstables.get(i).overlaps(sstable.minKey(), sstable.maxKey())) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        iterator = new SkipTombstoneIterator(iteratorForCompaction(segments));
-        return ssTablesStorage.compact(iterator, sizeForCompaction, nonEmptyEntryCount, newBloomFilterLength);
+    /**
+     * @param cancellable whether the compaction is abandoned on close, its partial outputs are removed on next open
+     */
+    private void runCompaction(CompactionTask task, boolean cancellable) {
+        if (task == null) {
+            return;
+        }
+
+        try {
+            List<SSTable> outputs;
+            if (task.isTrivialMove()) {
+                outputs = List.of(task.inputs().getFirst().withLevel(task.outputLevel()));
+            } else {
+                outputs = merge(task, cancellable);
+                for (SSTable output : outputs) {
+                    compactedBytes.addAndGet(output.byteSize());
+                }
+            }
+
+            Set<SSTable> inputs = new HashSet<>(task.inputs());
+            synchronized (manifestLock) {
+                StorageState nextState = state.updateAndGet(current -> current.compact(inputs, outputs));
+                ssTablesStorage.updateManifest(inputs, outputs, nextState.getSstables());
+            }
+
+            if (!task.isTrivialMove()) {
+                ssTablesStorage.delete(task.inputs());
+            }
+        } catch (CancellationException e) {
+            //storage is closing, inputs stay in the manifest
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Merges compaction inputs, splitting large compactions into disjoint key ranges merged in parallel.
+     * Outputs of a range precede outputs of the following ranges, so together they are a sorted run.
+     */
+    private List<SSTable> merge(CompactionTask task, boolean cancellable) throws IOException {
+        long inputBytes = 0;
+        for (SSTable input : task.inputs()) {
+            inputBytes += input.byteSize();
+        }
+        int parts = (int) Math.min(config.subcompactions(), inputBytes / compaction.targetFileBytes());
+        ForkJoinPool subcompactionPool = scheduler.subcompactionPool();
+        List<MemorySegment> boundaries = subcompactionPool == null || parts < 2
+                ? List.of()
+                : SSTableManager.splitPoints(task.inputs(), parts);
+        if (boundaries.isEmpty()) {
+            return mergeRange(task, null, null, cancellable);
+        }
+
+        List<Future<List<SSTable>>> subcompactions = new ArrayList<>(boundaries.size() + 1);
+        for (int i = 0; i <= boundaries.size(); i++) {
+            MemorySegment from = i == 0 ? null : boundaries.get(i - 1);
+            MemorySegment to = i == boundaries.size() ? null : boundaries.get(i);
+            subcompactions.add(subcompactionPool.submit(() -> mergeRange(task, from, to, cancellable)));
+        }
+
+        List<SSTable> outputs = new ArrayList<>();
+        try {
+            for (Future<List<SSTable>> subcompaction : subcompactions) {
+                outputs.addAll(subcompaction.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for subcompactions", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof CancellationException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("Subcompaction failed", e.getCause());
+        }
+        return outputs;
+    }
+
+    private List<SSTable> mergeRange(CompactionTask task, MemorySegment from, MemorySegment to, boolean cancellable)
+            throws IOException {
+        RateLimiter rateLimiter = ssTablesStorage.rateLimiter();
+        EntryCursor merged = SSTableManager.cursorsAll(task.inputs(), from, to, RangeTombstones.EMPTY);
+        // Expired values still have to hide older versions of their keys unless nothing older is left
+        merged = new ExpiredAsTombstoneCursor(merged, System.currentTimeMillis());
+        if (rateLimiter.chargesReads()) {
+            merged = new ThrottledCursor(merged, bytes -> rateLimiter.request(bytes, RateLimiter.Priority.LOW));
+        }
+        if (task.bottommost()) {
+            merged = new SkipTombstoneCursor(merged);
+        }
+        if (cancellable) {
+            merged = new CancellableCursor(merged, scheduler::compactionsCancelled);
+        }
+
+        // Nothing older is left below a bottommost compaction for range tombstones to delete
+        RangeTombstones rangeTombstones = RangeTombstones.EMPTY;
+        if (!task.bottommost()) {
+            for (SSTable input : task.inputs()) {
+                rangeTombstones = rangeTombstones.union(input.rangeTombstones());
+            }
+            rangeTombstones = rangeTombstones.clip(from, to);
+        }
+
+        long targetFileBytes = compaction.targetFileBytes();
+        return ssTablesStorage.write(merged, rangeTombstones, task.outputLevel(), targetFileBytes,
+                RateLimiter.Priority.LOW);
+    }
+
+    /**
+     * Enters the active memtable for a write. A memtable being sealed blocks writers until the next one is active.
+     */
+    private Memtable enterActive() {
+        long pause = 0;
+        while (true) {
+            Memtable memtable = state.get().getActive();
+            if (memtable.enterWrite()) {
+                return memtable;
+            }
+            pause = Memtable.backOff(pause);
+            LockSupport.parkNanos(pause);
+        }
+    }
+
+    /**
+     * Applies {@code update} to the active memtable with other writes to it blocked. Writes in progress finish
+     * first and later ones wait, so they precede or follow the update both in sequence numbers and in the log.
+     * A range deletion relies on it: entries it leaves next to the range in the memtable are newer than the range.
+     *
+     * @return the updated memtable
+     */
+    private Memtable writeExclusively(Consumer<Memtable> update) {
+        // Held throughout, otherwise the memtable could be sealed while it is updated
+        synchronized (sealLock) {
+            Memtable active = state.get().getActive();
+            active.blockWrites();
+            try {
+                update.accept(active);
+            } finally {
+                active.unblockWrites();
+            }
+            return active;
+        }
     }
 
     @Override
     public void flush() {
-        bgExecutor.execute(() -> {
-            StorageState prevState = state.get();
-            SortedMap<MemorySegment, Entry<MemorySegment>> writeEntries = prevState.getWriteEntries();
-            if (writeEntries.isEmpty()) {
-                return;
-            }
+        seal(state.get().getActive());
+        scheduleFlush();
+    }
 
-            StorageState nextState = prevState.beforeFlush();
-            upsertLock.writeLock().lock();
+    /**
+     * Takes a point-in-time view of the storage. Writers of the active memtable are drained while it is taken,
+     * so every write with a sequence number up to the snapshot one is already in the memtable.
+     */
+    public Snapshot snapshot() {
+        synchronized (sealLock) {
+            Memtable active = state.get().getActive();
+            active.blockWrites();
             try {
-                state.set(nextState);
+                Snapshot snapshot = new Snapshot(this, state.get(), sequence.get());
+                snapshots.register(snapshot.sequence());
+                return snapshot;
             } finally {
-                upsertLock.writeLock().unlock();
+                active.unblockWrites();
+            }
+        }
+    }
+
+    void release(Snapshot snapshot) {
+        snapshots.release(snapshot.sequence());
+    }
+
+    /**
+     * Moves {@code memtable} to the flush queue if it is still the active one.
+     * Writes to the memtable stay blocked from the switch on, so a sealed memtable never receives updates
+     * and its write-ahead log segments hold exactly its entries.
+     */
+    private boolean seal(Memtable memtable) {
+        synchronized (sealLock) {
+            if (state.get().getActive() != memtable) {
+                return false;
+            }
+            memtable.blockWrites();
+            if (memtable.isEmpty()) {
+                memtable.unblockWrites();
+                return false;
+            }
+
+            try {
+                memtable.walSegments(wal.rotate());
+            } catch (RuntimeException e) {
+                memtable.unblockWrites();
+                memtable.cancelSealRequest();
+                throw e;
+            }
+            state.updateAndGet(StorageState::seal);
+            return true;
+        }
+    }
+
+    private void scheduleFlush() {
+        try {
+            scheduler.flush(this::flushImmutables);
+        } catch (RejectedExecutionException e) {
+            //storage is closed, memtables are recovered from write-ahead log
+        }
+    }
+
+    private void flushImmutables() {
+        try {
+            drainFlushQueue();
+        } catch (RuntimeException e) {
+            // The memtable stays queued, the next scheduled flush retries it
+            writeController.onFlushFailed(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Drains the flush queue from the oldest memtable, so every new table is newer than the tables on disk.
+     */
+    private void drainFlushQueue() {
+        while (true) {
+            List<Memtable> immutables = state.get().getImmutables();
+            if (immutables.isEmpty()) {
+                return;
             }
 
-            Collection<Entry<MemorySegment>> toFlush = writeEntries.values();;
-            MemorySegment newPage;
+            Memtable memtable = immutables.getLast();
             try {
-                newPage = ssTablesStorage.write(toFlush, config.bloomFilterFalsePositiveProbability());
+                SSTable newTable = ssTablesStorage.write(memtable.entries(), memtable.rangeTombstones(), 0);
+
+                synchronized (manifestLock) {
+                    StorageState nextState = state.updateAndGet(current -> current.afterFlush(memtable, newTable));
+                    ssTablesStorage.updateManifest(List.of(), List.of(newTable), nextState.getSstables());
+                }
+                flushedBytes.addAndGet(newTable.byteSize());
+                WriteAheadLog.delete(memtable.walSegments());
             } catch (IOException e) {
                 throw new UncheckedIOException(e);
             }
 
-            nextState = nextState.afterFlush(newPage);
-            upsertLock.writeLock().lock();
-            try {
-                state.set(nextState);
-            } finally {
-                upsertLock.writeLock().unlock();
+            writeController.onFlushCompleted();
+            scheduleCompaction();
+        }
+    }
+
+    public CompactionStats compactionStats() {
+        List<SSTable> sstables = state.get().getSstables();
+
+        int sortedRuns = 0;
+        int lastLevel = 0;
+        for (SSTable sstable : sstables) {
+            if (sstable.level() == 0) {
+                sortedRuns++;
+            } else if (sstable.level() != lastLevel) {
+                sortedRuns++;
+                lastLevel = sstable.level();
             }
-        });
+        }
+
+        return new CompactionStats(flushedBytes.get(), compactedBytes.get(), sstables.size(), sortedRuns);
+    }
+
+    public BlockCacheStats blockCacheStats() {
+        return ssTablesStorage.blockCacheStats();
     }
 
+    public SchedulerStats schedulerStats() {
+        return scheduler.stats();
+    }
+
+    /**
+     * Limiter of flush and compaction I/O, can be reconfigured while the storage is running.
+     */
+    public RateLimiter rateLimiter() {
+        return ssTablesStorage.rateLimiter();
+    }
+
+    /**
+     * Flushes memtables and waits for background jobs. Explicitly requested compactions are completed before
+     * the memtables are flushed, as on a single background thread, so they do not merge the tables of the flush.
+     * Automatic compactions are cancelled and picked up again after the next open.
+     */
     @Override
     public void close() throws IOException {
         if (closed.getAndSet(true)) {
@@ -258,17 +798,26 @@ public class LSMStorage implements Storage<MemorySegment, Entry<MemorySegment>>
             return;
         }
 
-        flush();
-        bgExecutor.execute(arena::close);
-        bgExecutor.shutdown();
-        waitForClose();
+        try {
+            scheduler.cancelCompactions();
+            scheduler.awaitCompactions();
+            flush();
+            scheduler.shutdown();
+            if (!scheduler.awaitTermination(5, TimeUnit.MINUTES)) {
+                throw new IOException("Background jobs did not finish in time");
+            }
+            wal.close();
+            arena.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeLatch.countDown();
+        }
     }
 
     private void waitForClose() {
         try {
-            if (!bgExecutor.awaitTermination(5, TimeUnit.MINUTES)) {
-                throw new InterruptedException("Timeout");
-            }
+            closeLatch.await();
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
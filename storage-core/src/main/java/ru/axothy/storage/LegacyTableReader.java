@@ -0,0 +1,89 @@
+package ru.axothy.storage;
+
+import ru.axothy.api.Entry;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static ru.axothy.storage.SSTableUtils.BLOOM_FILTER_HASH_FUNCTIONS_OFFSET;
+import static ru.axothy.storage.SSTableUtils.BLOOM_FILTER_LENGTH_OFFSET;
+import static ru.axothy.storage.SSTableUtils.ENTRIES_SIZE_OFFSET;
+
+/**
+ * Reader of version 1 tables: header, bloom filter, offset of every entry, entries.
+ * Tables are no longer written in this format, they are read until compacted away.
+ */
+final class LegacyTableReader implements SSTableReader {
+
+    private static final long HEADER_SIZE = 3L * Long.BYTES;
+
+    private final MemorySegment segment;
+
+    private final KeyFilter filter;
+
+    LegacyTableReader(MemorySegment segment) {
+        this.segment = segment;
+
+        if (segment.byteSize() < HEADER_SIZE) {
+            //not a table, there is nothing to probe
+            this.filter = new BloomFilter(segment, HEADER_SIZE, 0, 0);
+        } else {
+            this.filter = new BloomFilter(segment, HEADER_SIZE,
+                    segment.get(ValueLayout.JAVA_LONG_UNALIGNED, BLOOM_FILTER_LENGTH_OFFSET) * Long.SIZE,
+                    segment.get(ValueLayout.JAVA_LONG_UNALIGNED, BLOOM_FILTER_HASH_FUNCTIONS_OFFSET));
+        }
+    }
+
+    @Override
+    public boolean mayContain(long hashBase, long hashIncrement) {
+        return filter.mayContain(hashBase, hashIncrement);
+    }
+
+    @Override
+    public Entry<MemorySegment> get(MemorySegment key) {
+        return SSTableUtils.get(segment, key);
+    }
+
+    @Override
+    public Iterator<Entry<MemorySegment>> iterator(MemorySegment from, MemorySegment to) {
+        return SSTableManager.iteratorOf(segment, from, to);
+    }
+
+    @Override
+    public long entriesCount() {
+        return segment.byteSize() < HEADER_SIZE ? 0 : segment.get(ValueLayout.JAVA_LONG_UNALIGNED, ENTRIES_SIZE_OFFSET);
+    }
+
+    @Override
+    public List<MemorySegment> sampleKeys(int count) {
+        long entries = entriesCount();
+        int samples = (int) Math.min(count, entries);
+        List<MemorySegment> keys = new ArrayList<>(samples);
+        for (int i = 0; i < samples; i++) {
+            keys.add(keyAt((i + 1) * entries / samples - 1));
+        }
+        return keys;
+    }
+
+    @Override
+    public MemorySegment minKey() {
+        return keyAt(0);
+    }
+
+    @Override
+    public MemorySegment maxKey() {
+        return keyAt(segment.get(ValueLayout.JAVA_LONG_UNALIGNED, ENTRIES_SIZE_OFFSET) - 1);
+    }
+
+    private MemorySegment keyAt(long index) {
+        long bloomFilterLength = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, BLOOM_FILTER_LENGTH_OFFSET);
+        long keyOffset = HEADER_SIZE + bloomFilterLength * Long.BYTES;
+
+        long offset = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, keyOffset + index * Long.BYTES);
+        long keySize = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, offset);
+        return segment.asSlice(offset + Long.BYTES, keySize);
+    }
+}
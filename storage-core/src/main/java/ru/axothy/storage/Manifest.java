@@ -0,0 +1,267 @@
+package ru.axothy.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Log of edits to the set of live SSTables, an edit removes tables and adds new ones. A torn edit at the end of the
+ * log was never applied and is dropped on open.
+ * <p>
+ * Layout: {@code [int magic]} followed by records {@code [int payloadSize][int crc32(payload)][payload]}.
+ */
+final class Manifest {
+
+    static final String MANIFEST_NAME = "MANIFEST";
+
+    private static final String MANIFEST_TMP_NAME = "MANIFEST.tmp";
+
+    private static final int LOG_MAGIC = 0x4C534D32;
+
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+
+    /**
+     * The log is not rewritten below this size, however small the live set is.
+     */
+    private static final long MIN_REWRITE_BYTES = 64 << 10;
+
+    private static final Comparator<TableMeta> LEVEL_ORDER = (table1, table2) -> {
+        if (table1.level() != table2.level()) {
+            return Integer.compare(table1.level(), table2.level());
+        }
+        if (table1.level() == 0) {
+            return 0;
+        }
+        return LSMStorage.comparator(table1.minKey(), table2.minKey());
+    };
+
+    record TableMeta(long id, int level, long size, long expiresAt, MemorySegment minKey, MemorySegment maxKey) {
+    }
+
+    private final Path basePath;
+
+    /**
+     * Live tables in read priority order as of open, {@code null} if there was no manifest.
+     */
+    private final List<TableMeta> tables;
+
+    private boolean upToDate;
+
+    private long logBytes;
+
+    private long liveSetBytes;
+
+    private Manifest(Path basePath, List<TableMeta> tables, boolean upToDate, long logBytes) {
+        this.basePath = basePath;
+        this.tables = tables;
+        this.upToDate = upToDate;
+        this.logBytes = logBytes;
+        this.liveSetBytes = logBytes;
+    }
+
+    /**
+     * Replays the manifest of {@code basePath}.
+     */
+    static Manifest open(Path basePath) throws IOException {
+        Path path = basePath.resolve(MANIFEST_NAME);
+        if (!Files.exists(path)) {
+            return new Manifest(basePath, null, false, 0);
+        }
+
+        ByteBuffer log = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (log.remaining() < Integer.BYTES) {
+            throw new IOException("Corrupted manifest: " + path);
+        }
+        if (log.getInt() != LOG_MAGIC) {
+            throw new IOException("Corrupted manifest: " + path);
+        }
+
+        List<TableMeta> tables = List.of();
+        CRC32 crc = new CRC32();
+        while (log.remaining() >= RECORD_HEADER_SIZE) {
+            int payloadSize = log.getInt(log.position());
+            int checksum = log.getInt(log.position() + Integer.BYTES);
+            if (payloadSize < 0 || payloadSize > log.remaining() - RECORD_HEADER_SIZE) {
+                break;
+            }
+            crc.reset();
+            crc.update(log.array(), log.position() + RECORD_HEADER_SIZE, payloadSize);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            DataInputStream edit = new DataInputStream(
+                    new ByteArrayInputStream(log.array(), log.position() + RECORD_HEADER_SIZE, payloadSize));
+            tables = replay(tables, edit);
+            log.position(log.position() + RECORD_HEADER_SIZE + payloadSize);
+        }
+
+        // A torn edit is rewritten away before anything is appended after it
+        return new Manifest(basePath, tables, !log.hasRemaining(), log.position());
+    }
+
+    /**
+     * @return live tables in read priority order, {@code null} if the directory had no manifest
+     */
+    List<TableMeta> tables() {
+        return tables;
+    }
+
+    /**
+     * Checks whether edits can be appended to the manifest as it was opened. Manifests with a torn edit at the end
+     * or missing have to be {@link #rewrite(List) rewritten} first.
+     */
+    boolean isUpToDate() {
+        return upToDate;
+    }
+
+    /**
+     * Logs replacement of {@code removed} tables with {@code added} ones, {@code live} is the resulting set.
+     */
+    void append(Collection<SSTable> removed, List<SSTable> added, List<SSTable> live) throws IOException {
+        if (!upToDate || logBytes > Math.max(MIN_REWRITE_BYTES, 2 * liveSetBytes)) {
+            rewrite(live);
+            return;
+        }
+
+        byte[] record = record(removed, added);
+        try (FileChannel channel = FileChannel.open(basePath.resolve(MANIFEST_NAME),
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            write(channel, ByteBuffer.wrap(record));
+            channel.force(false);
+        }
+        logBytes += record.length;
+    }
+
+    /**
+     * Replaces the log with a single edit adding every table of {@code live}.
+     */
+    void rewrite(List<SSTable> live) throws IOException {
+        Path tmp = basePath.resolve(MANIFEST_TMP_NAME);
+        byte[] record = record(List.of(), live);
+
+        try (FileChannel channel = FileChannel.open(tmp,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(channel, ByteBuffer.allocate(Integer.BYTES).putInt(0, LOG_MAGIC));
+            write(channel, ByteBuffer.wrap(record));
+            channel.force(true);
+        }
+        Files.move(tmp, basePath.resolve(MANIFEST_NAME), StandardCopyOption.ATOMIC_MOVE);
+
+        upToDate = true;
+        logBytes = Integer.BYTES + record.length;
+        liveSetBytes = logBytes;
+    }
+
+    /**
+     * Applies an edit the way {@link StorageState} does: a table of a flush goes first, outputs of a compaction take
+     * the place of its first input, then levels are ordered.
+     */
+    private static List<TableMeta> replay(List<TableMeta> tables, DataInputStream edit) throws IOException {
+        int removedCount = edit.readInt();
+        Set<Long> removed = new HashSet<>(removedCount);
+        for (int i = 0; i < removedCount; i++) {
+            removed.add(edit.readLong());
+        }
+        int addedCount = edit.readInt();
+        List<TableMeta> added = new ArrayList<>(addedCount);
+        for (int i = 0; i < addedCount; i++) {
+            added.add(readTable(edit));
+        }
+
+        List<TableMeta> result = new ArrayList<>(tables.size() - removedCount + addedCount);
+        if (removed.isEmpty()) {
+            result.addAll(added);
+            result.addAll(tables);
+        } else {
+            boolean inserted = false;
+            for (TableMeta table : tables) {
+                if (!removed.contains(table.id())) {
+                    result.add(table);
+                } else if (!inserted) {
+                    result.addAll(added);
+                    inserted = true;
+                }
+            }
+            if (!inserted) {
+                result.addAll(added);
+            }
+        }
+        result.sort(LEVEL_ORDER);
+        return result;
+    }
+
+    private static TableMeta readTable(DataInputStream in) throws IOException {
+        long id = in.readLong();
+        int level = in.readInt();
+        long size = in.readLong();
+        long expiresAt = in.readLong();
+        MemorySegment minKey = readKey(in);
+        MemorySegment maxKey = readKey(in);
+        return new TableMeta(id, level, size, expiresAt, minKey, maxKey);
+    }
+
+    private static byte[] record(Collection<SSTable> removed, List<SSTable> added) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeInt(removed.size());
+        for (SSTable table : removed) {
+            out.writeLong(table.id());
+        }
+        out.writeInt(added.size());
+        for (SSTable table : added) {
+            out.writeLong(table.id());
+            out.writeInt(table.level());
+            out.writeLong(table.byteSize());
+            out.writeLong(table.expiresAt());
+            writeKey(out, table.minKey());
+            writeKey(out, table.maxKey());
+        }
+        out.flush();
+        byte[] bytes = payload.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + bytes.length);
+        record.putInt(bytes.length);
+        record.putInt((int) crc.getValue());
+        record.put(bytes);
+        return record.array();
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static MemorySegment readKey(DataInputStream in) throws IOException {
+        byte[] key = new byte[in.readInt()];
+        in.readFully(key);
+        return MemorySegment.ofArray(key);
+    }
+
+    private static void writeKey(DataOutputStream out, MemorySegment key) throws IOException {
+        out.writeInt((int) key.byteSize());
+        out.write(key.toArray(ValueLayout.JAVA_BYTE));
+    }
+}
@@ -0,0 +1,381 @@
+package ru.axothy.storage;
+
+import ru.axothy.api.Entry;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.file.Path;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sorted in-memory table of versioned entries, keys and values are copied off-heap into slabs.
+ * Read-only once sealed and queued for flush.
+ */
+public final class Memtable {
+
+    private static final int WRITES_BLOCKED = Integer.MIN_VALUE;
+
+    private static final long MIN_PAUSE_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+
+    private static final long MAX_PAUSE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final ConcurrentSkipListMap<MemorySegment, Version> entries =
+            new ConcurrentSkipListMap<>(LSMStorage::comparator);
+
+    private final SlabAllocator slabs = new SlabAllocator();
+
+    private final AtomicBoolean sealRequested = new AtomicBoolean();
+
+    /**
+     * Writers updating the memtable, the sign bit is set while new writers are blocked. Writers only touch
+     * the counter of the memtable they update, there is no lock shared by all writes.
+     */
+    private final AtomicInteger writers = new AtomicInteger();
+
+    private volatile RangeVersion rangeTombstones = new RangeVersion(RangeTombstones.EMPTY, 0, null);
+
+    /**
+     * Write-ahead log segments holding memtable updates, set when memtable is sealed.
+     */
+    private volatile List<Path> walSegments = List.of();
+
+    /**
+     * Updates a memtable no snapshot reads, such as the one recovered from write-ahead log.
+     *
+     * @return memtable size after the update
+     */
+    public long upsert(Entry<MemorySegment> entry) {
+        return upsert(entry, 0, Snapshots.NONE);
+    }
+
+    /**
+     * @return memtable size after the update
+     */
+    long upsert(Entry<MemorySegment> entry, long sequence, Snapshots snapshots) {
+        put(entry, sequence, snapshots);
+        return slabs.allocatedBytes();
+    }
+
+    /**
+     * Applies operations of {@code batch} in order under a single sequence number, so a snapshot sees either all
+     * of the batch or nothing of it.
+     *
+     * @return memtable size after the update
+     */
+    long apply(WriteBatch batch, long sequence, Snapshots snapshots) {
+        for (WriteBatch.Operation operation : batch.operations()) {
+            Entry<MemorySegment> entry = operation.entry();
+            if (operation.isRangeDeletion()) {
+                deleteRange(entry.key(), operation.rangeEnd(), sequence, snapshots);
+            } else {
+                put(entry, sequence, snapshots);
+            }
+        }
+        return slabs.allocatedBytes();
+    }
+
+    /**
+     * Deletes keys in a memtable no snapshot reads, see {@link #upsert(Entry)}.
+     *
+     * @return memtable size after the update
+     */
+    public long deleteRange(MemorySegment from, MemorySegment to) {
+        return deleteRange(from, to, 0, Snapshots.NONE);
+    }
+
+    /**
+     * Deletes keys in {@code [from; to)}: covered entries are dropped and the range hides older memtables and tables.
+     * Entries a snapshot still reads are replaced by tombstones instead.
+     * Concurrent writes to the memtable must be excluded, or a put could land in the range after it is swept.
+     *
+     * @return memtable size after the update
+     */
+    long deleteRange(MemorySegment from, MemorySegment to, long sequence, Snapshots snapshots) {
+        if (LSMStorage.comparator(from, to) >= 0) {
+            return slabs.allocatedBytes();
+        }
+        RangeTombstones range = RangeTombstones.of(slabs.copyOf(from), slabs.copyOf(to));
+
+        // The range is published first, so readers never see older versions through the removed entries
+        synchronized (this) {
+            RangeVersion old = rangeTombstones;
+            RangeVersion older = retained(old, sequence, snapshots);
+            rangeTombstones = new RangeVersion(old.tombstones.union(range), sequence, older);
+        }
+
+        for (Map.Entry<MemorySegment, Version> entry : entries.subMap(from, to).entrySet()) {
+            Version old = entry.getValue();
+            Version older = retained(old, sequence, snapshots);
+            if (older == null) {
+                entries.remove(entry.getKey(), old);
+            } else {
+                Version tombstone = new Version(new BaseEntry<>(entry.getKey(), null), sequence, older);
+                entries.replace(entry.getKey(), old, tombstone);
+            }
+        }
+        return slabs.allocatedBytes();
+    }
+
+    /**
+     * Stores a copy of the entry. A new version reuses the key copy of the previous one. An update outrun by a newer
+     * one is dropped: writers are drained before a snapshot takes its sequence number, so none reads it.
+     */
+    private void put(Entry<MemorySegment> entry, long sequence, Snapshots snapshots) {
+        MemorySegment value = entry.value() == null ? null : slabs.copyOf(entry.value());
+        MemorySegment key = null;
+        while (true) {
+            Version old = entries.get(entry.key());
+            if (old == null) {
+                if (key == null) {
+                    key = slabs.copyOf(entry.key());
+                }
+                Version version = new Version(copy(key, value, entry.expiresAt()), sequence, null);
+                if (entries.putIfAbsent(key, version) == null) {
+                    return;
+                }
+            } else if (old.sequence > sequence) {
+                return;
+            } else {
+                Entry<MemorySegment> copy = copy(old.entry.key(), value, entry.expiresAt());
+                Version version = new Version(copy, sequence, retained(old, sequence, snapshots));
+                if (entries.replace(entry.key(), old, version)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static Entry<MemorySegment> copy(MemorySegment key, MemorySegment value, long expiresAt) {
+        return expiresAt == Entry.NEVER_EXPIRES
+                ? new BaseEntry<>(key, value)
+                : new ExpiringEntry<>(key, value, expiresAt);
+    }
+
+    public Entry<MemorySegment> get(MemorySegment key) {
+        Version version = entries.get(key);
+        return version == null ? null : version.entry;
+    }
+
+    /**
+     * @return the newest version of the key written at or before {@code sequence}, {@code null} if none
+     */
+    public Entry<MemorySegment> get(MemorySegment key, long sequence) {
+        return visible(entries.get(key), sequence);
+    }
+
+    public Iterator<Entry<MemorySegment>> iterator(MemorySegment from, MemorySegment to) {
+        return iterator(from, to, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return versions visible at {@code sequence} with keys in {@code [from; to)}, {@code null} bound is unbounded
+     */
+    public Iterator<Entry<MemorySegment>> iterator(MemorySegment from, MemorySegment to, long sequence) {
+        Iterator<Version> versions;
+        if (from == null && to == null) {
+            versions = entries.values().iterator();
+        } else if (from == null) {
+            versions = entries.headMap(to).values().iterator();
+        } else if (to == null) {
+            versions = entries.tailMap(from).values().iterator();
+        } else {
+            versions = entries.subMap(from, to).values().iterator();
+        }
+        return new VisibleIterator(versions, sequence);
+    }
+
+    /**
+     * @return the newest version of every key
+     */
+    public Collection<Entry<MemorySegment>> entries() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<Entry<MemorySegment>> iterator() {
+                return Memtable.this.iterator(null, null);
+            }
+
+            @Override
+            public int size() {
+                return entries.size();
+            }
+        };
+    }
+
+    public RangeTombstones rangeTombstones() {
+        return rangeTombstones.tombstones;
+    }
+
+    /**
+     * @return ranges deleted at or before {@code sequence}
+     */
+    public RangeTombstones rangeTombstones(long sequence) {
+        for (RangeVersion version = rangeTombstones; version != null; version = version.older) {
+            if (version.sequence <= sequence) {
+                return version.tombstones;
+            }
+        }
+        return RangeTombstones.EMPTY;
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty() && rangeTombstones.tombstones.isEmpty();
+    }
+
+    public long byteSize() {
+        return slabs.allocatedBytes();
+    }
+
+    /**
+     * @return {@code false} if writes are blocked, the memtable may be sealed then
+     */
+    boolean enterWrite() {
+        if (writers.get() < 0) {
+            return false;
+        }
+        if (writers.incrementAndGet() > 0) {
+            return true;
+        }
+        writers.decrementAndGet();
+        return false;
+    }
+
+    void exitWrite() {
+        writers.decrementAndGet();
+    }
+
+    /**
+     * Stops new writers and waits for the ones in progress to finish their updates. A writer may wait for
+     * a write-ahead log fsync, so the wait backs off instead of spinning.
+     */
+    void blockWrites() {
+        writers.getAndUpdate(count -> count | WRITES_BLOCKED);
+        long pause = 0;
+        while (writers.get() != WRITES_BLOCKED) {
+            pause = backOff(pause);
+            LockSupport.parkNanos(pause);
+        }
+    }
+
+    /**
+     * @return pause following {@code pause} while waiting for writers to enter or leave the memtable
+     */
+    static long backOff(long pause) {
+        return Math.min(Math.max(2 * pause, MIN_PAUSE_NANOS), MAX_PAUSE_NANOS);
+    }
+
+    void unblockWrites() {
+        writers.getAndUpdate(count -> count & ~WRITES_BLOCKED);
+    }
+
+    /**
+     * Lets exactly one writer which crossed the flush threshold seal the memtable.
+     */
+    boolean requestSeal() {
+        return sealRequested.compareAndSet(false, true);
+    }
+
+    /**
+     * Lets the next writer crossing the flush threshold seal the memtable, called when a seal attempt failed.
+     */
+    void cancelSealRequest() {
+        sealRequested.set(false);
+    }
+
+    List<Path> walSegments() {
+        return walSegments;
+    }
+
+    void walSegments(List<Path> segments) {
+        this.walSegments = segments;
+    }
+
+    private static Entry<MemorySegment> visible(Version version, long sequence) {
+        for (; version != null; version = version.older) {
+            if (version.sequence <= sequence) {
+                return version.entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return versions of the chain that live snapshots read once {@code newest} is replaced at {@code sequence}
+     */
+    private static Version retained(Version newest, long sequence, Snapshots snapshots) {
+        if (newest == null || snapshots.isEmpty()) {
+            return null;
+        }
+        Version older = retained(newest.older, newest.sequence, snapshots);
+        if (!snapshots.reads(newest.sequence, sequence)) {
+            return older;
+        }
+        return older == newest.older ? newest : new Version(newest.entry, newest.sequence, older);
+    }
+
+    private static RangeVersion retained(RangeVersion newest, long sequence, Snapshots snapshots) {
+        if (newest == null || snapshots.isEmpty()) {
+            return null;
+        }
+        RangeVersion older = retained(newest.older, newest.sequence, snapshots);
+        if (!snapshots.reads(newest.sequence, sequence)) {
+            return older;
+        }
+        return older == newest.older ? newest : new RangeVersion(newest.tombstones, newest.sequence, older);
+    }
+
+    /**
+     * Version of a key, identity is compared when versions are replaced.
+     */
+    private static final class Version {
+        private final Entry<MemorySegment> entry;
+        private final long sequence;
+        private final Version older;
+
+        private Version(Entry<MemorySegment> entry, long sequence, Version older) {
+            this.entry = entry;
+            this.sequence = sequence;
+            this.older = older;
+        }
+    }
+
+    private record RangeVersion(RangeTombstones tombstones, long sequence, RangeVersion older) {
+    }
+
+    private static final class VisibleIterator implements Iterator<Entry<MemorySegment>> {
+        private final Iterator<Version> versions;
+        private final long sequence;
+        private Entry<MemorySegment> next;
+
+        private VisibleIterator(Iterator<Version> versions, long sequence) {
+            this.versions = versions;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && versions.hasNext()) {
+                next = visible(versions.next(), sequence);
+            }
+            return next != null;
+        }
+
+        @Override
+        public Entry<MemorySegment> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Entry<MemorySegment> entry = next;
+            next = null;
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package ru.axothy.storage;
+
+import ru.axothy.iterators.EntryCursor;
+
+import java.lang.foreign.MemorySegment;
+import java.util.function.BiFunction;
+
+/**
+ * Cursor counterpart of {@link RangeTombstoneIterator}.
+ */
+final class RangeTombstoneCursor implements EntryCursor {
+
+    private final BiFunction<MemorySegment, MemorySegment, EntryCursor> source;
+
+    private final MemorySegment to;
+
+    private final RangeTombstones deleted;
+
+    private EntryCursor cursor;
+
+    private boolean exhausted;
+
+    /**
+     * @param source opens a cursor over {@code [from; to)} of the source, {@code null} bound is unbounded
+     * @param deleted range tombstones of newer memtables and tables
+     */
+    RangeTombstoneCursor(BiFunction<MemorySegment, MemorySegment, EntryCursor> source,
+                         MemorySegment from, MemorySegment to, RangeTombstones deleted) {
+        this.source = source;
+        this.to = to;
+        this.deleted = deleted;
+        this.cursor = source.apply(from, to);
+    }
+
+    @Override
+    public boolean advance() {
+        while (!exhausted && cursor.advance()) {
+            MemorySegment end = deleted.coveringEnd(cursor.keySegment());
+            if (end == null) {
+                return true;
+            }
+            if (to != null && LSMStorage.comparator(end, to) >= 0) {
+                break;
+            }
+            cursor = source.apply(end, to);
+        }
+        exhausted = true;
+        return false;
+    }
+
+    @Override
+    public MemorySegment keySegment() {
+        return cursor.keySegment();
+    }
+
+    @Override
+    public MemorySegment valueSegment() {
+        return cursor.valueSegment();
+    }
+
+    @Override
+    public boolean isTombstone() {
+        return cursor.isTombstone();
+    }
+
+    @Override
+    public long expiresAt() {
+        return cursor.expiresAt();
+    }
+}
@@ -0,0 +1,65 @@
+package ru.axothy.storage;
+
+import ru.axothy.api.Entry;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+
+/**
+ * Entries of a single memtable or table with keys not deleted by range tombstones of newer sources.
+ * A deleted range is skipped with a single seek past its end instead of reading the entries it covers.
+ */
+final class RangeTombstoneIterator implements Iterator<Entry<MemorySegment>> {
+
+    private final BiFunction<MemorySegment, MemorySegment, Iterator<Entry<MemorySegment>>> source;
+
+    private final MemorySegment to;
+
+    private final RangeTombstones deleted;
+
+    private Iterator<Entry<MemorySegment>> iterator;
+
+    private Entry<MemorySegment> next;
+
+    /**
+     * @param source opens an iterator over {@code [from; to)} of the source, {@code null} bound is unbounded
+     * @param deleted range tombstones of newer memtables and tables
+     */
+    RangeTombstoneIterator(BiFunction<MemorySegment, MemorySegment, Iterator<Entry<MemorySegment>>> source,
+                           MemorySegment from, MemorySegment to, RangeTombstones deleted) {
+        this.source = source;
+        this.to = to;
+        this.deleted = deleted;
+        this.iterator = source.apply(from, to);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && iterator.hasNext()) {
+            Entry<MemorySegment> entry = iterator.next();
+            MemorySegment end = deleted.coveringEnd(entry.key());
+            if (end == null) {
+                next = entry;
+            } else if (to == null || LSMStorage.comparator(end, to) < 0) {
+                iterator = source.apply(end, to);
+            } else {
+                iterator = Collections.emptyIterator();
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public Entry<MemorySegment> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        Entry<MemorySegment> entry = next;
+        next = null;
+        return entry;
+    }
+}
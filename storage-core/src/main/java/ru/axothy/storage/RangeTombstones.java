@@ -0,0 +1,206 @@
+package ru.axothy.storage;
+
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable set of deleted key ranges {@code [from; to)} of a memtable or a table. Overlapping and adjacent
+ * ranges are coalesced, so the ranges are disjoint and sorted and a key is looked up with a binary search.
+ * <p>
+ * Range tombstones only hide entries of older memtables and tables. Entries stored next to them are always newer:
+ * a range deletion drops covered entries of the active memtable while its writes are blocked, a compaction drops
+ * covered entries of older inputs.
+ */
+public final class RangeTombstones {
+
+    public static final RangeTombstones EMPTY = new RangeTombstones(new MemorySegment[0], new MemorySegment[0]);
+
+    private final MemorySegment[] starts;
+
+    private final MemorySegment[] ends;
+
+    private RangeTombstones(MemorySegment[] starts, MemorySegment[] ends) {
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    /**
+     * @return set of a single range, empty if {@code from} is not less than {@code to}
+     */
+    public static RangeTombstones of(MemorySegment from, MemorySegment to) {
+        if (LSMStorage.comparator(from, to) >= 0) {
+            return EMPTY;
+        }
+        return new RangeTombstones(new MemorySegment[] {from}, new MemorySegment[] {to});
+    }
+
+    /**
+     * @param starts range starts, ranges must be sorted and disjoint
+     */
+    static RangeTombstones ofSorted(List<MemorySegment> starts, List<MemorySegment> ends) {
+        if (starts.isEmpty()) {
+            return EMPTY;
+        }
+        return new RangeTombstones(starts.toArray(new MemorySegment[0]), ends.toArray(new MemorySegment[0]));
+    }
+
+    public boolean isEmpty() {
+        return starts.length == 0;
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    public MemorySegment from(int range) {
+        return starts[range];
+    }
+
+    public MemorySegment to(int range) {
+        return ends[range];
+    }
+
+    /**
+     * @return exclusive end of the range containing {@code key}, {@code null} if the key is not deleted
+     */
+    public MemorySegment coveringEnd(MemorySegment key) {
+        int range = floor(key);
+        if (range >= 0 && LSMStorage.comparator(key, ends[range]) < 0) {
+            return ends[range];
+        }
+        return null;
+    }
+
+    public boolean covers(MemorySegment key) {
+        return starts.length > 0 && coveringEnd(key) != null;
+    }
+
+    /**
+     * Checks whether a single range contains every key of {@code [from; to]} (both bounds inclusive).
+     */
+    public boolean coversAll(MemorySegment from, MemorySegment to) {
+        MemorySegment end = starts.length == 0 ? null : coveringEnd(from);
+        return end != null && LSMStorage.comparator(to, end) < 0;
+    }
+
+    /**
+     * Checks whether some range intersects {@code [from; to)}, {@code null} bound is unbounded.
+     */
+    public boolean intersects(MemorySegment from, MemorySegment to) {
+        int first = from == null ? 0 : firstEndingAfter(from);
+        return first < starts.length && (to == null || LSMStorage.comparator(starts[first], to) < 0);
+    }
+
+    public RangeTombstones union(RangeTombstones other) {
+        if (other.isEmpty()) {
+            return this;
+        }
+        if (isEmpty()) {
+            return other;
+        }
+
+        List<MemorySegment> mergedStarts = new ArrayList<>(starts.length + other.starts.length);
+        List<MemorySegment> mergedEnds = new ArrayList<>(starts.length + other.starts.length);
+        int i = 0;
+        int j = 0;
+        while (i < starts.length || j < other.starts.length) {
+            boolean takeThis = j == other.starts.length
+                    || i < starts.length && LSMStorage.comparator(starts[i], other.starts[j]) <= 0;
+            MemorySegment start = takeThis ? starts[i] : other.starts[j];
+            MemorySegment end = takeThis ? ends[i++] : other.ends[j++];
+
+            int last = mergedEnds.size() - 1;
+            if (last >= 0 && LSMStorage.comparator(start, mergedEnds.get(last)) <= 0) {
+                if (LSMStorage.comparator(end, mergedEnds.get(last)) > 0) {
+                    mergedEnds.set(last, end);
+                }
+            } else {
+                mergedStarts.add(start);
+                mergedEnds.add(end);
+            }
+        }
+
+        return ofSorted(mergedStarts, mergedEnds);
+    }
+
+    /**
+     * @return parts of the ranges within {@code [from; to)}, {@code null} bound is unbounded
+     */
+    public RangeTombstones clip(MemorySegment from, MemorySegment to) {
+        int first = from == null ? 0 : firstEndingAfter(from);
+        int last = to == null ? starts.length : firstStartingAtOrAfter(to);
+        if (first >= last) {
+            return EMPTY;
+        }
+        if (first == 0 && last == starts.length
+                && (from == null || LSMStorage.comparator(starts[0], from) >= 0)
+                && (to == null || LSMStorage.comparator(ends[last - 1], to) <= 0)) {
+            return this;
+        }
+
+        MemorySegment[] clippedStarts = Arrays.copyOfRange(starts, first, last);
+        MemorySegment[] clippedEnds = Arrays.copyOfRange(ends, first, last);
+        if (from != null && LSMStorage.comparator(clippedStarts[0], from) < 0) {
+            clippedStarts[0] = from;
+        }
+        if (to != null && LSMStorage.comparator(clippedEnds[clippedEnds.length - 1], to) > 0) {
+            clippedEnds[clippedEnds.length - 1] = to;
+        }
+        return new RangeTombstones(clippedStarts, clippedEnds);
+    }
+
+    long byteSize() {
+        long size = 0;
+        for (int i = 0; i < starts.length; i++) {
+            size += starts[i].byteSize() + ends[i].byteSize();
+        }
+        return size;
+    }
+
+    /**
+     * @return index of the last range starting at or before {@code key}, {@code -1} if none
+     */
+    private int floor(MemorySegment key) {
+        int low = 0;
+        int high = starts.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (LSMStorage.comparator(starts[mid], key) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    private int firstEndingAfter(MemorySegment key) {
+        int low = 0;
+        int high = ends.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (LSMStorage.comparator(ends[mid], key) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int firstStartingAtOrAfter(MemorySegment key) {
+        int low = 0;
+        int high = starts.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (LSMStorage.comparator(starts[mid], key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,229 @@
+package ru.axothy.storage;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Token bucket for background disk I/O: flushes and compactions are charged for the bytes they write
+ * (and optionally compactions for the bytes they read) and wait once the bucket is empty.
+ * <p>
+ * Tokens are refilled continuously at {@code bytesPerSecond} and accumulate for at most {@link #REFILL_PERIOD_NANOS}.
+ * A request larger than the bucket is granted as soon as it is not empty and leaves it in debt, so chunk size
+ * never matters for the rate. {@link Priority#HIGH} requests are served before waiting {@link Priority#LOW} ones.
+ * <p>
+ * In auto-tuning mode the rate follows foreground read latency: it is halved after an interval whose mean
+ * latency exceeds the target and grows by a twentieth of the maximum after an interval that met it.
+ */
+public final class RateLimiter {
+
+    /**
+     * Rate meaning that I/O is not limited.
+     */
+    public static final long UNLIMITED = 0;
+
+    private static final long REFILL_PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final long TUNE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    /**
+     * Auto-tuned rate never drops below this fraction of the maximum, so compactions always make progress.
+     */
+    private static final int MIN_RATE_DIVISOR = 20;
+
+    public enum Priority {
+        /**
+         * Flushes, writers are stalled while they fall behind.
+         */
+        HIGH,
+        /**
+         * Compactions.
+         */
+        LOW
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition refilled = lock.newCondition();
+
+    private volatile long bytesPerSecond;
+
+    private volatile boolean chargeReads;
+
+    private long available;
+
+    private long lastRefillNanos = System.nanoTime();
+
+    private int highWaiting;
+
+    private volatile long latencyTargetNanos;
+
+    private long maxBytesPerSecond;
+
+    private final AtomicLong latencySum = new AtomicLong();
+
+    private final AtomicLong latencyCount = new AtomicLong();
+
+    private final AtomicLong intervalStartNanos = new AtomicLong(System.nanoTime());
+
+    /**
+     * @param bytesPerSecond initial rate, {@link #UNLIMITED} disables limiting
+     */
+    public RateLimiter(long bytesPerSecond) {
+        setRate(bytesPerSecond);
+    }
+
+    public long bytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Changes the rate and turns auto-tuning off, waiting requests pick the new rate up within a refill period.
+     *
+     * @param bytesPerSecond new rate, {@link #UNLIMITED} disables limiting
+     */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        lock.lock();
+        try {
+            latencyTargetNanos = 0;
+            setRate(bytesPerSecond);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lets the rate float between a twentieth of {@code maxBytesPerSecond} and {@code maxBytesPerSecond}
+     * to keep mean point lookup latency under {@code latencyTarget}. Starts from the maximum.
+     */
+    public void autoTune(long maxBytesPerSecond, Duration latencyTarget) {
+        if (maxBytesPerSecond <= 0 || latencyTarget.isNegative() || latencyTarget.isZero()) {
+            throw new IllegalArgumentException("Auto-tuning needs a positive rate and latency target");
+        }
+
+        lock.lock();
+        try {
+            this.maxBytesPerSecond = maxBytesPerSecond;
+            setRate(maxBytesPerSecond);
+            latencySum.set(0);
+            latencyCount.set(0);
+            intervalStartNanos.set(System.nanoTime());
+            latencyTargetNanos = latencyTarget.toNanos();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean autoTuning() {
+        return latencyTargetNanos > 0;
+    }
+
+    /**
+     * Whether compactions are also charged for the bytes they merge, for tables which are not in the page cache.
+     */
+    public void setChargeReads(boolean chargeReads) {
+        this.chargeReads = chargeReads;
+    }
+
+    public boolean chargesReads() {
+        return chargeReads;
+    }
+
+    /**
+     * Blocks until {@code bytes} of I/O are allowed.
+     */
+    void request(long bytes, Priority priority) {
+        if (bytesPerSecond == UNLIMITED) {
+            return;
+        }
+
+        boolean high = priority == Priority.HIGH;
+        lock.lock();
+        try {
+            if (high) {
+                highWaiting++;
+            }
+            try {
+                while (true) {
+                    long rate = bytesPerSecond;
+                    if (rate == UNLIMITED) {
+                        return;
+                    }
+
+                    refill(rate);
+                    if (available > 0 && (high || highWaiting == 0)) {
+                        available -= bytes;
+                        if (high) {
+                            // Low priority requests were held back while this one waited
+                            refilled.signalAll();
+                        }
+                        return;
+                    }
+
+                    long deficit = 1 - Math.min(available, 0);
+                    long waitNanos = Math.min(REFILL_PERIOD_NANOS, deficit * TimeUnit.SECONDS.toNanos(1) / rate + 1);
+                    refilled.awaitNanos(waitNanos);
+                }
+            } finally {
+                if (high) {
+                    highWaiting--;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reports latency of a foreground read, adjusts the rate once per tuning interval.
+     */
+    void recordLatency(long nanos) {
+        long target = latencyTargetNanos;
+        if (target == 0) {
+            return;
+        }
+
+        latencySum.addAndGet(nanos);
+        latencyCount.incrementAndGet();
+
+        long now = System.nanoTime();
+        long start = intervalStartNanos.get();
+        if (now - start < TUNE_INTERVAL_NANOS || !intervalStartNanos.compareAndSet(start, now)) {
+            return;
+        }
+
+        long count = latencyCount.getAndSet(0);
+        long mean = count == 0 ? 0 : latencySum.getAndSet(0) / count;
+        lock.lock();
+        try {
+            if (latencyTargetNanos == 0) {
+                return;
+            }
+            long next = mean > target
+                    ? Math.max(maxBytesPerSecond / MIN_RATE_DIVISOR, bytesPerSecond / 2)
+                    : Math.min(maxBytesPerSecond, bytesPerSecond + maxBytesPerSecond / MIN_RATE_DIVISOR);
+            bytesPerSecond = Math.max(1, next);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void setRate(long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("Negative rate: " + bytesPerSecond);
+        }
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    private void refill(long rate) {
+        long now = System.nanoTime();
+        double tokensPerNano = (double) rate / TimeUnit.SECONDS.toNanos(1);
+        double burst = Math.max(1, REFILL_PERIOD_NANOS * tokensPerNano);
+        available = (long) Math.min(burst, available + (now - lastRefillNanos) * tokensPerNano);
+        lastRefillNanos = now;
+    }
+}
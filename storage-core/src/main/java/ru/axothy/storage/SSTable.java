@@ -0,0 +1,260 @@
+package ru.axothy.storage;
+
+import ru.axothy.api.Entry;
+import ru.axothy.iterators.EntryCursor;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * SSTable file together with its position in the LSM tree. A table loaded from the manifest knows its size and key
+ * range up front and maps the file on first access, so tables that are never read are never mapped.
+ */
+public final class SSTable {
+    private final long id;
+
+    private final int level;
+
+    private final long byteSize;
+
+    private final long expiresAt;
+
+    private final Contents contents;
+
+    private final MemorySegment minKey;
+
+    private final MemorySegment maxKey;
+
+    public SSTable(long id, int level, MemorySegment segment, MemorySegment minKey, MemorySegment maxKey) {
+        this(id, level, new Contents(id, segment, SSTableReader.open(segment, id, null)), minKey, maxKey);
+    }
+
+    private SSTable(long id, int level, Contents contents, MemorySegment minKey, MemorySegment maxKey) {
+        this(id, level, contents.segment().byteSize(), contents.reader().expiresAt(), contents, minKey, maxKey);
+    }
+
+    private SSTable(long id, int level, long byteSize, long expiresAt, Contents contents,
+                    MemorySegment minKey, MemorySegment maxKey) {
+        this.id = id;
+        this.level = level;
+        this.byteSize = byteSize;
+        this.expiresAt = expiresAt;
+        this.contents = contents;
+        this.minKey = minKey;
+        this.maxKey = maxKey;
+    }
+
+    /**
+     * Creates table mapping its file with {@code mapper} on first access.
+     */
+    public static SSTable lazy(long id, int level, long byteSize, long expiresAt, MemorySegment minKey,
+                               MemorySegment maxKey, Supplier<MemorySegment> mapper, BlockCache cache) {
+        return new SSTable(id, level, byteSize, expiresAt, new Contents(id, mapper, cache), minKey, maxKey);
+    }
+
+    /**
+     * Creates table reading its key range from the mapped file. Bounds are copied to the heap,
+     * so skipping the table does not touch its pages. The range includes the ranges deleted by the table,
+     * the end of the last one is taken as the (inclusive) upper bound.
+     */
+    public static SSTable of(long id, int level, MemorySegment segment, BlockCache cache) {
+        SSTableReader reader = SSTableReader.open(segment, id, cache);
+        RangeTombstones ranges = reader.rangeTombstones();
+        if (ranges.isEmpty()) {
+            return new SSTable(id, level, new Contents(id, segment, reader),
+                    copyOf(reader.minKey()), copyOf(reader.maxKey()));
+        }
+
+        MemorySegment minKey = ranges.from(0);
+        MemorySegment maxKey = ranges.to(ranges.size() - 1);
+        if (reader.entriesCount() > 0) {
+            if (LSMStorage.comparator(reader.minKey(), minKey) < 0) {
+                minKey = reader.minKey();
+            }
+            if (LSMStorage.comparator(reader.maxKey(), maxKey) > 0) {
+                maxKey = reader.maxKey();
+            }
+        }
+        return new SSTable(id, level, new Contents(id, segment, reader), copyOf(minKey), copyOf(maxKey));
+    }
+
+    public SSTable withLevel(int newLevel) {
+        return new SSTable(id, newLevel, byteSize, expiresAt, contents, minKey, maxKey);
+    }
+
+    /**
+     * @param keyHash key hash from {@link BloomFilter#hash(MemorySegment, long[])}
+     */
+    public boolean mayContain(long[] keyHash) {
+        return contents.reader().mayContain(keyHash[0], keyHash[1]);
+    }
+
+    /**
+     * @return entry with {@code key}, a tombstone if the key was removed, {@code null} if the table has no such key
+     */
+    public Entry<MemorySegment> get(MemorySegment key) {
+        return contents.reader().get(key);
+    }
+
+    /**
+     * @param sortedKeys ascending keys
+     * @return results of {@link #get(MemorySegment)} in the order of the keys
+     */
+    public List<Entry<MemorySegment>> getAll(List<MemorySegment> sortedKeys) {
+        return contents.reader().getAll(sortedKeys);
+    }
+
+    /**
+     * @return entries with keys in {@code [from; to)} including tombstones, {@code null} bound is unbounded
+     */
+    public Iterator<Entry<MemorySegment>> iterator(MemorySegment from, MemorySegment to) {
+        return contents.reader().iterator(from, to);
+    }
+
+    /**
+     * @return ranges deleted by the table, they hide entries of older tables only
+     */
+    public RangeTombstones rangeTombstones() {
+        return contents.reader().rangeTombstones();
+    }
+
+    /**
+     * @return time from which every value of the table is expired, tombstones do not expire but only matter while
+     * older tables have the keys they hide
+     */
+    public long expiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * Checks whether every key of the table, its own range tombstones included, is deleted by {@code ranges}.
+     */
+    public boolean deletedBy(RangeTombstones ranges) {
+        return ranges.coversAll(minKey, maxKey);
+    }
+
+    /**
+     * @return cursor over entries with keys in {@code [from; to)} including tombstones, {@code null} bound is unbounded
+     */
+    public EntryCursor cursor(MemorySegment from, MemorySegment to) {
+        return contents.reader().cursor(from, to);
+    }
+
+    /**
+     * Checks whether {@code key} lies within table key range, a table that does not cover the key can be skipped
+     * without probing its filter.
+     */
+    public boolean covers(MemorySegment key) {
+        return LSMStorage.comparator(minKey, key) <= 0 && LSMStorage.comparator(maxKey, key) >= 0;
+    }
+
+    /**
+     * Checks whether table key range intersects {@code [from; to)}, {@code null} bound is unbounded.
+     */
+    public boolean intersects(MemorySegment from, MemorySegment to) {
+        return (to == null || LSMStorage.comparator(minKey, to) < 0)
+                && (from == null || LSMStorage.comparator(maxKey, from) >= 0);
+    }
+
+    /**
+     * Checks whether table key range intersects {@code [from; to]} (both bounds inclusive).
+     */
+    public boolean overlaps(MemorySegment from, MemorySegment to) {
+        return LSMStorage.comparator(minKey, to) <= 0 && LSMStorage.comparator(maxKey, from) >= 0;
+    }
+
+    public long id() {
+        return id;
+    }
+
+    public int level() {
+        return level;
+    }
+
+    public MemorySegment segment() {
+        return contents.segment();
+    }
+
+    public MemorySegment minKey() {
+        return minKey;
+    }
+
+    public MemorySegment maxKey() {
+        return maxKey;
+    }
+
+    public long entriesCount() {
+        return contents.reader().entriesCount();
+    }
+
+    /**
+     * @return up to {@code count} ascending keys of the table, each sample stands for about the same amount of data
+     */
+    public List<MemorySegment> sampleKeys(int count) {
+        return contents.reader().sampleKeys(count);
+    }
+
+    public long byteSize() {
+        return byteSize;
+    }
+
+    private static MemorySegment copyOf(MemorySegment key) {
+        return MemorySegment.ofArray(key.toArray(ValueLayout.JAVA_BYTE));
+    }
+
+    @Override
+    public String toString() {
+        return "SSTable{id=" + id + ", level=" + level + ", size=" + byteSize + "}";
+    }
+
+    /**
+     * Mapped file and its reader, shared by the copies of the table made on trivial moves.
+     */
+    private static final class Contents {
+        private final long id;
+        private final Supplier<MemorySegment> mapper;
+        private final BlockCache cache;
+        private volatile MemorySegment segment;
+        private volatile SSTableReader reader;
+
+        private Contents(long id, MemorySegment segment, SSTableReader reader) {
+            this.id = id;
+            this.mapper = null;
+            this.cache = null;
+            this.segment = segment;
+            this.reader = reader;
+        }
+
+        private Contents(long id, Supplier<MemorySegment> mapper, BlockCache cache) {
+            this.id = id;
+            this.mapper = mapper;
+            this.cache = cache;
+        }
+
+        private SSTableReader reader() {
+            SSTableReader current = reader;
+            return current != null ? current : map();
+        }
+
+        private MemorySegment segment() {
+            MemorySegment current = segment;
+            if (current != null) {
+                return current;
+            }
+            map();
+            return segment;
+        }
+
+        private synchronized SSTableReader map() {
+            if (reader == null) {
+                MemorySegment mapped = mapper.get();
+                segment = mapped;
+                reader = SSTableReader.open(mapped, id, cache);
+            }
+            return reader;
+        }
+    }
+}
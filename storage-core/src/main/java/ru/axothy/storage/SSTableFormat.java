@@ -0,0 +1,86 @@
+package ru.axothy.storage;
+
+import ru.axothy.config.FilterType;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * Block-based table layout: header, prefix-compressed data blocks, filter, expiration time, range tombstones
+ * and sparse index.
+ */
+final class SSTableFormat {
+
+    static final long MAGIC = 0xFFFF_4C53_4D54_0002L;
+
+    static final long HEADER_SIZE = 8L * Long.BYTES;
+
+    static final long ENTRIES_COUNT_OFFSET = Long.BYTES;
+
+    static final long INDEX_OFFSET_OFFSET = 2L * Long.BYTES;
+
+    static final long BLOCKS_COUNT_OFFSET = 3L * Long.BYTES;
+
+    static final long FILTER_OFFSET_OFFSET = 4L * Long.BYTES;
+
+    static final long FILTER_LENGTH_OFFSET = 5L * Long.BYTES;
+
+    static final long HASH_FUNCTIONS_OFFSET = 6L * Long.BYTES;
+
+    static final long FILTER_TYPE_OFFSET = 7L * Long.BYTES;
+
+    static final long FLAGS_OFFSET = FILTER_TYPE_OFFSET + Integer.BYTES;
+
+    static final int RANGE_TOMBSTONES_FLAG = 1;
+
+    static final int EXPIRATION_FLAG = 2;
+
+    static final int FILTER_ALIGNMENT = 64;
+
+    static final int BLOCK_SIZE = 4096;
+
+    static final int RESTART_INTERVAL = 16;
+
+    static final int TOMBSTONE = -1;
+
+    static final int ENTRY_HEADER_SIZE = 3 * Integer.BYTES;
+
+    static final int INDEX_RECORD_HEADER_SIZE = Long.BYTES + 2 * Integer.BYTES;
+
+    private SSTableFormat() {
+
+    }
+
+    /**
+     * Maps size of an expiring value to the stored size and back.
+     */
+    static int expiringValueSize(int size) {
+        return -2 - size;
+    }
+
+    static boolean isBlockFormat(MemorySegment segment) {
+        return segment.byteSize() >= HEADER_SIZE && segment.get(ValueLayout.JAVA_LONG_UNALIGNED, 0) == MAGIC;
+    }
+
+    /**
+     * Compares {@code size} bytes of {@code src} starting at {@code offset} with {@code key}.
+     */
+    static int compare(MemorySegment src, long offset, long size, MemorySegment key) {
+        long mismatch = MemorySegment.mismatch(src, offset, offset + size, key, 0, key.byteSize());
+
+        if (mismatch == -1) {
+            return 0;
+        }
+        if (mismatch == size) {
+            return -1;
+        }
+        if (mismatch == key.byteSize()) {
+            return 1;
+        }
+
+        return Byte.compare(
+                src.get(ValueLayout.JAVA_BYTE, offset + mismatch),
+                key.get(ValueLayout.JAVA_BYTE, mismatch)
+        );
+    }
+}
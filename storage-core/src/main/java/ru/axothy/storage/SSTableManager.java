@@ -2,12 +2,14 @@ package ru.axothy.storage;
 
 import ru.axothy.api.Entry;
 import ru.axothy.config.Config;
-import ru.axothy.iterators.MergeIterator;
+import ru.axothy.iterators.EntryCursor;
+import ru.axothy.iterators.IteratorCursor;
+import ru.axothy.iterators.LoserTreeIterator;
+import ru.axothy.iterators.MergeCursor;
 import ru.axothy.iterators.PeekingIterator;
 import ru.axothy.iterators.PeekingIteratorImpl;
 import ru.axothy.iterators.SSTableIterator;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.lang.foreign.Arena;
@@ -15,82 +17,118 @@ import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
-import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
-import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
 
-import static ru.axothy.storage.SSTableUtils.deleteOldSSTables;
-import static ru.axothy.storage.SSTableUtils.entryByteSize;
 import static ru.axothy.storage.SSTableUtils.restoreCompaction;
 
 public class SSTableManager {
 
-    private static final long TOMBSTONE_TAG = -1;
-
     private static final String SSTABLE_NAME = "sstable_";
 
     private static final String SSTABLE_EXTENSION = ".dat";
 
-    private static final long OLDEST_SS_TABLE_INDEX = 0;
-
-    private static final long COMPACTION_NOT_FINISHED_TAG = -1;
+    /**
+     * Keys sampled from every compaction input to choose subcompaction boundaries.
+     */
+    private static final int SPLIT_SAMPLES_PER_TABLE = 128;
 
     private final Config config;
 
-    private static final SSTableOffsets offsetsConfig = new SSTableOffsets(Long.BYTES, 0, 2L * Long.BYTES);
+    private final Arena arena;
+
+    private final BlockCache blockCache;
 
-    private static int sstablesCount = 0;
+    private final RateLimiter rateLimiter;
+
+    private final AtomicLong nextId = new AtomicLong();
+
+    private Manifest manifest;
+
+    private static final SSTableOffsets offsetsConfig = new SSTableOffsets(Long.BYTES, 0, 2L * Long.BYTES);
 
     public record BinarySearchResult(boolean found, long index) { }
 
-    public SSTableManager(Config config) {
+    /**
+     * @param arena arena live tables are mapped to, must outlive every read of the storage
+     */
+    public SSTableManager(Config config, Arena arena) {
         this.config = config;
+        this.arena = arena;
+        this.blockCache = config.blockCacheBytes() > 0 ? new BlockCache(config.blockCacheBytes(), arena) : null;
+        this.rateLimiter = new RateLimiter(config.rateLimitBytesPerSecond());
     }
 
-    public static List<MemorySegment> loadOrRecover(Path basePath, Arena arena) {
-        List<MemorySegment> sstables = new ArrayList<>();
+    /**
+     * Loads live tables from the manifest without mapping them, a table is mapped on first access. Tables which
+     * never made it to the manifest (outputs of interrupted flushes and compactions, their data is still in the log
+     * or in the inputs) are removed. Directories written before the manifest was introduced are loaded as level 0,
+     * newest table first, mapping the tables in parallel to read their key ranges.
+     * @return live tables in read priority order
+     */
+    public List<SSTable> loadOrRecover() {
+        Path basePath = config.basePath();
+
+        try {
+            Files.createDirectories(basePath);
+            manifest = Manifest.open(basePath);
+            List<Manifest.TableMeta> tables = manifest.tables();
+
+            if (tables == null && compactionTmpFileExists(basePath)) {
+                restoreCompaction(offsetsConfig, basePath, arena);
+            }
+            Map<Long, Path> files = listTables(basePath);
+            nextId.set(files.keySet().stream().mapToLong(Long::longValue).max().orElse(-1) + 1);
+
+            List<SSTable> sstables;
+            if (tables == null) {
+                sstables = files.keySet().stream()
+                        .sorted(Comparator.reverseOrder())
+                        .parallel()
+                        .map(id -> SSTable.of(id, 0, mapUnchecked(files.get(id)), blockCache))
+                        .toList();
+            } else {
+                sstables = new ArrayList<>(tables.size());
+                for (Manifest.TableMeta meta : tables) {
+                    Path path = files.remove(meta.id());
+                    if (path == null) {
+                        throw new IllegalStateException("SSTable " + meta.id() + " listed in manifest is missing");
+                    }
+                    sstables.add(SSTable.lazy(meta.id(), meta.level(), meta.size(), meta.expiresAt(),
+                            meta.minKey(), meta.maxKey(), () -> mapUnchecked(path), blockCache));
+                }
+
+                for (Path orphan : files.values()) {
+                    Files.delete(orphan);
+                }
+            }
 
-        if (compactionTmpFileExists(basePath)) {
-            restoreCompaction(offsetsConfig, basePath, arena);
+            if (!manifest.isUpToDate()) {
+                manifest.rewrite(sstables);
+            }
+            return sstables;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+    }
 
+    private static Map<Long, Path> listTables(Path basePath) throws IOException {
+        Map<Long, Path> files = new HashMap<>();
         try (Stream<Path> stream = Files.list(basePath)) {
             stream
                     .filter(path -> path.toString().endsWith(SSTABLE_EXTENSION))
-                    .map(path -> new AbstractMap.SimpleEntry<>(path, parsePriority(path)))
-                    .sorted(priorityComparator().reversed())
-                    .forEach(entry -> {
-                        try (FileChannel channel = FileChannel.open(entry.getKey(), StandardOpenOption.READ)) {
-                            MemorySegment readSegment = channel.map(
-                                    FileChannel.MapMode.READ_ONLY,
-                                    0,
-                                    channel.size(),
-                                    arena);
-
-                            sstables.add(readSegment);
-                            sstablesCount++;
-                        } catch (FileNotFoundException | NoSuchFileException e) {
-                            arena.close();
-                        } catch (IOException e) {
-                            throw new UncheckedIOException(e);
-                        }
-                    });
-        } catch (NoSuchFileException e) {
-            arena.close();
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
+                    .forEach(path -> files.put(parseId(path), path));
         }
-
-        return sstables;
+        return files;
     }
 
     private static boolean compactionTmpFileExists(Path basePath) {
@@ -98,28 +136,55 @@ public class SSTableManager {
         return Files.exists(pathTmp);
     }
 
-    private static int parsePriority(Path path) {
+    private static long parseId(Path path) {
         String fileName = path.getFileName().toString();
-        return Integer.parseInt(fileName.substring(fileName.indexOf('_') + 1, fileName.indexOf('.')));
+        return Long.parseLong(fileName.substring(fileName.indexOf('_') + 1, fileName.indexOf('.')));
     }
 
-    private static Comparator<Map.Entry<Path, Integer>> priorityComparator() {
-        return Comparator.comparingInt(Map.Entry::getValue);
+    private Path pathOf(long id) {
+        return config.basePath().resolve(SSTABLE_NAME + id + SSTABLE_EXTENSION);
+    }
+
+    private MemorySegment map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+        }
+    }
+
+    private MemorySegment mapUnchecked(Path path) {
+        try {
+            return map(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     public static BinarySearchResult find(MemorySegment readSegment, MemorySegment key) {
         return SSTableUtils.binarySearch(readSegment, key);
     }
 
-    public static Iterator<Entry<MemorySegment>> iteratorsAll(List<MemorySegment> segments, MemorySegment from, MemorySegment to) {
+    /**
+     * Merges tables in read priority order. Entries deleted by range tombstones of newer tables are skipped,
+     * tables deleted as a whole are not read at all.
+     *
+     * @param deleted range tombstones of memtables newer than the tables
+     */
+    public static Iterator<Entry<MemorySegment>> iteratorsAll(List<SSTable> sstables, MemorySegment from,
+                                                              MemorySegment to, RangeTombstones deleted) {
         List<PeekingIterator<Entry<MemorySegment>>> result = new ArrayList<>();
 
         int priority = 1;
-        for (MemorySegment sstable : segments) {
-            result.add(new PeekingIteratorImpl<>(iteratorOf(sstable, from, to), priority));
+        for (SSTable sstable : sstables) {
+            if (sstable.intersects(from, to) && !sstable.deletedBy(deleted)) {
+                Iterator<Entry<MemorySegment>> iterator = deleted.intersects(from, to)
+                        ? new RangeTombstoneIterator(sstable::iterator, from, to, deleted)
+                        : sstable.iterator(from, to);
+                result.add(new PeekingIteratorImpl<>(iterator, priority));
+            }
             priority++;
+            deleted = deleted.union(sstable.rangeTombstones());
         }
-        return MergeIterator.merge(result, LSMStorage::entryComparator);
+        return LoserTreeIterator.merge(result, LSMStorage::entryComparator);
     }
 
     public static Iterator<Entry<MemorySegment>> iteratorOf(MemorySegment sstable, MemorySegment from, MemorySegment to) {
@@ -153,137 +218,162 @@ public class SSTableManager {
         return new SSTableIterator(sstable, keyIndexFrom, keyIndexTo, keyOffset);
     }
 
-    public MemorySegment write(Collection<Entry<MemorySegment>> dataToFlush, double bloomFilterFPP) throws IOException {
-        long size = 0;
-
-        for (Entry<MemorySegment> entry : dataToFlush) {
-            size += entryByteSize(entry);
-        }
-
-        long bloomFilterLength = BloomFilter.bloomFilterLength(dataToFlush.size(), bloomFilterFPP);
-
-        size += 2L * Long.BYTES * dataToFlush.size();
-        size += 3L * Long.BYTES + (long) Long.BYTES * dataToFlush.size(); //for metadata (header + key offsets)
-        size += Long.BYTES * bloomFilterLength; //for bloom filter
-
-        MemorySegment memorySegment;
-        Arena arenaForSave = Arena.ofShared();
-        memorySegment = writeMappedSegment(size, arenaForSave);
-
-        //Writing sstable header
-        long headerOffset = 0;
-
-        memorySegment.set(ValueLayout.JAVA_LONG_UNALIGNED, offsetsConfig.getBloomFilterLengthOffset(), bloomFilterLength);
-        headerOffset += Long.BYTES;
-        memorySegment.set(ValueLayout.JAVA_LONG_UNALIGNED, offsetsConfig.getBloomFilterHashFunctionsOffset(), config.bloomFilterHashFunctionsCount());
-        headerOffset += Long.BYTES;
-        memorySegment.set(ValueLayout.JAVA_LONG_UNALIGNED, offsetsConfig.getEntriesSizeOffset(), dataToFlush.size());
-        headerOffset += Long.BYTES;
-        //---------
-
-        //Writing bloom filter + memory entries
-        long bloomFilterOffset = headerOffset;
-        final long keyOffset = bloomFilterOffset + bloomFilterLength * Long.BYTES;
-        long offset = keyOffset + (long) Long.BYTES * dataToFlush.size();
-
-        long i = 0;
-        for (Entry<MemorySegment> entry : dataToFlush) {
-            BloomFilter.addToSstable(entry.key(), memorySegment, config.bloomFilterHashFunctionsCount(), bloomFilterLength * Long.SIZE);
-            memorySegment.set(ValueLayout.JAVA_LONG_UNALIGNED, keyOffset + i * Long.BYTES, offset);
-            offset = writeEntry(entry, memorySegment, offset);
-            i++;
-        }
-        //---------
-
-        sstablesCount++;
-        return memorySegment;
+    /**
+     * Writes sorted entries and range tombstones of a flush into a single new table and maps it for reading.
+     */
+    public SSTable write(Collection<Entry<MemorySegment>> dataToFlush, RangeTombstones rangeTombstones, int level)
+            throws IOException {
+        return write(new IteratorCursor(dataToFlush.iterator()), rangeTombstones, level, Long.MAX_VALUE,
+                RateLimiter.Priority.HIGH).getFirst();
     }
 
-    private long writeEntry(Entry<MemorySegment> entry, MemorySegment dst, long offset) {
-        long newOffset = writeSegment(entry.key(), dst, offset);
+    /**
+     * Writes sorted entries into a run of tables in a single pass, starting a new table once {@code targetFileBytes}
+     * are written to the current one. Entries are copied out of the cursor one by one, filters are sized
+     * when a table is finished.
+     * <p>
+     * Range tombstones are split between the tables at the boundaries of their keys, so tables of a level
+     * stay disjoint. A table is written for range tombstones even if no entries are left for it.
+     *
+     * @param priority priority the writes are charged to the {@link #rateLimiter() rate limiter} with
+     */
+    public List<SSTable> write(EntryCursor entries, RangeTombstones rangeTombstones, int level, long targetFileBytes,
+                               RateLimiter.Priority priority) throws IOException {
+        List<SSTable> tables = new ArrayList<>();
+        SSTableWriter writer = null;
+        long id = 0;
+        MemorySegment lowerBound = null;
+
+        try {
+            while (entries.advance()) {
+                if (writer == null) {
+                    id = nextId.getAndIncrement();
+                    writer = new SSTableWriter(pathOf(id), config, rateLimiter, priority);
+                }
+                writer.add(entries.keySegment(), entries.valueSegment(), entries.expiresAt());
+
+                if (writer.bytesWritten() >= targetFileBytes) {
+                    MemorySegment upperBound = successor(entries.keySegment());
+                    writer.rangeTombstones(rangeTombstones.clip(lowerBound, upperBound));
+                    tables.add(finish(writer, id, level));
+                    writer = null;
+                    lowerBound = upperBound;
+                }
+            }
 
-        if (entry.value() == null) {
-            dst.set(ValueLayout.JAVA_LONG_UNALIGNED, newOffset, TOMBSTONE_TAG);
-            newOffset += Long.BYTES;
-        } else {
-            newOffset = writeSegment(entry.value(), dst, newOffset);
+            RangeTombstones rest = rangeTombstones.clip(lowerBound, null);
+            if (writer == null && !rest.isEmpty()) {
+                id = nextId.getAndIncrement();
+                writer = new SSTableWriter(pathOf(id), config, rateLimiter, priority);
+            }
+            if (writer != null) {
+                writer.rangeTombstones(rest);
+                tables.add(finish(writer, id, level));
+                writer = null;
+            }
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
         }
 
-        return newOffset;
+        return tables;
     }
 
-    private long writeSegment(MemorySegment src, MemorySegment dst, long offset) {
-        long size = src.byteSize();
-        long newOffset = offset;
-
-        dst.set(ValueLayout.JAVA_LONG_UNALIGNED, newOffset, size);
-        newOffset += Long.BYTES;
-        MemorySegment.copy(src, 0, dst, newOffset, size);
-        newOffset += size;
-
-        return newOffset;
+    /**
+     * @return the least key greater than {@code key}
+     */
+    private static MemorySegment successor(MemorySegment key) {
+        byte[] next = new byte[(int) key.byteSize() + 1];
+        MemorySegment.copy(key, ValueLayout.JAVA_BYTE, 0, next, 0, next.length - 1);
+        next[next.length - 1] = Byte.MIN_VALUE;
+        return MemorySegment.ofArray(next);
     }
 
-    public MemorySegment compact(Iterator<Entry<MemorySegment>> iterator, long sizeForCompaction, long entryCount, long bfLength) throws IOException {
-        Path path = config.basePath().resolve(SSTABLE_NAME + ".tmp");
+    private SSTable finish(SSTableWriter writer, long id, int level) throws IOException {
+        try (writer) {
+            writer.finish();
+        }
+        return SSTable.of(id, level, map(pathOf(id)), blockCache);
+    }
 
-        MemorySegment memorySegment;
-        try (Arena arenaForCompact = Arena.ofShared()) {
-            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
-                memorySegment = channel.map(FileChannel.MapMode.READ_WRITE, 0, sizeForCompaction, arenaForCompact);
+    /**
+     * Splits key space of {@code sstables} into at most {@code parts} ranges with about the same amount of data,
+     * using keys sampled from the table indexes.
+     *
+     * @return ascending boundaries, range {@code i} is {@code [boundaries[i - 1]; boundaries[i])}
+     * with unbounded first and last ranges
+     */
+    public static List<MemorySegment> splitPoints(List<SSTable> sstables, int parts) {
+        record Sample(MemorySegment key, double bytes) { }
+
+        List<Sample> samples = new ArrayList<>();
+        double totalBytes = 0;
+        for (SSTable sstable : sstables) {
+            List<MemorySegment> keys = sstable.sampleKeys(SPLIT_SAMPLES_PER_TABLE);
+            for (MemorySegment key : keys) {
+                samples.add(new Sample(key, (double) sstable.byteSize() / keys.size()));
             }
-
-            //Writing sstable header
-            long headerOffset = 0;
-
-            memorySegment.set(ValueLayout.JAVA_LONG_UNALIGNED, offsetsConfig.getBloomFilterLengthOffset(), bfLength);
-            headerOffset += Long.BYTES;
-            memorySegment.set(ValueLayout.JAVA_LONG_UNALIGNED, offsetsConfig.getBloomFilterHashFunctionsOffset(), config.bloomFilterHashFunctionsCount());
-            headerOffset += Long.BYTES;
-            memorySegment.set(ValueLayout.JAVA_LONG_UNALIGNED, offsetsConfig.getEntriesSizeOffset(), COMPACTION_NOT_FINISHED_TAG);
-            headerOffset += Long.BYTES;
-            //---------
-
-            //Writing new Bloom filter and entries
-            long bloomFilterOffset = headerOffset;
-            final long keyOffset = bloomFilterOffset + bfLength * Long.BYTES;
-            long offset = keyOffset + Long.BYTES * entryCount;
-
-            long index = 0;
-            while (iterator.hasNext()) {
-                Entry<MemorySegment> entry = iterator.next();
-
-                BloomFilter.addToSstable(entry.key(), memorySegment, config.bloomFilterHashFunctionsCount(), bfLength * Long.SIZE);
-                memorySegment.set(ValueLayout.JAVA_LONG_UNALIGNED, keyOffset + index * Long.BYTES, offset);
-                offset = writeEntry(entry, memorySegment, offset);
-                index++;
+            totalBytes += keys.isEmpty() ? 0 : sstable.byteSize();
+        }
+        samples.sort((s1, s2) -> LSMStorage.comparator(s1.key(), s2.key()));
+
+        List<MemorySegment> boundaries = new ArrayList<>(parts - 1);
+        double accumulated = 0;
+        for (Sample sample : samples) {
+            accumulated += sample.bytes();
+            if (boundaries.size() == parts - 1) {
+                break;
+            }
+            if (accumulated >= totalBytes * (boundaries.size() + 1) / parts
+                    && (boundaries.isEmpty() || LSMStorage.comparator(boundaries.getLast(), sample.key()) < 0)) {
+                boundaries.add(sample.key());
             }
-
-            memorySegment.set(ValueLayout.JAVA_LONG_UNALIGNED, offsetsConfig.getEntriesSizeOffset(), entryCount);
-
-            finishCompact(config.basePath());
         }
-
-        return memorySegment;
+        return boundaries;
     }
 
-    private static void finishCompact(Path basePath) throws IOException {
-        Path path = basePath.resolve(SSTABLE_NAME + ".tmp");
+    /**
+     * @return cursor merging tables in priority order,
+     * see {@link #iteratorsAll(List, MemorySegment, MemorySegment, RangeTombstones)}
+     */
+    public static EntryCursor cursorsAll(List<SSTable> sstables, MemorySegment from, MemorySegment to,
+                                         RangeTombstones deleted) {
+        List<EntryCursor> result = new ArrayList<>();
+        for (SSTable sstable : sstables) {
+            if (sstable.intersects(from, to) && !sstable.deletedBy(deleted)) {
+                result.add(deleted.intersects(from, to)
+                        ? new RangeTombstoneCursor(sstable::cursor, from, to, deleted)
+                        : sstable.cursor(from, to));
+            }
+            deleted = deleted.union(sstable.rangeTombstones());
+        }
+        return new MergeCursor(result, LSMStorage::comparator);
+    }
 
-        deleteOldSSTables(basePath);
-        Files.move(path, path.resolveSibling(SSTABLE_NAME + OLDEST_SS_TABLE_INDEX + SSTABLE_EXTENSION), StandardCopyOption.ATOMIC_MOVE);
+    public BlockCacheStats blockCacheStats() {
+        return blockCache == null ? BlockCacheStats.DISABLED : blockCache.stats();
+    }
 
-        sstablesCount = 1;
+    public RateLimiter rateLimiter() {
+        return rateLimiter;
     }
 
-    private MemorySegment writeMappedSegment(long size, Arena arena) throws IOException {
-        Path path = config.basePath().resolve(SSTABLE_NAME + sstablesCount + SSTABLE_EXTENSION);
-        try (FileChannel channel = FileChannel.open(path,
-                StandardOpenOption.READ,
-                StandardOpenOption.WRITE,
-                StandardOpenOption.CREATE)) {
+    /**
+     * Logs replacement of {@code removed} tables with {@code added} ones in the manifest.
+     *
+     * @param live tables after the replacement, in read priority order
+     */
+    public void updateManifest(Collection<SSTable> removed, List<SSTable> added, List<SSTable> live)
+            throws IOException {
+        manifest.append(removed, added, live);
+    }
 
-            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size, arena);
+    public void delete(Collection<SSTable> sstables) throws IOException {
+        for (SSTable sstable : sstables) {
+            // A table never read is mapped now, readers of older storage states may still get to it
+            sstable.segment();
+            Files.deleteIfExists(pathOf(sstable.id()));
         }
     }
 }
@@ -0,0 +1,87 @@
+package ru.axothy.storage;
+
+import ru.axothy.api.Entry;
+import ru.axothy.iterators.EntryCursor;
+import ru.axothy.iterators.IteratorCursor;
+
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Read access to a mapped table of any supported format version.
+ */
+interface SSTableReader {
+
+    /**
+     * @param cache block cache shared by the tables of a storage, {@code null} to read blocks from the table directly
+     */
+    static SSTableReader open(MemorySegment segment, long id, BlockCache cache) {
+        if (SSTableFormat.isBlockFormat(segment)) {
+            return new BlockTableReader(segment, id, cache);
+        }
+        return new LegacyTableReader(segment);
+    }
+
+    /**
+     * @param hashBase first half of the key hash from {@link BloomFilter#hash(MemorySegment, long[])}
+     * @param hashIncrement second half of the key hash
+     */
+    boolean mayContain(long hashBase, long hashIncrement);
+
+    /**
+     * @return entry with {@code key} (tombstones included) or {@code null} if the table has none
+     */
+    Entry<MemorySegment> get(MemorySegment key);
+
+    /**
+     * @param sortedKeys ascending keys
+     * @return result of {@link #get(MemorySegment)} for every key
+     */
+    default List<Entry<MemorySegment>> getAll(List<MemorySegment> sortedKeys) {
+        List<Entry<MemorySegment>> entries = new ArrayList<>(sortedKeys.size());
+        for (MemorySegment key : sortedKeys) {
+            entries.add(get(key));
+        }
+        return entries;
+    }
+
+    /**
+     * @return entries (tombstones included) with keys in {@code [from; to)}, {@code null} bound is unbounded
+     */
+    Iterator<Entry<MemorySegment>> iterator(MemorySegment from, MemorySegment to);
+
+    /**
+     * Same entries as {@link #iterator(MemorySegment, MemorySegment)} without materializing each of them.
+     */
+    default EntryCursor cursor(MemorySegment from, MemorySegment to) {
+        return new IteratorCursor(iterator(from, to));
+    }
+
+    /**
+     * @return ranges deleted by the table, version 1 tables have none
+     */
+    default RangeTombstones rangeTombstones() {
+        return RangeTombstones.EMPTY;
+    }
+
+    /**
+     * @return time from which every value of the table is expired, {@link Entry#NEVER_EXPIRES} if some value
+     * does not expire, version 1 tables have no expiring values
+     */
+    default long expiresAt() {
+        return Entry.NEVER_EXPIRES;
+    }
+
+    long entriesCount();
+
+    /**
+     * @return up to {@code count} ascending keys of the table, spaced evenly by their position in the table
+     */
+    List<MemorySegment> sampleKeys(int count);
+
+    MemorySegment minKey();
+
+    MemorySegment maxKey();
+}
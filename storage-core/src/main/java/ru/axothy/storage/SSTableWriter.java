@@ -0,0 +1,373 @@
+package ru.axothy.storage;
+
+import ru.axothy.api.Entry;
+import ru.axothy.config.Config;
+import ru.axothy.config.FilterType;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static ru.axothy.storage.SSTableFormat.BLOCKS_COUNT_OFFSET;
+import static ru.axothy.storage.SSTableFormat.BLOCK_SIZE;
+import static ru.axothy.storage.SSTableFormat.ENTRIES_COUNT_OFFSET;
+import static ru.axothy.storage.SSTableFormat.EXPIRATION_FLAG;
+import static ru.axothy.storage.SSTableFormat.FILTER_ALIGNMENT;
+import static ru.axothy.storage.SSTableFormat.FILTER_LENGTH_OFFSET;
+import static ru.axothy.storage.SSTableFormat.FILTER_OFFSET_OFFSET;
+import static ru.axothy.storage.SSTableFormat.FILTER_TYPE_OFFSET;
+import static ru.axothy.storage.SSTableFormat.FLAGS_OFFSET;
+import static ru.axothy.storage.SSTableFormat.HASH_FUNCTIONS_OFFSET;
+import static ru.axothy.storage.SSTableFormat.HEADER_SIZE;
+import static ru.axothy.storage.SSTableFormat.INDEX_OFFSET_OFFSET;
+import static ru.axothy.storage.SSTableFormat.RANGE_TOMBSTONES_FLAG;
+import static ru.axothy.storage.SSTableFormat.RESTART_INTERVAL;
+import static ru.axothy.storage.SSTableFormat.TOMBSTONE;
+import static ru.axothy.storage.SSTableFormat.expiringValueSize;
+
+/**
+ * Writes sorted entries into a {@link SSTableFormat block-based} table, one data block at a time.
+ * The header is written last, so a table without a valid header is an unfinished one.
+ */
+final class SSTableWriter implements Closeable {
+
+    private static final int WRITE_BUFFER_SIZE = 256 * 1024;
+
+    private record IndexRecord(byte[] lastKey, long blockOffset, int blockSize) { }
+
+    private final FileChannel channel;
+
+    private final FilterType filterType;
+
+    private final KeyFilter.Builder filterBuilder;
+
+    private final RateLimiter rateLimiter;
+
+    private final RateLimiter.Priority priority;
+
+    private final int hashFunctions;
+
+    private final long[] keyHash = new long[2];
+
+    private final WriteBuffer block = new WriteBuffer(2 * BLOCK_SIZE);
+
+    /**
+     * Finished blocks not yet written to the channel, the file is appended in large sequential writes.
+     */
+    private final WriteBuffer pending = new WriteBuffer(WRITE_BUFFER_SIZE);
+
+    private int[] restarts = new int[BLOCK_SIZE / 64];
+
+    private int restartsCount;
+
+    private int blockEntries;
+
+    private byte[] lastKey = new byte[64];
+
+    private int lastKeySize;
+
+    private final List<IndexRecord> index = new ArrayList<>();
+
+    private long position = HEADER_SIZE;
+
+    private long entriesCount;
+
+    private RangeTombstones rangeTombstones = RangeTombstones.EMPTY;
+
+    /**
+     * Latest expiration time of the values added so far, {@link Entry#NEVER_EXPIRES} once a value does not expire.
+     */
+    private long expiresAt = Long.MIN_VALUE;
+
+    SSTableWriter(Path path, Config config, RateLimiter rateLimiter, RateLimiter.Priority priority) throws IOException {
+        this.channel = FileChannel.open(path,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.filterType = config.filterType();
+        this.hashFunctions = config.bloomFilterHashFunctionsCount();
+        this.rateLimiter = rateLimiter;
+        this.priority = priority;
+
+        this.filterBuilder = KeyFilter.builder(filterType, config);
+    }
+
+    void add(Entry<MemorySegment> entry) throws IOException {
+        add(entry.key(), entry.value(), entry.expiresAt());
+    }
+
+    /**
+     * Appends entry with {@code key} greater than the previous one, the segments are copied.
+     *
+     * @param value entry value, {@code null} for a tombstone
+     * @param valueExpiresAt expiration time of the value, {@link Entry#NEVER_EXPIRES} if it does not expire
+     */
+    void add(MemorySegment key, MemorySegment value, long valueExpiresAt) throws IOException {
+        int keySize = (int) key.byteSize();
+
+        int shared = 0;
+        if (blockEntries % RESTART_INTERVAL == 0) {
+            addRestart(block.size());
+        } else {
+            shared = sharedPrefix(key);
+        }
+
+        block.putInt(shared);
+        block.putInt(keySize - shared);
+        boolean expiring = value != null && valueExpiresAt != Entry.NEVER_EXPIRES;
+        if (value == null) {
+            block.putInt(TOMBSTONE);
+        } else {
+            block.putInt(expiring ? expiringValueSize((int) value.byteSize()) : (int) value.byteSize());
+            expiresAt = Math.max(expiresAt, valueExpiresAt);
+        }
+        block.put(key, shared, keySize - shared);
+        if (value != null) {
+            block.put(value, 0, value.byteSize());
+        }
+        if (expiring) {
+            block.putLong(valueExpiresAt);
+        }
+
+        if (keySize > lastKey.length) {
+            lastKey = new byte[Math.max(keySize, lastKey.length * 2)];
+        }
+        MemorySegment.copy(key, ValueLayout.JAVA_BYTE, 0, lastKey, 0, keySize);
+        lastKeySize = keySize;
+
+        BloomFilter.hash(key, keyHash);
+        filterBuilder.add(keyHash[0], keyHash[1]);
+        blockEntries++;
+        entriesCount++;
+
+        if (block.size() >= BLOCK_SIZE) {
+            finishBlock();
+        }
+    }
+
+    /**
+     * Sets deleted ranges stored in the table, they may span beyond the keys of its entries.
+     */
+    void rangeTombstones(RangeTombstones rangeTombstones) {
+        this.rangeTombstones = rangeTombstones;
+    }
+
+    /**
+     * Writes pending block, filter, table metadata, index and header and forces the file to disk.
+     */
+    void finish() throws IOException {
+        if (blockEntries > 0) {
+            finishBlock();
+        }
+
+        // Blocks of a blocked filter have to start at cache line boundaries of the mapped file
+        MemorySegment filterData = filterBuilder.build();
+        long padding = -position & (FILTER_ALIGNMENT - 1);
+        WriteBuffer filter = new WriteBuffer(Math.toIntExact(padding + filterData.byteSize()));
+        filter.putZeros((int) padding);
+        long filterOffset = position + padding;
+        filter.put(filterData, 0, filterData.byteSize());
+        write(filter);
+
+        int flags = 0;
+        if (expiresAt != Long.MIN_VALUE && expiresAt != Entry.NEVER_EXPIRES) {
+            flags |= EXPIRATION_FLAG;
+            WriteBuffer expiration = new WriteBuffer(Long.BYTES);
+            expiration.putLong(expiresAt);
+            write(expiration);
+        }
+        if (!rangeTombstones.isEmpty()) {
+            flags |= RANGE_TOMBSTONES_FLAG;
+            long rangesOffset = position;
+            WriteBuffer ranges = new WriteBuffer(Math.toIntExact(
+                    rangeTombstones.byteSize() + 2L * Integer.BYTES * rangeTombstones.size() + Long.BYTES));
+            for (int i = 0; i < rangeTombstones.size(); i++) {
+                putKey(ranges, rangeTombstones.from(i));
+                putKey(ranges, rangeTombstones.to(i));
+            }
+            ranges.putLong(rangesOffset);
+            write(ranges);
+        }
+
+        long indexOffset = position;
+        WriteBuffer indexBuffer = new WriteBuffer(index.size() * Long.BYTES);
+        long recordOffset = indexOffset + (long) index.size() * Long.BYTES;
+        for (IndexRecord record : index) {
+            indexBuffer.putLong(recordOffset);
+            recordOffset += SSTableFormat.INDEX_RECORD_HEADER_SIZE + record.lastKey().length;
+        }
+        for (IndexRecord record : index) {
+            indexBuffer.putLong(record.blockOffset());
+            indexBuffer.putInt(record.blockSize());
+            indexBuffer.putInt(record.lastKey().length);
+            indexBuffer.put(MemorySegment.ofArray(record.lastKey()), 0, record.lastKey().length);
+        }
+        write(indexBuffer);
+        drain();
+
+        WriteBuffer header = new WriteBuffer((int) HEADER_SIZE);
+        header.putLong(SSTableFormat.MAGIC);
+        header.putLongAt(ENTRIES_COUNT_OFFSET, entriesCount);
+        header.putLongAt(INDEX_OFFSET_OFFSET, indexOffset);
+        header.putLongAt(BLOCKS_COUNT_OFFSET, index.size());
+        header.putLongAt(FILTER_OFFSET_OFFSET, filterOffset);
+        header.putLongAt(FILTER_LENGTH_OFFSET, filterData.byteSize() / Long.BYTES);
+        header.putLongAt(HASH_FUNCTIONS_OFFSET, hashFunctions);
+        header.putIntAt(FILTER_TYPE_OFFSET, filterType.ordinal());
+        header.putIntAt(FLAGS_OFFSET, flags);
+        ByteBuffer headerBytes = header.asByteBuffer();
+        long headerPosition = 0;
+        while (headerBytes.hasRemaining()) {
+            headerPosition += channel.write(headerBytes, headerPosition);
+        }
+
+        //write-ahead log segments and compaction inputs are dropped afterwards, so the table has to be durable first
+        channel.force(true);
+    }
+
+    /**
+     * @return bytes added so far including the header and the block being built, some of them may still be buffered
+     */
+    long bytesWritten() {
+        return position + block.size();
+    }
+
+    long entriesCount() {
+        return entriesCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void finishBlock() throws IOException {
+        for (int i = 0; i < restartsCount; i++) {
+            block.putInt(restarts[i]);
+        }
+        block.putInt(restartsCount);
+
+        index.add(new IndexRecord(Arrays.copyOf(lastKey, lastKeySize), position, block.size()));
+        write(block);
+
+        block.clear();
+        restartsCount = 0;
+        blockEntries = 0;
+    }
+
+    private void write(WriteBuffer buffer) throws IOException {
+        pending.put(buffer.segment, 0, buffer.size());
+        position += buffer.size();
+
+        if (pending.size() >= WRITE_BUFFER_SIZE) {
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        rateLimiter.request(pending.size(), priority);
+
+        ByteBuffer bytes = pending.asByteBuffer();
+        long writePosition = position - pending.size();
+        while (bytes.hasRemaining()) {
+            writePosition += channel.write(bytes, writePosition);
+        }
+        pending.clear();
+    }
+
+    private static void putKey(WriteBuffer buffer, MemorySegment key) {
+        buffer.putInt((int) key.byteSize());
+        buffer.put(key, 0, key.byteSize());
+    }
+
+    private void addRestart(int offset) {
+        if (restartsCount == restarts.length) {
+            restarts = Arrays.copyOf(restarts, restarts.length * 2);
+        }
+        restarts[restartsCount++] = offset;
+    }
+
+    private int sharedPrefix(MemorySegment key) {
+        long mismatch = MemorySegment.mismatch(
+                MemorySegment.ofArray(lastKey), 0, lastKeySize,
+                key, 0, key.byteSize());
+        return mismatch == -1 ? lastKeySize : (int) mismatch;
+    }
+
+    /**
+     * Growable heap buffer written with the same native byte order the tables are read with.
+     */
+    private static final class WriteBuffer {
+        private byte[] array;
+
+        private MemorySegment segment;
+
+        private int size;
+
+        WriteBuffer(int capacity) {
+            this.array = new byte[Math.max(capacity, Long.BYTES)];
+            this.segment = MemorySegment.ofArray(array);
+        }
+
+        void putInt(int value) {
+            ensureCapacity(Integer.BYTES);
+            segment.set(ValueLayout.JAVA_INT_UNALIGNED, size, value);
+            size += Integer.BYTES;
+        }
+
+        void putLong(long value) {
+            ensureCapacity(Long.BYTES);
+            segment.set(ValueLayout.JAVA_LONG_UNALIGNED, size, value);
+            size += Long.BYTES;
+        }
+
+        void putLongAt(long offset, long value) {
+            segment.set(ValueLayout.JAVA_LONG_UNALIGNED, offset, value);
+            size = (int) Math.max(size, offset + Long.BYTES);
+        }
+
+        void putZeros(int length) {
+            ensureCapacity(length);
+            Arrays.fill(array, size, size + length, (byte) 0);
+            size += length;
+        }
+
+        void putIntAt(long offset, int value) {
+            segment.set(ValueLayout.JAVA_INT_UNALIGNED, offset, value);
+            size = (int) Math.max(size, offset + Integer.BYTES);
+        }
+
+        void put(MemorySegment src, long offset, long length) {
+            ensureCapacity(length);
+            MemorySegment.copy(src, offset, segment, size, length);
+            size += (int) length;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        ByteBuffer asByteBuffer() {
+            return ByteBuffer.wrap(array, 0, size);
+        }
+
+        private void ensureCapacity(long length) {
+            if (size + length > array.length) {
+                array = Arrays.copyOf(array, Math.toIntExact(Math.max(size + length, 2L * array.length)));
+                segment = MemorySegment.ofArray(array);
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package ru.axothy.storage;
+
+/**
+ * Background job counters of a storage instance.
+ */
+public record SchedulerStats(Jobs flushes, Jobs compactions) {
+
+    /**
+     * @param queued jobs waiting for a thread
+     * @param running jobs being executed
+     * @param completed jobs finished since the storage was opened, failed and cancelled ones included
+     * @param totalNanos time spent by completed jobs
+     * @param maxNanos longest completed job
+     */
+    public record Jobs(int queued, int running, long completed, long totalNanos, long maxNanos) {
+
+        public double averageMillis() {
+            return completed == 0 ? 0 : totalNanos / 1e6 / completed;
+        }
+    }
+}
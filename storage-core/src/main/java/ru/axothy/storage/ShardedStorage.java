@@ -0,0 +1,168 @@
+package ru.axothy.storage;
+
+import ru.axothy.api.Entry;
+import ru.axothy.api.Storage;
+import ru.axothy.config.Config;
+import ru.axothy.hash.MurmurHash;
+import ru.axothy.iterators.LoserTreeIterator;
+import ru.axothy.iterators.PeekingIterator;
+import ru.axothy.iterators.PeekingIteratorImpl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Storage hash-partitioning keys over independent {@link LSMStorage} shards. Every shard has its own directory,
+ * memtables, write-ahead log and background jobs, so writes to different shards share no state.
+ * <p>
+ * Shard {@code i} lives in {@code shard_i} under the base path and the number of shards is fixed once the storage
+ * is created. Range scans merge the shards in key order, shards hold disjoint keys so no entry is shadowed.
+ * The block cache and the background I/O rate limit of the config are split between the shards, the flush
+ * threshold applies to each of them.
+ */
+public final class ShardedStorage implements Storage<MemorySegment, Entry<MemorySegment>> {
+
+    static final String SHARDS_NAME = "SHARDS";
+
+    private static final String SHARD_PREFIX = "shard_";
+
+    /**
+     * Differs from the filter seed, otherwise keys of a shard would agree on the low bits of their filter hash.
+     */
+    private static final long SHARD_SEED = 0x5BD1E995L;
+
+    private static final ThreadLocal<long[]> KEY_HASH = ThreadLocal.withInitial(() -> new long[2]);
+
+    private final LSMStorage[] shards;
+
+    public ShardedStorage(Config config, int shardsCount) {
+        if (shardsCount <= 0) {
+            throw new IllegalArgumentException("Shards count must be positive: " + shardsCount);
+        }
+        try {
+            checkShardsCount(config.basePath(), shardsCount);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        Config shardConfig = config
+                .withBlockCacheBytes(config.blockCacheBytes() / shardsCount)
+                .withRateLimit(Math.ceilDiv(config.rateLimitBytesPerSecond(), shardsCount));
+        this.shards = new LSMStorage[shardsCount];
+        for (int i = 0; i < shardsCount; i++) {
+            try {
+                shards[i] = new LSMStorage(shardConfig.withBasePath(config.basePath().resolve(SHARD_PREFIX + i)));
+            } catch (RuntimeException e) {
+                closeOpened(i, e);
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public Entry<MemorySegment> get(MemorySegment key) {
+        return shard(key).get(key);
+    }
+
+    @Override
+    public Iterator<Entry<MemorySegment>> get(MemorySegment from, MemorySegment to) {
+        List<PeekingIterator<Entry<MemorySegment>>> iterators = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            iterators.add(new PeekingIteratorImpl<>(shards[i].get(from, to), i));
+        }
+        return LoserTreeIterator.merge(iterators, LSMStorage::entryComparator);
+    }
+
+    @Override
+    public void upsert(Entry<MemorySegment> entry) {
+        shard(entry.key()).upsert(entry);
+    }
+
+    /**
+     * Deletes the range in every shard, hashing spreads any key range over all of them.
+     */
+    @Override
+    public void deleteRange(MemorySegment from, MemorySegment to) {
+        for (LSMStorage shard : shards) {
+            shard.deleteRange(from, to);
+        }
+    }
+
+    @Override
+    public void flush() {
+        for (LSMStorage shard : shards) {
+            shard.flush();
+        }
+    }
+
+    @Override
+    public void compact() {
+        for (LSMStorage shard : shards) {
+            shard.compact();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (LSMStorage shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    public int shardsCount() {
+        return shards.length;
+    }
+
+    private LSMStorage shard(MemorySegment key) {
+        long[] hash = KEY_HASH.get();
+        MurmurHash.hash64(key, 0, (int) key.byteSize(), SHARD_SEED, hash);
+        return shards[(int) Math.floorMod(hash[0], (long) shards.length)];
+    }
+
+    /**
+     * Records the number of shards of a new storage and rejects opening an existing one with another number,
+     * which would route keys to the wrong shards.
+     */
+    private static void checkShardsCount(Path basePath, int shardsCount) throws IOException {
+        Path path = basePath.resolve(SHARDS_NAME);
+        if (Files.exists(path)) {
+            int created = Integer.parseInt(Files.readString(path).trim());
+            if (created != shardsCount) {
+                throw new IllegalArgumentException(
+                        "Storage " + basePath + " has " + created + " shards, not " + shardsCount);
+            }
+            return;
+        }
+
+        Files.createDirectories(basePath);
+        Files.writeString(path, Integer.toString(shardsCount));
+    }
+
+    private void closeOpened(int opened, RuntimeException failure) {
+        for (int i = 0; i < opened; i++) {
+            try {
+                shards[i].close();
+            } catch (IOException e) {
+                failure.addSuppressed(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package ru.axothy.storage;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free bump allocator taking memory from an automatic arena in fixed-size slabs. Memory stays valid while any
+ * segment allocated from it is reachable and is freed with the last of them, so entries read from a memtable outlive
+ * its flush safely.
+ */
+final class SlabAllocator {
+
+    static final long SLAB_SIZE = 256 << 10;
+
+    /**
+     * Larger segments get a memory block of their own instead of wasting the rest of a slab.
+     */
+    private static final long MAX_SLAB_ALLOCATION = SLAB_SIZE / 8;
+
+    private final Arena arena = Arena.ofAuto();
+
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    private volatile Slab slab;
+
+    MemorySegment copyOf(MemorySegment segment) {
+        MemorySegment copy = allocate(segment.byteSize());
+        MemorySegment.copy(segment, 0, copy, 0, segment.byteSize());
+        return copy;
+    }
+
+    /**
+     * @return bytes handed out, including the unused ends of filled slabs
+     */
+    long allocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    private MemorySegment allocate(long size) {
+        if (size > MAX_SLAB_ALLOCATION) {
+            allocatedBytes.addAndGet(size);
+            return arena.allocate(size);
+        }
+
+        while (true) {
+            Slab current = slab;
+            if (current != null) {
+                long offset = current.offset.get();
+                if (offset + size <= SLAB_SIZE) {
+                    if (current.offset.compareAndSet(offset, offset + size)) {
+                        allocatedBytes.addAndGet(size);
+                        return current.segment.asSlice(offset, size);
+                    }
+                    continue;
+                }
+            }
+            replace(current);
+        }
+    }
+
+    private synchronized void replace(Slab full) {
+        if (slab != full) {
+            return;
+        }
+        if (full != null) {
+            // Closes the slab for allocations, its free end is accounted as used
+            allocatedBytes.addAndGet(SLAB_SIZE - full.offset.getAndSet(SLAB_SIZE));
+        }
+        slab = new Slab(arena.allocate(SLAB_SIZE));
+    }
+
+    private static final class Slab {
+        private final MemorySegment segment;
+        private final AtomicLong offset = new AtomicLong();
+
+        private Slab(MemorySegment segment) {
+            this.segment = segment;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package ru.axothy.storage;
+
+import ru.axothy.api.Entry;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Point-in-time view of {@link LSMStorage}. Reads through the snapshot see every write completed before it was taken
+ * and none of the later ones, while writes, flushes and compactions go on.
+ * <p>
+ * The snapshot pins memtables and tables of the storage state it was taken from. Memtables keep versions replaced
+ * after the snapshot until it is closed, replaced tables stay mapped, so compaction never takes data from under it.
+ * A snapshot has to be closed before the storage.
+ */
+public final class Snapshot implements AutoCloseable {
+
+    private final LSMStorage storage;
+
+    private final StorageState state;
+
+    private final long sequence;
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    Snapshot(LSMStorage storage, StorageState state, long sequence) {
+        this.storage = storage;
+        this.state = state;
+        this.sequence = sequence;
+    }
+
+    public Entry<MemorySegment> get(MemorySegment key) {
+        checkOpen();
+        return storage.lookup(key, state, sequence);
+    }
+
+    /**
+     * @return live entries with keys in {@code [from; to)} as of the snapshot, {@code null} bound is unbounded
+     */
+    public Iterator<Entry<MemorySegment>> get(MemorySegment from, MemorySegment to) {
+        checkOpen();
+        return storage.get(state, from, to, sequence);
+    }
+
+    public Iterator<Entry<MemorySegment>> all() {
+        return get(null, null);
+    }
+
+    /**
+     * @return sequence number of the last write visible through the snapshot
+     */
+    public long sequence() {
+        return sequence;
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            storage.release(this);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed.get()) {
+            throw new IllegalStateException("Snapshot is closed");
+        }
+    }
+}
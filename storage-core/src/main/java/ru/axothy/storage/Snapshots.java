@@ -0,0 +1,37 @@
+package ru.axothy.storage;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Sequence numbers of live snapshots, counted as several snapshots may share a sequence number.
+ */
+final class Snapshots {
+
+    static final Snapshots NONE = new Snapshots();
+
+    private final ConcurrentSkipListMap<Long, Integer> sequences = new ConcurrentSkipListMap<>();
+
+    void register(long sequence) {
+        sequences.merge(sequence, 1, Integer::sum);
+    }
+
+    void release(long sequence) {
+        sequences.merge(sequence, -1, (count, released) -> count + released == 0 ? null : count + released);
+    }
+
+    boolean isEmpty() {
+        return sequences.isEmpty();
+    }
+
+    /**
+     * Checks whether some snapshot reads the version written at {@code sequence} and replaced at {@code replacedAt}.
+     */
+    boolean reads(long sequence, long replacedAt) {
+        if (sequences.isEmpty()) {
+            return false;
+        }
+        Map.Entry<Long, Integer> snapshot = sequences.ceilingEntry(sequence);
+        return snapshot != null && snapshot.getKey() < replacedAt;
+    }
+}
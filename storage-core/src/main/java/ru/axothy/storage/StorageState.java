@@ -1,63 +1,100 @@
 package ru.axothy.storage;
 
-import ru.axothy.api.Entry;
-
-import java.lang.foreign.MemorySegment;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.SortedMap;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.Set;
 
 public final class StorageState {
-    private static final Comparator<MemorySegment> comparator = LSMStorage::comparator;
-    private final SortedMap<MemorySegment, Entry<MemorySegment>> readEntries;
-    private final SortedMap<MemorySegment, Entry<MemorySegment>> writeEntries;
-    private final List<MemorySegment> sstables;
 
-    private StorageState(SortedMap<MemorySegment, Entry<MemorySegment>> readEntries, SortedMap<MemorySegment, Entry<MemorySegment>> writeEntries, List<MemorySegment> segments) {
-        this.readEntries = readEntries;
-        this.writeEntries = writeEntries;
-        this.sstables = segments;
-    }
+    /**
+     * Read priority order of tables: level 0 keeps its order (newest first), deeper levels are sorted by key range.
+     */
+    private static final Comparator<SSTable> levelComparator = (table1, table2) -> {
+        if (table1.level() != table2.level()) {
+            return Integer.compare(table1.level(), table2.level());
+        }
+        if (table1.level() == 0) {
+            return 0;
+        }
+        return LSMStorage.comparator(table1.minKey(), table2.minKey());
+    };
 
-    private static SortedMap<MemorySegment, Entry<MemorySegment>> createMap() {
-        return new ConcurrentSkipListMap<>(comparator);
+    private final Memtable active;
+    private final List<Memtable> immutables;
+    private final List<SSTable> sstables;
+
+    private StorageState(Memtable active, List<Memtable> immutables, List<SSTable> sstables) {
+        this.active = active;
+        this.immutables = immutables;
+        this.sstables = sstables;
     }
 
-    public static StorageState initial(List<MemorySegment> segments) {
-        return new StorageState(createMap(), createMap(), segments);
+    public static StorageState initial(List<SSTable> sstables) {
+        return new StorageState(new Memtable(), List.of(), sstables);
     }
 
-    public StorageState compact(MemorySegment compacted) {
-        return new StorageState(
-                readEntries,
-                writeEntries,
-                compacted == null ? Collections.emptyList() : Collections.singletonList(compacted));
+    /**
+     * Replaces compacted tables with compaction outputs. Outputs take the place of the first input, so tables
+     * newer than the inputs keep priority over them.
+     */
+    public StorageState compact(Set<SSTable> compacted, List<SSTable> outputs) {
+        List<SSTable> tables = new ArrayList<>(this.sstables.size() - compacted.size() + outputs.size());
+
+        boolean inserted = false;
+        for (SSTable table : this.sstables) {
+            if (!compacted.contains(table)) {
+                tables.add(table);
+            } else if (!inserted) {
+                tables.addAll(outputs);
+                inserted = true;
+            }
+        }
+        if (!inserted) {
+            tables.addAll(outputs);
+        }
+        tables.sort(levelComparator);
+
+        return new StorageState(active, immutables, tables);
     }
 
-    public StorageState beforeFlush() {
-        return new StorageState(writeEntries, createMap(), sstables);
+    /**
+     * Moves active memtable to the head of the flush queue and starts a new one.
+     */
+    public StorageState seal() {
+        List<Memtable> queue = new ArrayList<>(immutables.size() + 1);
+        queue.add(active);
+        queue.addAll(immutables);
+
+        return new StorageState(new Memtable(), List.copyOf(queue), sstables);
     }
 
-    public StorageState afterFlush(MemorySegment newPage) {
-        List<MemorySegment> segments = new ArrayList<>(this.sstables.size() + 1);
-        segments.addAll(this.sstables);
-        segments.add(newPage);
+    /**
+     * Replaces flushed memtable with the table it was written to.
+     */
+    public StorageState afterFlush(Memtable flushed, SSTable newTable) {
+        List<Memtable> queue = new ArrayList<>(immutables);
+        queue.remove(flushed);
+
+        List<SSTable> tables = new ArrayList<>(this.sstables.size() + 1);
+        tables.add(newTable);
+        tables.addAll(this.sstables);
 
-        return new StorageState(createMap(), writeEntries, segments);
+        return new StorageState(active, List.copyOf(queue), tables);
     }
 
-    public SortedMap<MemorySegment, Entry<MemorySegment>> getReadEntries() {
-        return readEntries;
+    public Memtable getActive() {
+        return active;
     }
 
-    public SortedMap<MemorySegment, Entry<MemorySegment>> getWriteEntries() {
-        return writeEntries;
+    /**
+     * @return sealed memtables waiting for flush, newest first
+     */
+    public List<Memtable> getImmutables() {
+        return immutables;
     }
 
-    public List<MemorySegment> getSstables() {
+    public List<SSTable> getSstables() {
         return sstables;
     }
 }
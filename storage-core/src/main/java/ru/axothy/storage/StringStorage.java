@@ -32,10 +32,7 @@ public class StringStorage<D, E extends Entry<D>> implements Storage<String, Ent
         if (result == null) {
             return null;
         }
-        return new BaseEntry<>(
-                factory.toString(result.key()),
-                factory.toString(result.value())
-        );
+        return entry(factory.toString(result.key()), factory.toString(result.value()), result.expiresAt());
     }
 
     @Override
@@ -55,20 +52,28 @@ public class StringStorage<D, E extends Entry<D>> implements Storage<String, Ent
                 E next = iterator.next();
                 String key = factory.toString(next.key());
                 String value = factory.toString(next.value());
-                return new BaseEntry<>(key, value);
+                return entry(key, value, next.expiresAt());
             }
         };
     }
 
     @Override
     public void upsert(Entry<String> entry) {
-        BaseEntry<D> e = new BaseEntry<>(
-                factory.fromString(entry.key()),
-                factory.fromString(entry.value())
-        );
+        Entry<D> e = entry(factory.fromString(entry.key()), factory.fromString(entry.value()), entry.expiresAt());
         delegate.upsert(factory.fromBaseEntry(e));
     }
 
+    private static <T> Entry<T> entry(T key, T value, long expiresAt) {
+        return expiresAt == Entry.NEVER_EXPIRES
+                ? new BaseEntry<>(key, value)
+                : new ExpiringEntry<>(key, value, expiresAt);
+    }
+
+    @Override
+    public void deleteRange(String from, String to) {
+        delegate.deleteRange(factory.fromString(from), factory.fromString(to));
+    }
+
     @Override
     public void flush() throws IOException {
         delegate.flush();
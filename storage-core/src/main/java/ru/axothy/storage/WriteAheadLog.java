@@ -0,0 +1,557 @@
+package ru.axothy.storage;
+
+import ru.axothy.api.Entry;
+import ru.axothy.config.Config;
+import ru.axothy.config.WalSyncMode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static ru.axothy.storage.SSTableUtils.TOMBSTONE;
+
+/**
+ * Append-only log of memtable updates.
+ * <p>
+ * Record layout: {@code [int payloadSize][int crc32(payload)][payload]}, where payload is encoded the same way as
+ * SSTable entries: {@code [long keySize][key][long valueSize | TOMBSTONE][value]}. A range deletion is stored as
+ * {@code [long fromSize][from][RANGE_TOMBSTONE][long toSize][to]}, a value with expiration time as
+ * {@code [long keySize][key][EXPIRING_VALUE][long valueSize][value][long expiresAt]}. A {@link WriteBatch} is
+ * a single record holding payloads of all of its updates, so it is replayed either completely or not at all.
+ * <p>
+ * Concurrent appends are grouped: the first writer that finds no write in progress becomes the leader, takes every
+ * pending record and writes them with a single gathering write (plus a single fsync in {@link WalSyncMode#BATCH}
+ * mode), the rest of the writers wait for their batch to be written.
+ */
+public final class WriteAheadLog implements Closeable {
+
+    private static final String WAL_NAME = "wal_";
+
+    private static final String WAL_EXTENSION = ".log";
+
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+
+    private static final long RANGE_TOMBSTONE = -2;
+
+    private static final long EXPIRING_VALUE = -3;
+
+    /**
+     * Stored in place of the key size of the first update.
+     */
+    private static final long BATCH = -4;
+
+    private final Path basePath;
+
+    private final WalSyncMode syncMode;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition batchWritten = lock.newCondition();
+
+    private final ScheduledExecutorService syncExecutor;
+
+    private final List<Path> sealedSegments = new ArrayList<>();
+
+    private List<ByteBuffer> pending = new ArrayList<>();
+
+    private long appended;
+
+    private long written;
+
+    private boolean writing;
+
+    private IOException failure;
+
+    private long segmentId;
+
+    private Path segmentPath;
+
+    private FileChannel channel;
+
+    private WriteAheadLog(Config config, List<Path> recoveredSegments, long segmentId) throws IOException {
+        this.basePath = config.basePath();
+        this.syncMode = config.walSyncMode();
+        this.sealedSegments.addAll(recoveredSegments);
+        this.segmentId = segmentId;
+        openSegment();
+
+        if (syncMode == WalSyncMode.PERIODIC) {
+            syncExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "wal-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncExecutor.scheduleWithFixedDelay(
+                    this::sync,
+                    config.walSyncIntervalMillis(),
+                    config.walSyncIntervalMillis(),
+                    TimeUnit.MILLISECONDS);
+        } else {
+            syncExecutor = null;
+        }
+    }
+
+    /**
+     * Replays every log segment found in {@link Config#basePath()} into {@code consumer} and {@code rangeDeletions}
+     * (oldest segment first) and opens a new segment for appends. Replayed segments stay on disk until
+     * the next {@link #rotate()}.
+     */
+    public static WriteAheadLog open(Config config, Consumer<Entry<MemorySegment>> consumer,
+                                     BiConsumer<MemorySegment, MemorySegment> rangeDeletions) {
+        try {
+            Files.createDirectories(config.basePath());
+
+            List<Path> segments = listSegments(config.basePath());
+            long replayed = 0;
+            for (Path segment : segments) {
+                replayed += replay(segment, consumer, rangeDeletions);
+            }
+
+            long nextId = segments.isEmpty() ? 0 : parseSegmentId(segments.getLast()) + 1;
+            if (replayed == 0) {
+                for (Path segment : segments) {
+                    Files.delete(segment);
+                }
+                segments = List.of();
+            }
+
+            return new WriteAheadLog(config, segments, nextId);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static List<Path> listSegments(Path basePath) throws IOException {
+        try (Stream<Path> stream = Files.list(basePath)) {
+            return stream
+                    .filter(path -> {
+                        String name = path.getFileName().toString();
+                        return name.startsWith(WAL_NAME) && name.endsWith(WAL_EXTENSION);
+                    })
+                    .sorted(Comparator.comparingLong(WriteAheadLog::parseSegmentId))
+                    .toList();
+        }
+    }
+
+    private static long parseSegmentId(Path path) {
+        String fileName = path.getFileName().toString();
+        return Long.parseLong(fileName.substring(WAL_NAME.length(), fileName.length() - WAL_EXTENSION.length()));
+    }
+
+    private static long replay(Path segment, Consumer<Entry<MemorySegment>> consumer,
+                               BiConsumer<MemorySegment, MemorySegment> rangeDeletions) throws IOException {
+        long count = 0;
+
+        try (Arena arena = Arena.ofConfined();
+             FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            MemorySegment log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+            CRC32 crc = new CRC32();
+
+            long offset = 0;
+            while (offset + RECORD_HEADER_SIZE <= log.byteSize()) {
+                int payloadSize = log.get(ValueLayout.JAVA_INT_UNALIGNED, offset);
+                int checksum = log.get(ValueLayout.JAVA_INT_UNALIGNED, offset + Integer.BYTES);
+                long payloadOffset = offset + RECORD_HEADER_SIZE;
+
+                //torn write at the tail of the segment
+                if (payloadSize <= 0 || payloadOffset + payloadSize > log.byteSize()) {
+                    break;
+                }
+
+                MemorySegment payload = log.asSlice(payloadOffset, payloadSize);
+                crc.reset();
+                crc.update(payload.asByteBuffer());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                if (payload.get(ValueLayout.JAVA_LONG_UNALIGNED, 0) == BATCH) {
+                    long updates = payload.get(ValueLayout.JAVA_LONG_UNALIGNED, Long.BYTES);
+                    long updateOffset = 2L * Long.BYTES;
+                    for (long i = 0; i < updates; i++) {
+                        long updateSize = payload.get(ValueLayout.JAVA_LONG_UNALIGNED, updateOffset);
+                        replay(payload.asSlice(updateOffset + Long.BYTES, updateSize), consumer, rangeDeletions);
+                        updateOffset += Long.BYTES + updateSize;
+                    }
+                } else {
+                    replay(payload, consumer, rangeDeletions);
+                }
+                offset = payloadOffset + payloadSize;
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    private static void replay(MemorySegment payload, Consumer<Entry<MemorySegment>> consumer,
+                               BiConsumer<MemorySegment, MemorySegment> rangeDeletions) {
+        if (isRangeDeletion(payload)) {
+            long fromSize = payload.get(ValueLayout.JAVA_LONG_UNALIGNED, 0);
+            long toSizeOffset = 2L * Long.BYTES + fromSize;
+            rangeDeletions.accept(
+                    copyOf(payload.asSlice(Long.BYTES, fromSize)),
+                    copyOf(payload.asSlice(toSizeOffset + Long.BYTES,
+                            payload.get(ValueLayout.JAVA_LONG_UNALIGNED, toSizeOffset))));
+        } else {
+            consumer.accept(decode(payload));
+        }
+    }
+
+    private static boolean isRangeDeletion(MemorySegment payload) {
+        long keySize = payload.get(ValueLayout.JAVA_LONG_UNALIGNED, 0);
+        return payload.get(ValueLayout.JAVA_LONG_UNALIGNED, Long.BYTES + keySize) == RANGE_TOMBSTONE;
+    }
+
+    private static Entry<MemorySegment> decode(MemorySegment payload) {
+        long keySize = payload.get(ValueLayout.JAVA_LONG_UNALIGNED, 0);
+        MemorySegment key = copyOf(payload.asSlice(Long.BYTES, keySize));
+
+        long valueSizeOffset = Long.BYTES + keySize;
+        long valueSize = payload.get(ValueLayout.JAVA_LONG_UNALIGNED, valueSizeOffset);
+        if (valueSize == TOMBSTONE) {
+            return new BaseEntry<>(key, null);
+        }
+        if (valueSize == EXPIRING_VALUE) {
+            long valueOffset = valueSizeOffset + 2L * Long.BYTES;
+            long size = payload.get(ValueLayout.JAVA_LONG_UNALIGNED, valueOffset - Long.BYTES);
+            return new ExpiringEntry<>(key, copyOf(payload.asSlice(valueOffset, size)),
+                    payload.get(ValueLayout.JAVA_LONG_UNALIGNED, valueOffset + size));
+        }
+
+        return new BaseEntry<>(key, copyOf(payload.asSlice(valueSizeOffset + Long.BYTES, valueSize)));
+    }
+
+    private static MemorySegment copyOf(MemorySegment segment) {
+        return MemorySegment.ofArray(segment.toArray(ValueLayout.JAVA_BYTE));
+    }
+
+    private static ByteBuffer encode(Entry<MemorySegment> entry) {
+        long valueSize = valueSizeOf(entry);
+        byte[] record = newRecord(payloadSize(entry.key(), valueSize, entry.value()));
+        encode(MemorySegment.ofArray(record), RECORD_HEADER_SIZE,
+                entry.key(), valueSize, entry.value(), entry.expiresAt());
+        return seal(record);
+    }
+
+    private static ByteBuffer encodeRangeDeletion(MemorySegment from, MemorySegment to) {
+        byte[] record = newRecord(payloadSize(from, RANGE_TOMBSTONE, to));
+        encode(MemorySegment.ofArray(record), RECORD_HEADER_SIZE, from, RANGE_TOMBSTONE, to, Entry.NEVER_EXPIRES);
+        return seal(record);
+    }
+
+    /**
+     * Encodes batch updates as {@code [BATCH][long count]} followed by {@code [long payloadSize][payload]} of each.
+     */
+    private static ByteBuffer encode(WriteBatch batch) {
+        long payloadSize = 2L * Long.BYTES;
+        for (WriteBatch.Operation operation : batch.operations()) {
+            Entry<MemorySegment> entry = operation.entry();
+            payloadSize += Long.BYTES + (operation.isRangeDeletion()
+                    ? payloadSize(entry.key(), RANGE_TOMBSTONE, operation.rangeEnd())
+                    : payloadSize(entry.key(), valueSizeOf(entry), entry.value()));
+        }
+
+        byte[] record = newRecord(payloadSize);
+        MemorySegment dst = MemorySegment.ofArray(record);
+        dst.set(ValueLayout.JAVA_LONG_UNALIGNED, RECORD_HEADER_SIZE, BATCH);
+        dst.set(ValueLayout.JAVA_LONG_UNALIGNED, RECORD_HEADER_SIZE + Long.BYTES, batch.size());
+        long offset = RECORD_HEADER_SIZE + 2L * Long.BYTES;
+        for (WriteBatch.Operation operation : batch.operations()) {
+            Entry<MemorySegment> entry = operation.entry();
+            long updateOffset = offset + Long.BYTES;
+            offset = operation.isRangeDeletion()
+                    ? encode(dst, updateOffset, entry.key(), RANGE_TOMBSTONE, operation.rangeEnd(), Entry.NEVER_EXPIRES)
+                    : encode(dst, updateOffset, entry.key(), valueSizeOf(entry), entry.value(), entry.expiresAt());
+            dst.set(ValueLayout.JAVA_LONG_UNALIGNED, updateOffset - Long.BYTES, offset - updateOffset);
+        }
+        return seal(record);
+    }
+
+    private static long valueSizeOf(Entry<MemorySegment> entry) {
+        MemorySegment value = entry.value();
+        if (value == null) {
+            return TOMBSTONE;
+        }
+        return entry.expiresAt() == Entry.NEVER_EXPIRES ? value.byteSize() : EXPIRING_VALUE;
+    }
+
+    /**
+     * @param valueSize size of {@code value} written with it or a marker written in place of the size,
+     * markers followed by a value are followed by its size
+     */
+    private static long payloadSize(MemorySegment key, long valueSize, MemorySegment value) {
+        boolean sizedMarker = valueSize == RANGE_TOMBSTONE || valueSize == EXPIRING_VALUE;
+        return 2L * Long.BYTES + key.byteSize() + (value == null ? 0 : value.byteSize())
+                + (sizedMarker ? Long.BYTES : 0) + (valueSize == EXPIRING_VALUE ? Long.BYTES : 0);
+    }
+
+    /**
+     * Writes payload of a single update at {@code offset}.
+     *
+     * @return offset following the payload
+     */
+    private static long encode(MemorySegment dst, long offset, MemorySegment key, long valueSize, MemorySegment value,
+                               long expiresAt) {
+        dst.set(ValueLayout.JAVA_LONG_UNALIGNED, offset, key.byteSize());
+        offset += Long.BYTES;
+        MemorySegment.copy(key, 0, dst, offset, key.byteSize());
+        offset += key.byteSize();
+        dst.set(ValueLayout.JAVA_LONG_UNALIGNED, offset, valueSize);
+        offset += Long.BYTES;
+        if (valueSize == RANGE_TOMBSTONE || valueSize == EXPIRING_VALUE) {
+            dst.set(ValueLayout.JAVA_LONG_UNALIGNED, offset, value.byteSize());
+            offset += Long.BYTES;
+        }
+        if (value != null) {
+            MemorySegment.copy(value, 0, dst, offset, value.byteSize());
+            offset += value.byteSize();
+        }
+        if (valueSize == EXPIRING_VALUE) {
+            dst.set(ValueLayout.JAVA_LONG_UNALIGNED, offset, expiresAt);
+            offset += Long.BYTES;
+        }
+        return offset;
+    }
+
+    private static byte[] newRecord(long payloadSize) {
+        if (payloadSize > Integer.MAX_VALUE - RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Record is too large for the write-ahead log: " + payloadSize);
+        }
+        return new byte[RECORD_HEADER_SIZE + (int) payloadSize];
+    }
+
+    /**
+     * Fills the record header in.
+     */
+    private static ByteBuffer seal(byte[] record) {
+        int payloadSize = record.length - RECORD_HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        crc.update(record, RECORD_HEADER_SIZE, payloadSize);
+
+        MemorySegment dst = MemorySegment.ofArray(record);
+        dst.set(ValueLayout.JAVA_INT_UNALIGNED, 0, payloadSize);
+        dst.set(ValueLayout.JAVA_INT_UNALIGNED, Integer.BYTES, (int) crc.getValue());
+        return ByteBuffer.wrap(record);
+    }
+
+    /**
+     * Appends entry to the log and returns once the batch containing it is written
+     * (and forced to disk in {@link WalSyncMode#BATCH} mode).
+     *
+     * @param sequencer called under the log lock, so the updates get sequence numbers in the order of the log
+     * @return sequence number of the update
+     */
+    public long append(Entry<MemorySegment> entry, LongSupplier sequencer) {
+        return append(encode(entry), sequencer);
+    }
+
+    /**
+     * Appends deletion of keys in {@code [from; to)}, see {@link #append(Entry, LongSupplier)}.
+     */
+    public long appendRangeDeletion(MemorySegment from, MemorySegment to, LongSupplier sequencer) {
+        return append(encodeRangeDeletion(from, to), sequencer);
+    }
+
+    /**
+     * Appends every update of {@code batch} as a single record, see {@link #append(Entry, LongSupplier)}.
+     */
+    public long append(WriteBatch batch, LongSupplier sequencer) {
+        return append(encode(batch), sequencer);
+    }
+
+    private long append(ByteBuffer record, LongSupplier sequencer) {
+        lock.lock();
+        try {
+            checkFailure();
+            pending.add(record);
+            long ticket = ++appended;
+            long sequence = sequencer.getAsLong();
+
+            while (written < ticket) {
+                if (writing) {
+                    batchWritten.awaitUninterruptibly();
+                } else {
+                    writeBatch();
+                }
+            }
+
+            checkFailure();
+            return sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Must be called with {@link #lock} held, releases it for the duration of the write.
+     */
+    private void writeBatch() {
+        List<ByteBuffer> batch = pending;
+        long batchEnd = appended;
+        FileChannel target = channel;
+        pending = new ArrayList<>();
+        writing = true;
+
+        IOException error = null;
+        lock.unlock();
+        try {
+            ByteBuffer[] buffers = batch.toArray(new ByteBuffer[0]);
+            long remaining = 0;
+            for (ByteBuffer buffer : buffers) {
+                remaining += buffer.remaining();
+            }
+            while (remaining > 0) {
+                remaining -= target.write(buffers);
+            }
+
+            if (syncMode == WalSyncMode.BATCH) {
+                target.force(false);
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            lock.lock();
+            if (error != null && failure == null) {
+                failure = error;
+            }
+            writing = false;
+            written = batchEnd;
+            batchWritten.signalAll();
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new UncheckedIOException("Write-ahead log is broken", failure);
+        }
+    }
+
+    private void sync() {
+        FileChannel target;
+        lock.lock();
+        try {
+            target = channel;
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            target.force(false);
+        } catch (ClosedChannelException e) {
+            //segment was rotated concurrently, it is forced on rotation
+        } catch (IOException e) {
+            lock.lock();
+            try {
+                if (failure == null) {
+                    failure = e;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Seals current segment and starts a new one. Must be called when no appends are in progress
+     * (e.g. under the memtable swap lock).
+     * @return sealed segments (including recovered ones) which can be deleted once the memtable they belong to
+     * is persisted
+     */
+    public List<Path> rotate() {
+        lock.lock();
+        try {
+            checkFailure();
+            // The next segment is opened first, the current one keeps taking appends if it cannot be
+            Path nextPath = segmentPath(segmentId + 1);
+            FileChannel next = openSegment(nextPath);
+            if (syncMode != WalSyncMode.NONE) {
+                channel.force(false);
+            }
+            channel.close();
+            sealedSegments.add(segmentPath);
+
+            segmentId++;
+            segmentPath = nextPath;
+            channel = next;
+
+            List<Path> sealed = List.copyOf(sealedSegments);
+            sealedSegments.clear();
+            return sealed;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public static void delete(List<Path> segments) throws IOException {
+        for (Path segment : segments) {
+            Files.deleteIfExists(segment);
+        }
+    }
+
+    private void openSegment() throws IOException {
+        segmentPath = segmentPath(segmentId);
+        channel = openSegment(segmentPath);
+    }
+
+    private Path segmentPath(long id) {
+        return basePath.resolve(WAL_NAME + id + WAL_EXTENSION);
+    }
+
+    private static FileChannel openSegment(Path path) throws IOException {
+        return FileChannel.open(path,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (syncExecutor != null) {
+            syncExecutor.shutdownNow();
+        }
+
+        lock.lock();
+        try {
+            if (!channel.isOpen()) {
+                return;
+            }
+
+            boolean empty = channel.size() == 0;
+            if (syncMode != WalSyncMode.NONE) {
+                channel.force(false);
+            }
+            channel.close();
+
+            if (empty) {
+                Files.delete(segmentPath);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
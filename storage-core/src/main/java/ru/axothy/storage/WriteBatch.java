@@ -0,0 +1,88 @@
+package ru.axothy.storage;
+
+import ru.axothy.api.Entry;
+
+import java.lang.foreign.MemorySegment;
+import java.util.ArrayList;
+import java.util.List;
+
+import static ru.axothy.storage.SSTableUtils.sizeOf;
+
+/**
+ * Updates applied by {@link LSMStorage#write(WriteBatch)} in the order they were added, as a single write-ahead log
+ * record into a single memtable. A batch is recovered either completely or not at all and is never split by a flush.
+ * Readers may observe a batch being applied.
+ * <p>
+ * Not thread-safe, a batch can be reused after {@link #clear()}.
+ */
+public final class WriteBatch {
+
+    /**
+     * Upsert of {@code entry} or, if {@code rangeEnd} is set, deletion of keys in {@code [entry.key(); rangeEnd)}.
+     */
+    record Operation(Entry<MemorySegment> entry, MemorySegment rangeEnd) {
+        boolean isRangeDeletion() {
+            return rangeEnd != null;
+        }
+    }
+
+    private final List<Operation> operations = new ArrayList<>();
+
+    private long byteSize;
+
+    private int rangeDeletions;
+
+    public WriteBatch upsert(Entry<MemorySegment> entry) {
+        operations.add(new Operation(entry, null));
+        byteSize += sizeOf(entry);
+        return this;
+    }
+
+    public WriteBatch delete(MemorySegment key) {
+        return upsert(new BaseEntry<>(key, null));
+    }
+
+    /**
+     * Deletes keys in {@code [from; to)}, see {@link LSMStorage#deleteRange(MemorySegment, MemorySegment)}.
+     */
+    public WriteBatch deleteRange(MemorySegment from, MemorySegment to) {
+        if (from == null || to == null) {
+            throw new IllegalArgumentException("Range bounds are required");
+        }
+        if (LSMStorage.comparator(from, to) < 0) {
+            operations.add(new Operation(new BaseEntry<>(from, null), to));
+            byteSize += from.byteSize() + to.byteSize();
+            rangeDeletions++;
+        }
+        return this;
+    }
+
+    public int size() {
+        return operations.size();
+    }
+
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    /**
+     * @return bytes of keys and values in the batch
+     */
+    public long byteSize() {
+        return byteSize;
+    }
+
+    public void clear() {
+        operations.clear();
+        byteSize = 0;
+        rangeDeletions = 0;
+    }
+
+    boolean hasRangeDeletions() {
+        return rangeDeletions > 0;
+    }
+
+    List<Operation> operations() {
+        return operations;
+    }
+}
@@ -0,0 +1,110 @@
+package ru.axothy.storage;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+/**
+ * Backpressure for writers when flushes fall behind.
+ * <p>
+ * Below {@code slowdownTrigger} queued memtables writes are not delayed. From there on writes are paced
+ * to {@code delayedWriteRate} bytes per second, halved for every further queued memtable, and once
+ * {@code stopTrigger} memtables are queued writers wait until a flush completes. If the last flush failed, they fail
+ * instead of waiting for a flush that is not going to happen.
+ */
+final class WriteController {
+
+    static final long DEFAULT_DELAYED_WRITE_RATE = 16L << 20;
+
+    /**
+     * Delays shorter than this are accumulated instead of parking for each write.
+     */
+    private static final long MIN_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final long STALL_RECHECK_MILLIS = 100;
+
+    private final IntSupplier queuedMemtables;
+
+    private final int slowdownTrigger;
+
+    private final int stopTrigger;
+
+    private final long delayedWriteRate;
+
+    private final AtomicLong delayDebtNanos = new AtomicLong();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition flushed = lock.newCondition();
+
+    private volatile RuntimeException flushFailure;
+
+    WriteController(IntSupplier queuedMemtables, int maxImmutableMemtables, long delayedWriteRate) {
+        this.queuedMemtables = queuedMemtables;
+        this.stopTrigger = Math.max(1, maxImmutableMemtables);
+        this.slowdownTrigger = Math.max(1, stopTrigger / 2);
+        this.delayedWriteRate = delayedWriteRate;
+    }
+
+    /**
+     * Delays or blocks the caller according to the flush queue length before it writes {@code bytes}.
+     *
+     * @throws IllegalStateException if writes are stopped and the last flush failed
+     */
+    void beforeWrite(long bytes) {
+        int queued = queuedMemtables.getAsInt();
+        if (queued < slowdownTrigger) {
+            return;
+        }
+        if (queued >= stopTrigger) {
+            stall();
+            return;
+        }
+
+        long rate = Math.max(1, delayedWriteRate >> (queued - slowdownTrigger));
+        long debt = delayDebtNanos.addAndGet(bytes * TimeUnit.SECONDS.toNanos(1) / rate);
+        if (debt >= MIN_DELAY_NANOS && delayDebtNanos.compareAndSet(debt, 0)) {
+            LockSupport.parkNanos(debt);
+        }
+    }
+
+    void onFlushCompleted() {
+        lock.lock();
+        try {
+            flushFailure = null;
+            flushed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void onFlushFailed(RuntimeException failure) {
+        lock.lock();
+        try {
+            flushFailure = failure;
+            flushed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void stall() {
+        lock.lock();
+        try {
+            while (queuedMemtables.getAsInt() >= stopTrigger) {
+                RuntimeException failure = flushFailure;
+                if (failure != null) {
+                    throw new IllegalStateException("Writes are stopped, memtable flush failed", failure);
+                }
+                flushed.await(STALL_RECHECK_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -4,6 +4,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
 import ru.axothy.api.Entry;
 import ru.axothy.api.Storage;
+import ru.axothy.storage.StorageFactory;
 import utils.BaseTest;
 
 import java.util.List;
@@ -49,4 +50,18 @@ public class BasicConcurrentTest extends BaseTest {
         assertSame(storage.all(), entries);
     }
 
+    @Test
+    @Timeout(60)
+    void writersRaceWithMemtableSeals() throws Exception {
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage();
+
+        // Values cross the flush threshold every few dozen writes, writers keep entering memtables being sealed
+        int count = 2_000;
+        List<Entry<String>> entries = bigValues(count, 20_000);
+        runInParallel(16, count, value -> storage.upsert(entries.get(value))).close();
+        assertSame(storage.all(), entries);
+
+        Storage<String, Entry<String>> reopened = StorageFactory.reopen(storage);
+        assertSame(reopened.all(), entries);
+    }
 }
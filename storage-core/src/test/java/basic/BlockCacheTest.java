@@ -0,0 +1,101 @@
+package basic;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.axothy.api.Entry;
+import ru.axothy.api.Storage;
+import ru.axothy.storage.BlockCache;
+import ru.axothy.storage.BlockCacheStats;
+import ru.axothy.storage.StorageFactory;
+import utils.BaseTest;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Arrays;
+import java.util.List;
+
+public class BlockCacheTest extends BaseTest {
+
+    @Test
+    void hitsAndMisses() {
+        try (Arena arena = Arena.ofConfined()) {
+            BlockCache cache = new BlockCache(4L * BlockCache.FRAME_SIZE, arena);
+
+            Assertions.assertEquals(-1, cache.pin(1, 0));
+            int frame = cache.insert(1, 0, block(42, 100));
+            Assertions.assertEquals(100, cache.frame(frame).byteSize());
+            Assertions.assertEquals(42, cache.frame(frame).get(ValueLayout.JAVA_BYTE, 99));
+            cache.release(frame);
+
+            int hit = cache.pin(1, 0);
+            Assertions.assertEquals(frame, hit);
+            cache.release(hit);
+
+            Assertions.assertEquals(-1, cache.pin(2, 0));
+            Assertions.assertEquals(-1, cache.insert(1, 1, block(0, BlockCache.FRAME_SIZE + 1)));
+
+            BlockCacheStats stats = cache.stats();
+            Assertions.assertEquals(1, stats.hits());
+            Assertions.assertEquals(2, stats.misses());
+            Assertions.assertEquals(0, stats.evictions());
+        }
+    }
+
+    @Test
+    void referencedAndPinnedBlocksSurvive() {
+        try (Arena arena = Arena.ofConfined()) {
+            BlockCache cache = new BlockCache(4L * BlockCache.FRAME_SIZE, arena);
+
+            for (int block = 0; block < 4; block++) {
+                cache.release(cache.insert(1, block, block(block, 10)));
+            }
+            // Block 0 is hot, block 1 stays pinned
+            cache.release(cache.pin(1, 0));
+            int pinned = cache.pin(1, 1);
+
+            for (int block = 4; block < 6; block++) {
+                cache.release(cache.insert(1, block, block(block, 10)));
+            }
+
+            Assertions.assertEquals(2, cache.stats().evictions());
+            Assertions.assertEquals(pinned, cache.pin(1, 1));
+            Assertions.assertEquals(1, cache.frame(pinned).get(ValueLayout.JAVA_BYTE, 0));
+            cache.release(pinned);
+            cache.release(pinned);
+
+            int hot = cache.pin(1, 0);
+            Assertions.assertTrue(hot >= 0);
+            Assertions.assertEquals(0, cache.frame(hot).get(ValueLayout.JAVA_BYTE, 0));
+            cache.release(hot);
+
+            Assertions.assertEquals(-1, cache.pin(1, 2));
+            Assertions.assertEquals(-1, cache.pin(1, 3));
+        }
+    }
+
+    @Test
+    void concurrentGetsWithEvictions() throws Exception {
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage(
+                config -> config.withBlockCacheBytes(8L * BlockCache.FRAME_SIZE));
+
+        int count = 20_000;
+        List<Entry<String>> entries = entries(count);
+        entries.forEach(storage::upsert);
+        storage.close();
+
+        Storage<String, Entry<String>> reopened = StorageFactory.reopen(storage);
+        runInParallel(8, count, i -> {
+            int index = (int) ((i * 7919L) % count);
+            assertSame(reopened.get(keyAt(index)), entries.get(index));
+            assertSame(reopened.get(keyAt(index / 100)), entries.get(index / 100));
+        }).close();
+        assertSame(reopened.all(), entries);
+    }
+
+    private static MemorySegment block(int fill, int size) {
+        byte[] data = new byte[size];
+        Arrays.fill(data, (byte) fill);
+        return MemorySegment.ofArray(data);
+    }
+}
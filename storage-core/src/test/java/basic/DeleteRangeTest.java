@@ -0,0 +1,187 @@
+package basic;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import ru.axothy.api.Entry;
+import ru.axothy.api.Storage;
+import ru.axothy.config.CompactionStyle;
+import ru.axothy.storage.StorageFactory;
+import utils.BaseTest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DeleteRangeTest extends BaseTest {
+
+    @Test
+    void deleteRangeInMemory() throws IOException {
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage();
+        List<Entry<String>> entries = entries(100);
+        entries.forEach(storage::upsert);
+
+        storage.deleteRange(keyAt(10), keyAt(20));
+        assertSame(storage.all(), concat(entries.subList(0, 10), entries.subList(20, 100)));
+        assertNull(storage.get(keyAt(15)));
+        assertSame(storage.get(keyAt(20)), entries.get(20));
+
+        // Writes after the deletion are not affected by it
+        storage.upsert(entries.get(15));
+        assertSame(storage.get(keyAt(15)), entries.get(15));
+        assertSame(storage.get(keyAt(10), keyAt(20)), entries.get(15));
+    }
+
+    @Test
+    void deleteRangeOfFlushedData() throws IOException {
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage();
+        List<Entry<String>> entries = entries(1_000);
+        entries.forEach(storage::upsert);
+        storage.close();
+        storage = StorageFactory.reopen(storage);
+
+        // The range tombstone is the only thing the next table holds
+        storage.deleteRange(keyAt(100), keyAt(900));
+        assertNull(storage.get(keyAt(500)));
+        storage.close();
+        storage = StorageFactory.reopen(storage);
+
+        List<Entry<String>> expected = concat(entries.subList(0, 100), entries.subList(900, 1_000));
+        assertSame(storage.all(), expected);
+        assertNull(storage.get(keyAt(100)));
+        assertNull(storage.get(keyAt(899)));
+        assertSame(storage.get(keyAt(99)), entries.get(99));
+        assertSame(storage.get(keyAt(900)), entries.get(900));
+        assertEmpty(storage.get(keyAt(200), keyAt(300)));
+
+        storage.upsert(entries.get(500));
+        storage.compact();
+        storage.close();
+        storage = StorageFactory.reopen(storage);
+
+        expected = concat(entries.subList(0, 100), List.of(entries.get(500)));
+        assertSame(storage.all(), concat(expected, entries.subList(900, 1_000)));
+    }
+
+    @Test
+    void overlappingRangesAndPointTombstones() throws IOException {
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage();
+        List<Entry<String>> entries = entries(100);
+        entries.forEach(storage::upsert);
+        storage.close();
+        storage = StorageFactory.reopen(storage);
+
+        storage.deleteRange(keyAt(10), keyAt(30));
+        storage.upsert(entry(keyAt(40), null));
+        storage.deleteRange(keyAt(25), keyAt(45));
+        storage.deleteRange(keyAt(60), keyAt(50));
+        storage.close();
+        storage = StorageFactory.reopen(storage);
+
+        assertSame(storage.all(), concat(entries.subList(0, 10), entries.subList(45, 100)));
+    }
+
+    @Test
+    @Timeout(60)
+    void dropTenantWithCompaction() throws IOException {
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage(
+                config -> config.withCompactionStyle(CompactionStyle.MANUAL));
+
+        // Several tables hold both tenants
+        List<Entry<String>> kept = entries("a", "v", 2_000);
+        List<Entry<String>> dropped = entries("b", "v", 2_000);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 2_000; i++) {
+                storage.upsert(kept.get(i));
+                storage.upsert(dropped.get(i));
+            }
+            storage.flush();
+        }
+        storage.close();
+        storage = StorageFactory.reopen(storage);
+        long sizeBefore = sizePersistentData(storage);
+
+        storage.deleteRange("b", "c");
+        assertSame(storage.all(), kept);
+
+        storage.compact();
+        storage.close();
+        assertTrue(sizePersistentData(storage) < sizeBefore);
+
+        storage = StorageFactory.reopen(storage);
+        assertSame(storage.all(), kept);
+        assertEmpty(storage.get("b", "c"));
+        assertNull(storage.get(keyAt("b", 7)));
+    }
+
+    @Test
+    @Timeout(60)
+    void rangeDeletionsRaceWithUpserts() throws Exception {
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage();
+
+        // Every writer owns its keys, so only range deletions race with upserts of a key
+        int writers = 4;
+        int keys = 200;
+        runInParallel(writers, writers, task -> {
+            for (int round = 0; round < 50; round++) {
+                for (int i = task; i < keys; i += writers) {
+                    storage.upsert(entry(keyAt(i), valueAt(round)));
+                }
+            }
+        }, () -> {
+            for (int i = 0; i < 500; i++) {
+                storage.deleteRange(keyAt(i % keys), keyAt(i % keys + 20));
+            }
+        }).close();
+
+        // Recovery replays the log, it must end up with the entries the storage served
+        List<Entry<String>> served = list(storage.all());
+        Storage<String, Entry<String>> recovered = StorageFactory.reopen(storage);
+        assertSame(recovered.all(), served);
+    }
+
+    @Test
+    void defaultDeleteRangeUpsertsTombstones() throws IOException {
+        Storage<String, Entry<String>> storage = new MapStorage();
+        List<Entry<String>> entries = entries(100);
+        entries.forEach(storage::upsert);
+
+        storage.deleteRange(keyAt(10), keyAt(20));
+        assertSame(storage.all(), concat(entries.subList(0, 10), entries.subList(20, 100)));
+        assertNull(storage.get(keyAt(10)));
+    }
+
+    private static List<Entry<String>> concat(List<Entry<String>> first, List<Entry<String>> second) {
+        List<Entry<String>> result = new ArrayList<>(first);
+        result.addAll(second);
+        return result;
+    }
+
+    /**
+     * Storage relying on the default range deletion of {@link Storage}.
+     */
+    private static final class MapStorage implements Storage<String, Entry<String>> {
+        private final NavigableMap<String, Entry<String>> entries = new TreeMap<>();
+
+        @Override
+        public Iterator<Entry<String>> get(String from, String to) {
+            if (from == null) {
+                from = "";
+            }
+            return (to == null ? entries.tailMap(from) : entries.subMap(from, to)).values().iterator();
+        }
+
+        @Override
+        public void upsert(Entry<String> entry) {
+            if (entry.value() == null) {
+                entries.remove(entry.key());
+            } else {
+                entries.put(entry.key(), entry);
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package basic;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.axothy.api.Entry;
+import ru.axothy.api.Storage;
+import ru.axothy.config.Config;
+import ru.axothy.config.FilterType;
+import ru.axothy.storage.BlockedBloomFilter;
+import ru.axothy.storage.BloomFilter;
+import ru.axothy.storage.KeyFilter;
+import ru.axothy.storage.StorageFactory;
+import utils.BaseTest;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+public class FilterTest extends BaseTest {
+
+    private static final int KEYS = 10_000;
+
+    private static final int HASH_FUNCTIONS = 7;
+
+    @Test
+    void bloomFalsePositiveRate() {
+        long[] filter = new long[(int) BloomFilter.bloomFilterLength(KEYS, 0.01)];
+        long[] hash = new long[2];
+        for (int i = 0; i < KEYS; i++) {
+            BloomFilter.hash(key(i), hash);
+            BloomFilter.add(hash[0], hash[1], filter, HASH_FUNCTIONS);
+        }
+
+        MemorySegment segment = MemorySegment.ofArray(filter);
+        double rate = falsePositiveRate((h0, h1) ->
+                BloomFilter.mayContain(h0, h1, segment, 0, filter.length * (long) Long.SIZE, HASH_FUNCTIONS));
+        Assertions.assertTrue(rate < 0.02, "False positive rate " + rate);
+    }
+
+    @Test
+    void blockedBloomFalsePositiveRate() {
+        long[] filter = new long[(int) BlockedBloomFilter.filterLength(BloomFilter.bloomFilterLength(KEYS, 0.01))];
+        long[] hash = new long[2];
+        for (int i = 0; i < KEYS; i++) {
+            BloomFilter.hash(key(i), hash);
+            BlockedBloomFilter.add(hash[0], hash[1], filter, HASH_FUNCTIONS);
+        }
+
+        MemorySegment segment = MemorySegment.ofArray(filter);
+        double rate = falsePositiveRate((h0, h1) ->
+                BlockedBloomFilter.mayContain(h0, h1, segment, 0, filter.length, HASH_FUNCTIONS));
+        Assertions.assertTrue(rate < 0.03, "False positive rate " + rate);
+    }
+
+    @Test
+    void binaryFuseFalsePositiveRate() {
+        KeyFilter.Builder builder = KeyFilter.builder(FilterType.BINARY_FUSE, null);
+        long[] hash = new long[2];
+        for (int i = 0; i < KEYS; i++) {
+            BloomFilter.hash(key(i), hash);
+            builder.add(hash[0], hash[1]);
+        }
+
+        KeyFilter filter = KeyFilter.open(FilterType.BINARY_FUSE, builder.build(), 0, 0, 0);
+        double rate = falsePositiveRate(filter::mayContain);
+        Assertions.assertTrue(rate < 0.01, "False positive rate " + rate);
+    }
+
+    @Test
+    void tablesWithDifferentFilters() throws IOException {
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage(
+                config -> config.withFilterType(FilterType.BLOCKED_BLOOM));
+
+        List<Entry<String>> entries = entries(3_000);
+        for (int i = 0; i < entries.size(); i += 3) {
+            storage.upsert(entries.get(i));
+        }
+        storage.close();
+
+        // Storage with the default filter type writes classic bloom filters next to the blocked ones
+        Path basePath = StorageFactory.extractConfig(storage).basePath();
+        storage = BaseTest.getStringEntryStorage(config -> new Config(basePath,
+                config.flushThresholdBytes(),
+                config.bloomFilterFalsePositiveProbability(),
+                config.bloomFilterHashFunctionsCount()));
+        for (int i = 1; i < entries.size(); i += 3) {
+            storage.upsert(entries.get(i));
+        }
+        storage.close();
+
+        storage = BaseTest.getStringEntryStorage(config -> new Config(basePath,
+                config.flushThresholdBytes(),
+                config.bloomFilterFalsePositiveProbability(),
+                config.bloomFilterHashFunctionsCount()).withFilterType(FilterType.BINARY_FUSE));
+        for (int i = 2; i < entries.size(); i += 3) {
+            storage.upsert(entries.get(i));
+        }
+        storage.close();
+
+        storage = StorageFactory.reopen(storage);
+        for (int i = 0; i < entries.size(); i++) {
+            assertSame(storage.get(keyAt(i)), entries.get(i));
+            assertNull(storage.get(keyAt(i + entries.size())));
+        }
+        assertSame(storage.all(), entries);
+    }
+
+    private interface Probe {
+        boolean mayContain(long hashBase, long hashIncrement);
+    }
+
+    private static double falsePositiveRate(Probe probe) {
+        long[] hash = new long[2];
+        for (int i = 0; i < KEYS; i++) {
+            BloomFilter.hash(key(i), hash);
+            Assertions.assertTrue(probe.mayContain(hash[0], hash[1]), "False negative for key " + i);
+        }
+
+        int absent = 100_000;
+        int positives = 0;
+        for (int i = KEYS; i < KEYS + absent; i++) {
+            BloomFilter.hash(key(i), hash);
+            if (probe.mayContain(hash[0], hash[1])) {
+                positives++;
+            }
+        }
+        return (double) positives / absent;
+    }
+
+    private static MemorySegment key(int index) {
+        return MemorySegment.ofArray(("key" + index).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,56 @@
+package basic;
+
+import org.junit.jupiter.api.Test;
+import ru.axothy.api.Entry;
+import ru.axothy.api.Storage;
+import ru.axothy.storage.StorageFactory;
+import utils.BaseTest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class KeyRangeTest extends BaseTest {
+
+    private static final int TABLES = 5;
+
+    private static final int TABLE_KEYS = 100;
+
+    private static final int TABLE_STRIDE = 1_000;
+
+    @Test
+    void readsAcrossDisjointTables() throws IOException {
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage();
+
+        // Every table holds its own key range with gaps between the ranges, as time-ordered keys do
+        List<Entry<String>> entries = new ArrayList<>();
+        for (int table = 0; table < TABLES; table++) {
+            for (int i = 0; i < TABLE_KEYS; i++) {
+                Entry<String> entry = entryAt(table * TABLE_STRIDE + i);
+                entries.add(entry);
+                storage.upsert(entry);
+            }
+            storage.flush();
+        }
+        storage.close();
+
+        storage = StorageFactory.reopen(storage);
+        for (int table = 0; table < TABLES; table++) {
+            int first = table * TABLE_STRIDE;
+            assertSame(storage.get(keyAt(first)), entryAt(first));
+            assertSame(storage.get(keyAt(first + TABLE_KEYS - 1)), entryAt(first + TABLE_KEYS - 1));
+            assertNull(storage.get(keyAt(first + TABLE_KEYS)));
+            assertNull(storage.get(keyAt(first + TABLE_STRIDE - 1)));
+
+            // The upper bound is exclusive, so the range ends right before the next table
+            List<Entry<String>> tableEntries = entries.subList(table * TABLE_KEYS, (table + 1) * TABLE_KEYS);
+            assertSame(storage.get(keyAt(first), keyAt(first + TABLE_STRIDE)), tableEntries);
+            assertEmpty(storage.get(keyAt(first + TABLE_KEYS), keyAt(first + TABLE_STRIDE)));
+        }
+
+        int middle = 2 * TABLE_STRIDE + TABLE_KEYS / 2;
+        assertSame(storage.get(keyAt(middle), null), entries.subList(2 * TABLE_KEYS + TABLE_KEYS / 2, entries.size()));
+        assertSame(storage.get(null, keyAt(middle)), entries.subList(0, 2 * TABLE_KEYS + TABLE_KEYS / 2));
+        assertSame(storage.all(), entries);
+    }
+}
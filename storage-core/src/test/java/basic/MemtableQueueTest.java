@@ -0,0 +1,86 @@
+package basic;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import ru.axothy.api.Entry;
+import ru.axothy.api.Storage;
+import ru.axothy.storage.StorageFactory;
+import utils.BaseTest;
+
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class MemtableQueueTest extends BaseTest {
+
+    @Test
+    @Timeout(60)
+    void burstWithSingleQueuedMemtable() throws Exception {
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage(
+                config -> config.withMaxImmutableMemtables(1));
+
+        // Every writer crosses the flush threshold several times, so writers are stalled on the flush queue
+        int count = 400;
+        List<Entry<String>> entries = bigValues(count, 20_000);
+        runInParallel(8, count, i -> storage.upsert(entries.get(i))).close();
+
+        assertSame(storage.all(), entries);
+        for (int i = 0; i < count; i += 13) {
+            assertSame(storage.get(keyAt(i)), entries.get(i));
+        }
+
+        Storage<String, Entry<String>> reopened = StorageFactory.reopen(storage);
+        assertSame(reopened.all(), entries);
+    }
+
+    @Test
+    void readsSeeQueuedMemtables() throws Exception {
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage();
+
+        List<Entry<String>> entries = bigValues(100, 20_000);
+        for (Entry<String> entry : entries) {
+            storage.upsert(entry);
+            // Newer versions in later memtables must shadow older ones
+            storage.upsert(entry(entry.key(), "old"));
+            storage.upsert(entry);
+        }
+        storage.upsert(entry(keyAt(0), null));
+
+        assertSame(storage.all(), entries.subList(1, entries.size()));
+        assertNull(storage.get(keyAt(0)));
+        storage.close();
+
+        storage = StorageFactory.reopen(storage);
+        assertSame(storage.all(), entries.subList(1, entries.size()));
+    }
+
+    @Test
+    void sealRetriedAfterFailure() throws Exception {
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage();
+
+        // The next log segment cannot be created while a directory takes its name
+        Path nextLog = StorageFactory.extractConfig(storage).basePath().resolve("wal_1.log");
+        Files.createDirectory(nextLog);
+
+        List<Entry<String>> entries = bigValues(200, 20_000);
+        int failures = 0;
+        for (Entry<String> entry : entries.subList(0, 150)) {
+            try {
+                storage.upsert(entry);
+            } catch (UncheckedIOException e) {
+                failures++;
+            }
+        }
+        Assertions.assertTrue(failures > 0);
+
+        Files.delete(nextLog);
+        entries.subList(150, 200).forEach(storage::upsert);
+        Assertions.assertTrue(Files.isRegularFile(nextLog));
+
+        assertSame(storage.all(), entries);
+        Storage<String, Entry<String>> reopened = StorageFactory.reopen(storage);
+        assertSame(reopened.all(), entries);
+    }
+}
@@ -0,0 +1,51 @@
+package basic;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.axothy.api.Entry;
+import ru.axothy.storage.BaseEntry;
+import ru.axothy.storage.Memtable;
+import utils.BaseTest;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class MemtableTest extends BaseTest {
+
+    @Test
+    void entriesAreCopiedOffHeap() {
+        Memtable memtable = new Memtable();
+        byte[] key = "key".getBytes(StandardCharsets.UTF_8);
+        byte[] value = "value".getBytes(StandardCharsets.UTF_8);
+        memtable.upsert(new BaseEntry<>(MemorySegment.ofArray(key), MemorySegment.ofArray(value)));
+
+        // The caller may reuse its buffers right after the update
+        Arrays.fill(value, (byte) 0);
+        Entry<MemorySegment> entry = memtable.get(segment("key"));
+        Assertions.assertTrue(entry.key().isNative());
+        Assertions.assertTrue(entry.value().isNative());
+        Assertions.assertEquals("value", string(entry.value()));
+    }
+
+    @Test
+    void sizeCountsEveryCopiedByte() {
+        Memtable memtable = new Memtable();
+        MemorySegment key = segment(keyAt(1));
+
+        memtable.upsert(new BaseEntry<>(key, segment("a".repeat(100))));
+        Assertions.assertEquals(key.byteSize() + 100, memtable.byteSize());
+
+        // An overwritten value keeps its memory until the memtable is flushed, the key copy is shared
+        memtable.upsert(new BaseEntry<>(key, segment("b".repeat(100))));
+        Assertions.assertEquals(key.byteSize() + 200, memtable.byteSize());
+
+        memtable.upsert(new BaseEntry<>(key, null));
+        Assertions.assertEquals(key.byteSize() + 200, memtable.byteSize());
+
+        MemorySegment large = segment("c".repeat(1 << 20));
+        memtable.upsert(new BaseEntry<>(segment(keyAt(2)), large));
+        Assertions.assertEquals(2 * key.byteSize() + 200 + large.byteSize(), memtable.byteSize());
+        Assertions.assertEquals(large.byteSize(), memtable.get(segment(keyAt(2))).value().byteSize());
+    }
+}
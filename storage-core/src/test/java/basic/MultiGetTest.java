@@ -0,0 +1,73 @@
+package basic;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.axothy.api.Entry;
+import ru.axothy.config.Config;
+import ru.axothy.storage.BaseEntry;
+import ru.axothy.storage.ExpiringEntry;
+import ru.axothy.storage.LSMStorage;
+import utils.BaseTest;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class MultiGetTest extends BaseTest {
+
+    @Test
+    void multiGetMatchesSingleLookups(@TempDir Path basePath) throws IOException {
+        LSMStorage storage = new LSMStorage(new Config(basePath, 1 << 20, 0.01, 2));
+
+        // Versions spread over several tables, the memtable, point and range deletions
+        for (int i = 0; i < 3_000; i++) {
+            storage.upsert(new BaseEntry<>(segment(keyAt(i)), segment(valueAt(i))));
+        }
+        storage.flush();
+        for (int i = 0; i < 3_000; i += 3) {
+            storage.upsert(new BaseEntry<>(segment(keyAt(i)), segment("second" + i)));
+        }
+        storage.deleteRange(segment(keyAt(1_000)), segment(keyAt(1_500)));
+        storage.flush();
+        for (int i = 0; i < 3_000; i += 7) {
+            storage.upsert(new BaseEntry<>(segment(keyAt(i)), null));
+        }
+        storage.upsert(new ExpiringEntry<>(segment(keyAt(2)), segment("expired"), System.currentTimeMillis() - 1));
+
+        List<MemorySegment> keys = new ArrayList<>();
+        for (int i = 0; i < 3_500; i += 2) {
+            keys.add(segment(keyAt(i)));
+        }
+        keys.add(segment(keyAt(10)));
+        keys.add(segment("missing"));
+        Collections.shuffle(keys, new Random(42));
+
+        assertSameAsGet(storage, keys);
+        storage.close();
+
+        storage = new LSMStorage(new Config(basePath, 1 << 20, 0.01, 2));
+        assertSameAsGet(storage, keys);
+        Assertions.assertTrue(storage.multiGet(List.of()).isEmpty());
+        storage.close();
+    }
+
+    private static void assertSameAsGet(LSMStorage storage, List<MemorySegment> keys) {
+        List<Entry<MemorySegment>> entries = storage.multiGet(keys);
+        Assertions.assertEquals(keys.size(), entries.size());
+        for (int i = 0; i < keys.size(); i++) {
+            Entry<MemorySegment> expected = storage.get(keys.get(i));
+            Entry<MemorySegment> actual = entries.get(i);
+            if (expected == null) {
+                Assertions.assertNull(actual, string(keys.get(i)));
+            } else {
+                Assertions.assertEquals(string(expected.key()), string(actual.key()));
+                Assertions.assertEquals(string(expected.value()), string(actual.value()));
+            }
+        }
+    }
+}
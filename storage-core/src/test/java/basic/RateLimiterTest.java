@@ -0,0 +1,66 @@
+package basic;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import ru.axothy.config.CompactionStyle;
+import ru.axothy.config.Config;
+import ru.axothy.storage.BaseEntry;
+import ru.axothy.storage.LSMStorage;
+import ru.axothy.storage.RateLimiter;
+import utils.BaseTest;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+public class RateLimiterTest extends BaseTest {
+
+    @Test
+    @Timeout(60)
+    void flushesArePaced(@TempDir Path basePath) throws IOException {
+        Config config = new Config(basePath, 256 * 1024, 0.01, 2)
+                .withCompactionStyle(CompactionStyle.MANUAL);
+        LSMStorage storage = new LSMStorage(config.withRateLimit(2L << 20));
+
+        // About 3 MB of tables at 2 MB/s can not be written in less than a second
+        String value = "v".repeat(3_000);
+        long start = System.nanoTime();
+        for (int i = 0; i < 1_000; i++) {
+            storage.upsert(new BaseEntry<>(segment(keyAt(i)), segment(value)));
+        }
+        storage.close();
+        Assertions.assertTrue(System.nanoTime() - start >= Duration.ofSeconds(1).toNanos());
+
+        storage = new LSMStorage(config);
+        for (int i = 0; i < 1_000; i += 11) {
+            Assertions.assertEquals(value, string(storage.get(segment(keyAt(i))).value()));
+        }
+        storage.close();
+    }
+
+    @Test
+    void reconfiguredAtRuntime(@TempDir Path basePath) throws IOException {
+        LSMStorage storage = new LSMStorage(new Config(basePath, 1 << 20, 0.01, 2));
+        RateLimiter rateLimiter = storage.rateLimiter();
+        Assertions.assertEquals(RateLimiter.UNLIMITED, rateLimiter.bytesPerSecond());
+
+        rateLimiter.autoTune(8L << 20, Duration.ofMillis(1));
+        Assertions.assertTrue(rateLimiter.autoTuning());
+        Assertions.assertEquals(8L << 20, rateLimiter.bytesPerSecond());
+        for (int i = 0; i < 100; i++) {
+            storage.upsert(new BaseEntry<>(segment(keyAt(i)), segment(valueAt(i))));
+            Assertions.assertEquals(valueAt(i), string(storage.get(segment(keyAt(i))).value()));
+        }
+        Assertions.assertTrue(rateLimiter.bytesPerSecond() <= 8L << 20);
+
+        rateLimiter.setBytesPerSecond(1L << 20);
+        Assertions.assertFalse(rateLimiter.autoTuning());
+        Assertions.assertEquals(1L << 20, rateLimiter.bytesPerSecond());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> rateLimiter.autoTune(0, Duration.ofMillis(1)));
+
+        rateLimiter.setBytesPerSecond(RateLimiter.UNLIMITED);
+        storage.close();
+    }
+}
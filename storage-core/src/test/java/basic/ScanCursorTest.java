@@ -0,0 +1,62 @@
+package basic;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.axothy.config.Config;
+import ru.axothy.iterators.EntryCursor;
+import ru.axothy.storage.BaseEntry;
+import ru.axothy.storage.LSMStorage;
+import utils.BaseTest;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ScanCursorTest extends BaseTest {
+
+    @Test
+    void scanSeesNewestLiveVersions(@TempDir Path basePath) throws IOException {
+        LSMStorage storage = new LSMStorage(new Config(basePath, 1 << 20, 0.01, 2));
+
+        // Older versions go to tables, newer ones and tombstones stay partly in the memtable
+        for (int i = 0; i < 1_000; i++) {
+            storage.upsert(new BaseEntry<>(segment(keyAt(i)), segment("old")));
+        }
+        storage.flush();
+        for (int i = 0; i < 1_000; i += 2) {
+            storage.upsert(new BaseEntry<>(segment(keyAt(i)), segment(valueAt(i))));
+        }
+        storage.flush();
+        for (int i = 0; i < 1_000; i += 3) {
+            storage.upsert(new BaseEntry<>(segment(keyAt(i)), null));
+        }
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 100; i < 900; i++) {
+            if (i % 3 != 0) {
+                expected.add(keyAt(i) + "=" + (i % 2 == 0 ? valueAt(i) : "old"));
+            }
+        }
+
+        Assertions.assertEquals(expected, scan(storage, keyAt(100), keyAt(900)));
+        storage.close();
+
+        storage = new LSMStorage(new Config(basePath, 1 << 20, 0.01, 2));
+        Assertions.assertEquals(expected, scan(storage, keyAt(100), keyAt(900)));
+        Assertions.assertEquals(List.of(), scan(storage, keyAt(3), keyAt(4)));
+        Assertions.assertEquals(1_000 - 334, scan(storage, null, null).size());
+        storage.close();
+    }
+
+    private static List<String> scan(LSMStorage storage, String from, String to) {
+        List<String> result = new ArrayList<>();
+        EntryCursor cursor = storage.scan(from == null ? null : segment(from), to == null ? null : segment(to));
+        while (cursor.advance()) {
+            // Segments are only valid until the cursor moves
+            result.add(string(cursor.keySegment()) + "=" + string(cursor.valueSegment()));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,47 @@
+package basic;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import ru.axothy.config.Config;
+import ru.axothy.storage.BaseEntry;
+import ru.axothy.storage.LSMStorage;
+import ru.axothy.storage.SchedulerStats;
+import utils.BaseTest;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public class SchedulerTest extends BaseTest {
+
+    @Test
+    @Timeout(60)
+    void closeCancelsPendingCompactions(@TempDir Path basePath) throws IOException {
+        Config config = new Config(basePath, 64 * 1024, 0.01, 2);
+        LSMStorage storage = new LSMStorage(config);
+
+        // Every few hundred entries are flushed, so compactions keep being scheduled until close
+        String value = "v".repeat(1_000);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 2_000; i++) {
+                storage.upsert(new BaseEntry<>(segment(keyAt(i)), segment(value + round)));
+            }
+        }
+        storage.close();
+
+        SchedulerStats stats = storage.schedulerStats();
+        Assertions.assertEquals(0, stats.flushes().queued());
+        Assertions.assertEquals(0, stats.flushes().running());
+        Assertions.assertTrue(stats.flushes().completed() > 0);
+        Assertions.assertTrue(stats.flushes().maxNanos() > 0);
+        Assertions.assertEquals(0, stats.compactions().queued());
+        Assertions.assertEquals(0, stats.compactions().running());
+
+        storage = new LSMStorage(config);
+        for (int i = 0; i < 2_000; i += 7) {
+            Assertions.assertEquals(value + 2, string(storage.get(segment(keyAt(i))).value()));
+        }
+        storage.close();
+    }
+}
@@ -0,0 +1,72 @@
+package basic;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.axothy.api.Entry;
+import ru.axothy.config.Config;
+import ru.axothy.storage.BaseEntry;
+import ru.axothy.storage.ShardedStorage;
+import utils.BaseTest;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+public class ShardedStorageTest extends BaseTest {
+
+    @Test
+    void shardsActAsOneStorage(@TempDir Path basePath) throws Exception {
+        Config config = new Config(basePath, 1 << 16, 0.01, 2);
+        ShardedStorage storage = new ShardedStorage(config, 4);
+
+        List<String> expected = new ArrayList<>();
+        runInParallel(8, 5_000, i -> storage.upsert(
+                new BaseEntry<>(segment(keyAt(i)), segment(valueAt(i))))).close();
+        for (int i = 0; i < 5_000; i++) {
+            expected.add(keyAt(i));
+        }
+        storage.deleteRange(segment(keyAt(1_000)), segment(keyAt(2_000)));
+        storage.upsert(new BaseEntry<>(segment(keyAt(7)), null));
+        expected.subList(1_000, 2_000).clear();
+        expected.remove(keyAt(7));
+
+        Assertions.assertEquals(expected, keys(storage.all()));
+        List<String> range = expected.stream()
+                .filter(key -> key.compareTo(keyAt(101)) >= 0 && key.compareTo(keyAt(202)) < 0)
+                .toList();
+        Assertions.assertEquals(range, keys(storage.get(segment(keyAt(101)), segment(keyAt(202)))));
+        Assertions.assertEquals(valueAt(42), string(storage.get(segment(keyAt(42))).value()));
+        Assertions.assertNull(storage.get(segment(keyAt(1_500))));
+        storage.close();
+
+        for (int i = 0; i < 4; i++) {
+            Assertions.assertTrue(Files.isDirectory(basePath.resolve("shard_" + i)));
+        }
+        ShardedStorage reopened = new ShardedStorage(config, 4);
+        Assertions.assertEquals(expected, keys(reopened.all()));
+        reopened.close();
+    }
+
+    @Test
+    void shardsCountIsFixed(@TempDir Path basePath) throws IOException {
+        Config config = new Config(basePath, 1 << 20, 0.01, 2);
+        new ShardedStorage(config, 3).close();
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new ShardedStorage(config, 4));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new ShardedStorage(config, 0));
+        new ShardedStorage(config, 3).close();
+    }
+
+    private static List<String> keys(Iterator<Entry<MemorySegment>> iterator) {
+        List<String> keys = new ArrayList<>();
+        while (iterator.hasNext()) {
+            keys.add(string(iterator.next().key()));
+        }
+        return keys;
+    }
+}
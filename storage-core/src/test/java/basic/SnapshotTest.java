@@ -0,0 +1,137 @@
+package basic;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import ru.axothy.api.Entry;
+import ru.axothy.config.Config;
+import ru.axothy.storage.BaseEntry;
+import ru.axothy.storage.LSMStorage;
+import ru.axothy.storage.Snapshot;
+import ru.axothy.storage.WriteBatch;
+import utils.BaseTest;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class SnapshotTest extends BaseTest {
+
+    @Test
+    void snapshotIgnoresLaterWritesFlushesAndCompactions(@TempDir Path basePath) throws IOException {
+        LSMStorage storage = new LSMStorage(new Config(basePath, 1 << 20, 0.01, 2));
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            storage.upsert(new BaseEntry<>(segment(keyAt(i)), segment(valueAt(i))));
+            expected.add(keyAt(i) + "=" + valueAt(i));
+        }
+        storage.flush();
+        for (int i = 0; i < 1_000; i += 2) {
+            storage.upsert(new BaseEntry<>(segment(keyAt(i)), segment("old" + i)));
+            expected.set(i, keyAt(i) + "=old" + i);
+        }
+
+        try (Snapshot snapshot = storage.snapshot()) {
+            for (int i = 0; i < 1_000; i += 4) {
+                storage.upsert(new BaseEntry<>(segment(keyAt(i)), segment("new" + i)));
+            }
+            storage.upsert(new BaseEntry<>(segment(keyAt(1)), null));
+            storage.deleteRange(segment(keyAt(100)), segment(keyAt(200)));
+            storage.upsert(new BaseEntry<>(segment(keyAt(5_000)), segment("added")));
+
+            Assertions.assertEquals(expected, entries(snapshot.all()));
+            Assertions.assertEquals("old0", string(snapshot.get(segment(keyAt(0))).value()));
+            Assertions.assertEquals("new0", string(storage.get(segment(keyAt(0))).value()));
+            Assertions.assertNull(storage.get(segment(keyAt(150))));
+            Assertions.assertEquals("old150", string(snapshot.get(segment(keyAt(150))).value()));
+
+            storage.flush();
+            storage.compact();
+            storage.flush();
+            Assertions.assertEquals(expected, entries(snapshot.all()));
+            Assertions.assertNull(snapshot.get(segment(keyAt(5_000))));
+            Assertions.assertEquals(1_000 - 1 - 100 + 1, entries(storage.all()).size());
+        }
+        storage.close();
+    }
+
+    @Test
+    void everySnapshotSeesItsOwnVersion(@TempDir Path basePath) throws IOException {
+        LSMStorage storage = new LSMStorage(new Config(basePath, 1 << 20, 0.01, 2));
+        MemorySegment key = segment(keyAt(7));
+
+        List<Snapshot> snapshots = new ArrayList<>();
+        for (int version = 0; version < 10; version++) {
+            storage.upsert(new BaseEntry<>(key, segment("v" + version)));
+            snapshots.add(storage.snapshot());
+        }
+        storage.upsert(new BaseEntry<>(key, null));
+
+        // Releasing a snapshot in the middle must not affect its neighbours
+        snapshots.get(5).close();
+        storage.upsert(new BaseEntry<>(key, segment("last")));
+        for (int version = 0; version < 10; version++) {
+            if (version != 5) {
+                Assertions.assertEquals("v" + version, string(snapshots.get(version).get(key).value()));
+            }
+        }
+        Assertions.assertThrows(IllegalStateException.class, () -> snapshots.get(5).get(key));
+        Assertions.assertEquals("last", string(storage.get(key).value()));
+
+        snapshots.forEach(Snapshot::close);
+        storage.close();
+    }
+
+    @Test
+    @Timeout(60)
+    void scanIsConsistentUnderConcurrentWrites(@TempDir Path basePath) throws Exception {
+        LSMStorage storage = new LSMStorage(new Config(basePath, 1 << 16, 0.01, 2));
+        for (int i = 0; i < 1_000; i++) {
+            storage.upsert(new BaseEntry<>(segment(keyAt(i)), segment(valueAt(0))));
+        }
+
+        // Writer rewrites all keys with one value per round in a single batch, a consistent view never mixes rounds
+        AtomicBoolean stop = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            WriteBatch batch = new WriteBatch();
+            for (int round = 1; !stop.get(); round++) {
+                batch.clear();
+                for (int i = 0; i < 1_000; i++) {
+                    batch.upsert(new BaseEntry<>(segment(keyAt(i)), segment(valueAt(round))));
+                }
+                storage.write(batch);
+            }
+        });
+        writer.start();
+        try {
+            for (int attempt = 0; attempt < 20; attempt++) {
+                try (Snapshot snapshot = storage.snapshot()) {
+                    List<String> entries = entries(snapshot.all());
+                    Assertions.assertEquals(1_000, entries.size());
+                    String value = entries.getFirst().substring(entries.getFirst().indexOf('=') + 1);
+                    for (String entry : entries) {
+                        Assertions.assertTrue(entry.endsWith("=" + value), entry + " does not match " + value);
+                    }
+                }
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+        storage.close();
+    }
+
+    private static List<String> entries(Iterator<Entry<MemorySegment>> iterator) {
+        List<String> entries = new ArrayList<>();
+        while (iterator.hasNext()) {
+            Entry<MemorySegment> entry = iterator.next();
+            entries.add(string(entry.key()) + "=" + string(entry.value()));
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,125 @@
+package basic;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import ru.axothy.api.Entry;
+import ru.axothy.api.Storage;
+import ru.axothy.config.CompactionStyle;
+import ru.axothy.config.Config;
+import ru.axothy.storage.BaseEntry;
+import ru.axothy.storage.ExpiringEntry;
+import ru.axothy.storage.LSMStorage;
+import ru.axothy.storage.StorageFactory;
+import utils.BaseTest;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TtlTest extends BaseTest {
+
+    @Test
+    void expiredEntriesAreHidden() throws IOException {
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage();
+        List<Entry<String>> entries = entries(100);
+        entries.forEach(storage::upsert);
+        storage.close();
+        storage = StorageFactory.reopen(storage);
+
+        // An expired value hides the older version of its key like a tombstone
+        long now = System.currentTimeMillis();
+        List<Entry<String>> expected = new ArrayList<>(entries);
+        for (int i = 10; i < 30; i++) {
+            boolean expired = i < 20;
+            Entry<String> entry = new ExpiringEntry<>(keyAt(i), "ttl" + i, expired ? now - 1 : now + 3_600_000);
+            storage.upsert(entry);
+            expected.set(i, entry);
+        }
+        Entry<String> live = expected.get(25);
+        expected.subList(10, 20).clear();
+
+        assertNull(storage.get(keyAt(15)));
+        assertSame(storage.get(keyAt(25)), live);
+        assertSame(storage.all(), expected);
+
+        storage.close();
+        storage = StorageFactory.reopen(storage);
+        assertNull(storage.get(keyAt(15)));
+        assertSame(storage.all(), expected);
+
+        storage.compact();
+        storage.close();
+        storage = StorageFactory.reopen(storage);
+        assertSame(storage.all(), expected);
+    }
+
+    @Test
+    @Timeout(60)
+    void compactionDropsExpiredEntries() throws IOException {
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage(
+                config -> config.withCompactionStyle(CompactionStyle.MANUAL));
+
+        long expiresAt = System.currentTimeMillis() + 1_000;
+        List<Entry<String>> kept = entries("a", "v", 1_000);
+        for (int i = 0; i < 5_000; i++) {
+            storage.upsert(new ExpiringEntry<>(keyAt("b", i), "v".repeat(100), expiresAt));
+        }
+        kept.forEach(storage::upsert);
+        storage.close();
+        storage = StorageFactory.reopen(storage);
+        long sizeBefore = sizePersistentData(storage);
+
+        sleep((int) Math.max(0, expiresAt - System.currentTimeMillis()) + 100);
+        assertSame(storage.all(), kept);
+
+        storage.compact();
+        storage.close();
+        assertTrue(sizePersistentData(storage) < sizeBefore);
+
+        storage = StorageFactory.reopen(storage);
+        assertSame(storage.all(), kept);
+        assertNull(storage.get(keyAt("b", 7)));
+    }
+
+    @Test
+    @Timeout(60)
+    void fullyExpiredTableIsDroppedWhole(@TempDir Path basePath) throws IOException {
+        LSMStorage storage = new LSMStorage(new Config(basePath, 1 << 20, 0.01, 2));
+
+        long expiresAt = System.currentTimeMillis() + 500;
+        for (int i = 0; i < 1_000; i++) {
+            storage.upsert(new ExpiringEntry<>(segment(keyAt("b", i)), segment(valueAt(i)), expiresAt));
+        }
+        storage.flush();
+        while (storage.compactionStats().flushedBytes() == 0) {
+            sleep(50);
+        }
+        long firstFlushBytes = storage.compactionStats().flushedBytes();
+        sleep((int) Math.max(0, expiresAt - System.currentTimeMillis()) + 100);
+
+        // The next flush lets compaction look for expired tables, nothing older than the table overlaps it
+        for (int i = 0; i < 1_000; i++) {
+            storage.upsert(new BaseEntry<>(segment(keyAt("a", i)), segment(valueAt(i))));
+        }
+        storage.flush();
+
+        // Flushed bytes are counted once the table is live
+        while (storage.compactionStats().flushedBytes() == firstFlushBytes
+                || storage.compactionStats().sstables() != 1) {
+            sleep(50);
+        }
+        Assertions.assertEquals(0, storage.compactionStats().compactedBytes());
+        Assertions.assertNull(storage.get(segment(keyAt("b", 7))));
+        storage.close();
+
+        storage = new LSMStorage(new Config(basePath, 1 << 20, 0.01, 2));
+        Assertions.assertEquals(1, storage.compactionStats().sstables());
+        Assertions.assertNotNull(storage.get(segment(keyAt("a", 7))));
+        storage.close();
+    }
+}
@@ -0,0 +1,108 @@
+package basic;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.axothy.api.Entry;
+import ru.axothy.config.Config;
+import ru.axothy.storage.BaseEntry;
+import ru.axothy.storage.LSMStorage;
+import ru.axothy.storage.WriteBatch;
+import utils.BaseTest;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class WriteBatchTest extends BaseTest {
+
+    @Test
+    void batchIsAppliedInOrder(@TempDir Path basePath) throws IOException {
+        LSMStorage storage = new LSMStorage(new Config(basePath, 1 << 20, 0.01, 2));
+
+        WriteBatch batch = new WriteBatch();
+        for (int i = 0; i < 1_000; i++) {
+            batch.upsert(new BaseEntry<>(segment(keyAt(i)), segment(valueAt(i))));
+        }
+        batch.delete(segment(keyAt(5)))
+                .deleteRange(segment(keyAt(100)), segment(keyAt(900)))
+                .upsert(new BaseEntry<>(segment(keyAt(500)), segment("after")));
+        Assertions.assertEquals(1_003, batch.size());
+        storage.write(batch);
+
+        Assertions.assertNull(storage.get(segment(keyAt(5))));
+        Assertions.assertNull(storage.get(segment(keyAt(100))));
+        Assertions.assertEquals("after", string(storage.get(segment(keyAt(500))).value()));
+        Assertions.assertEquals(99 + 1 + 100, keys(storage).size());
+
+        // A reused batch starts empty
+        batch.clear();
+        Assertions.assertTrue(batch.isEmpty());
+        Assertions.assertEquals(0, batch.byteSize());
+        storage.close();
+
+        storage = new LSMStorage(new Config(basePath, 1 << 20, 0.01, 2));
+        Assertions.assertEquals(200, keys(storage).size());
+        storage.close();
+    }
+
+    @Test
+    void batchIsRecoveredCompletelyOrNotAtAll(@TempDir Path basePath) throws IOException {
+        Config config = new Config(basePath, 1 << 20, 0.01, 2);
+        LSMStorage storage = new LSMStorage(config);
+        storage.write(batch(0, 500));
+
+        // Crash: reopen without close
+        storage = new LSMStorage(config);
+        Assertions.assertEquals(500, keys(storage).size());
+
+        storage.write(batch(500, 1_000));
+        Path lastSegment;
+        try (Stream<Path> files = Files.list(basePath)) {
+            lastSegment = files
+                    .filter(path -> path.toString().endsWith(".log"))
+                    .max(Comparator.comparingLong(WriteBatchTest::segmentId))
+                    .orElseThrow();
+        }
+        // The second batch is the only record of the segment, losing its last byte loses all of it
+        try (FileChannel channel = FileChannel.open(lastSegment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        storage = new LSMStorage(config);
+        List<String> keys = keys(storage);
+        Assertions.assertEquals(500, keys.size());
+        Assertions.assertEquals(keyAt(499), keys.getLast());
+        storage.close();
+    }
+
+    private WriteBatch batch(int from, int to) {
+        WriteBatch batch = new WriteBatch();
+        for (int i = from; i < to; i++) {
+            batch.upsert(new BaseEntry<>(segment(keyAt(i)), segment(valueAt(i))));
+        }
+        return batch;
+    }
+
+    private static long segmentId(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(name.indexOf('_') + 1, name.indexOf('.')));
+    }
+
+    private static List<String> keys(LSMStorage storage) {
+        List<String> keys = new ArrayList<>();
+        Iterator<Entry<MemorySegment>> iterator = storage.all();
+        while (iterator.hasNext()) {
+            keys.add(string(iterator.next().key()));
+        }
+        return keys;
+    }
+}
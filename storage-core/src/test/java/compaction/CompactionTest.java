@@ -5,6 +5,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
 import ru.axothy.api.Entry;
 import ru.axothy.api.Storage;
+import ru.axothy.config.CompactionStyle;
 import utils.BaseTest;
 import ru.axothy.storage.StorageFactory;
 
@@ -55,7 +56,9 @@ public class CompactionTest extends BaseTest {
     @Test
     @Timeout(value = 20)
     void overwrite() throws Exception {
-        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage();
+        // Automatic compactions would merge the overwrites before the size is measured
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage(
+                config -> config.withCompactionStyle(CompactionStyle.MANUAL));
 
         // Reference value
         int valueSize = 10 * 1024 * 1024;
@@ -283,4 +286,43 @@ public class CompactionTest extends BaseTest {
         assertSame(storage.all(), List.copyOf(values));
     }
 
-}
\ No newline at end of file
+    @Test
+    @Timeout(value = 60)
+    void parallelSubcompactions() throws Exception {
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage(
+                config -> config.withCompactionStyle(CompactionStyle.MANUAL).withSubcompactions(4));
+
+        // Several megabytes of overlapping tables, so the compaction is split into key ranges
+        List<Entry<String>> entries = new ArrayList<>(bigValues(600, 10_000));
+        entries.forEach(storage::upsert);
+        storage.flush();
+        for (int i = 0; i < entries.size(); i += 5) {
+            entries.set(i, entry(keyAt(i), valueAt("new", i)));
+            storage.upsert(entries.get(i));
+        }
+        for (int i = 0; i < entries.size(); i += 7) {
+            storage.upsert(entry(keyAt(i), null));
+        }
+        storage.flush();
+
+        List<Entry<String>> expected = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            if (i % 7 != 0) {
+                expected.add(entries.get(i));
+            }
+        }
+
+        storage.compact();
+        storage.close();
+
+        storage = StorageFactory.reopen(storage);
+        assertSame(storage.all(), expected);
+        for (int i = 0; i < entries.size(); i += 3) {
+            if (i % 7 == 0) {
+                assertNull(storage.get(keyAt(i)));
+            } else {
+                assertSame(storage.get(keyAt(i)), entries.get(i));
+            }
+        }
+    }
+}
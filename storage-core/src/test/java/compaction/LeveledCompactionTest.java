@@ -0,0 +1,121 @@
+package compaction;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.axothy.api.Entry;
+import ru.axothy.api.Storage;
+import ru.axothy.compaction.CompactionTask;
+import ru.axothy.compaction.LeveledCompaction;
+import ru.axothy.storage.SSTable;
+import ru.axothy.storage.StorageFactory;
+import utils.BaseTest;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.util.List;
+
+public class LeveledCompactionTest extends BaseTest {
+
+    private final LeveledCompaction compaction = new LeveledCompaction(100, 10, 10);
+
+    @Test
+    void level0Trigger() {
+        SSTable l0a = table(1, 0, "b", "c", 10);
+        SSTable l0b = table(2, 0, "c", "d", 10);
+        SSTable l0c = table(3, 0, "a", "b", 10);
+        SSTable l1a = table(4, 1, "a", "aa", 10);
+        SSTable l1b = table(5, 1, "e", "f", 10);
+
+        Assertions.assertNull(compaction.pick(List.of(l0a, l0b, l0c, l1a, l1b)));
+
+        SSTable l0d = table(6, 0, "b", "d", 10);
+        CompactionTask task = compaction.pick(List.of(l0d, l0a, l0b, l0c, l1a, l1b));
+
+        Assertions.assertNotNull(task);
+        Assertions.assertEquals(List.of(l0d, l0a, l0b, l0c, l1a), task.inputs());
+        Assertions.assertEquals(1, task.outputLevel());
+        Assertions.assertTrue(task.bottommost());
+    }
+
+    @Test
+    void levelScore() {
+        SSTable l1a = table(1, 1, "a", "c", 75);
+        SSTable l1b = table(2, 1, "d", "f", 75);
+        SSTable l2a = table(3, 2, "a", "b", 250);
+        SSTable l2b = table(4, 2, "e", "g", 250);
+        SSTable l3 = table(5, 3, "x", "z", 10);
+        List<SSTable> tables = List.of(l1a, l1b, l2a, l2b, l3);
+
+        CompactionTask first = compaction.pick(tables);
+        Assertions.assertEquals(List.of(l1a, l2a), first.inputs());
+        Assertions.assertEquals(2, first.outputLevel());
+        Assertions.assertTrue(first.bottommost());
+
+        // Next compaction of the level continues after the previous one
+        CompactionTask second = compaction.pick(tables);
+        Assertions.assertEquals(List.of(l1b, l2b), second.inputs());
+    }
+
+    @Test
+    void deeperLevelKeepsTombstones() {
+        SSTable l1 = table(1, 1, "a", "c", 150);
+        SSTable l2 = table(2, 2, "b", "d", 10);
+        SSTable l3 = table(3, 3, "c", "z", 10);
+
+        CompactionTask task = compaction.pick(List.of(l1, l2, l3));
+        Assertions.assertEquals(List.of(l1, l2), task.inputs());
+        Assertions.assertFalse(task.bottommost());
+    }
+
+    @Test
+    void trivialMove() {
+        SSTable l1 = table(1, 1, "a", "c", 150);
+        SSTable l2 = table(2, 2, "d", "f", 10);
+
+        CompactionTask task = compaction.pick(List.of(l1, l2));
+        Assertions.assertEquals(List.of(l1), task.inputs());
+        Assertions.assertTrue(task.isTrivialMove());
+    }
+
+    @Test
+    void fullCompaction() {
+        SSTable l0 = table(1, 0, "a", "c", 10);
+        SSTable l2 = table(2, 2, "d", "f", 10);
+
+        CompactionTask task = compaction.full(List.of(l0, l2));
+        Assertions.assertEquals(List.of(l0, l2), task.inputs());
+        Assertions.assertEquals(2, task.outputLevel());
+        Assertions.assertTrue(task.bottommost());
+        Assertions.assertNull(compaction.full(List.of()));
+    }
+
+    @Test
+    void overwritesAcrossLevels() throws IOException {
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage();
+
+        List<Entry<String>> entries = bigValues(200, 20_000);
+        for (int round = 0; round < 10; round++) {
+            for (Entry<String> entry : entries) {
+                storage.upsert(entry);
+            }
+            // Remove some keys in every round to put tombstones into different levels
+            storage.upsert(entry(keyAt(round), null));
+        }
+        for (int i = 0; i < 10; i++) {
+            storage.upsert(entries.get(i));
+        }
+
+        assertSame(storage.all(), entries);
+        storage.close();
+
+        storage = StorageFactory.reopen(storage);
+        assertSame(storage.all(), entries);
+        for (int i = 0; i < entries.size(); i += 17) {
+            assertSame(storage.get(keyAt(i)), entries.get(i));
+        }
+    }
+
+    private static SSTable table(long id, int level, String minKey, String maxKey, int size) {
+        return new SSTable(id, level, MemorySegment.ofArray(new byte[size]), segment(minKey), segment(maxKey));
+    }
+}
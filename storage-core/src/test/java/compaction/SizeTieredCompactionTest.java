@@ -0,0 +1,96 @@
+package compaction;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.axothy.api.Entry;
+import ru.axothy.api.Storage;
+import ru.axothy.compaction.CompactionTask;
+import ru.axothy.compaction.SizeTieredCompaction;
+import ru.axothy.config.CompactionStyle;
+import ru.axothy.storage.SSTable;
+import ru.axothy.storage.StorageFactory;
+import utils.BaseTest;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class SizeTieredCompactionTest extends BaseTest {
+
+    private final SizeTieredCompaction compaction = new SizeTieredCompaction(10);
+
+    @Test
+    void notEnoughSimilarRuns() {
+        List<SSTable> tables = List.of(
+                table(1, 100),
+                table(2, 1000),
+                table(3, 100),
+                table(4, 1000),
+                table(5, 100)
+        );
+
+        Assertions.assertNull(compaction.pick(tables));
+    }
+
+    @Test
+    void mergesConsecutiveSimilarRuns() {
+        SSTable newest = table(1, 5000);
+        SSTable small1 = table(2, 100);
+        SSTable small2 = table(3, 120);
+        SSTable small3 = table(4, 90);
+        SSTable small4 = table(5, 110);
+        SSTable oldest = table(6, 10000);
+
+        CompactionTask task = compaction.pick(List.of(newest, small1, small2, small3, small4, oldest));
+
+        Assertions.assertNotNull(task);
+        Assertions.assertEquals(List.of(small1, small2, small3, small4), task.inputs());
+        Assertions.assertEquals(0, task.outputLevel());
+        Assertions.assertFalse(task.bottommost());
+    }
+
+    @Test
+    void oldestRunsAreBottommost() {
+        SSTable newest = table(1, 5000);
+        List<SSTable> tables = List.of(newest, table(2, 100), table(3, 100), table(4, 100), table(5, 100));
+
+        CompactionTask task = compaction.pick(tables);
+        Assertions.assertEquals(tables.subList(1, 5), task.inputs());
+        Assertions.assertTrue(task.bottommost());
+    }
+
+    @Test
+    void overwrites() throws IOException {
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage(
+                config -> config.withCompactionStyle(CompactionStyle.SIZE_TIERED));
+
+        List<Entry<String>> entries = bigValues(200, 20_000);
+        for (int round = 0; round < 10; round++) {
+            for (Entry<String> entry : entries) {
+                storage.upsert(entry);
+            }
+            storage.upsert(entry(keyAt(round), null));
+        }
+        for (int i = 0; i < 10; i++) {
+            storage.upsert(entries.get(i));
+        }
+
+        assertSame(storage.all(), entries);
+        storage.close();
+
+        storage = StorageFactory.reopen(storage);
+        assertSame(storage.all(), entries);
+
+        storage.compact();
+        storage.close();
+
+        storage = StorageFactory.reopen(storage);
+        assertSame(storage.all(), entries);
+    }
+
+    private static SSTable table(long id, int size) {
+        MemorySegment key = MemorySegment.ofArray("k".getBytes(StandardCharsets.UTF_8));
+        return new SSTable(id, 0, MemorySegment.ofArray(new byte[size]), key, key);
+    }
+}
@@ -0,0 +1,123 @@
+package persistance;
+
+import org.junit.jupiter.api.Test;
+import ru.axothy.api.Entry;
+import ru.axothy.api.Storage;
+import ru.axothy.config.Config;
+import ru.axothy.storage.StorageFactory;
+import utils.BaseTest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BlockFormatTest extends BaseTest {
+
+    @Test
+    void lookupsAcrossBlocks() throws IOException {
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage();
+
+        // Keys share long prefixes, values of different sizes make blocks end at different entries
+        List<Entry<String>> entries = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            entries.add(entry(keyAt("some/long/shared/key/prefix/", i * 2), valueAt("v".repeat(i % 300), i)));
+        }
+        entries.forEach(storage::upsert);
+        storage.close();
+
+        storage = StorageFactory.reopen(storage);
+        assertSame(storage.all(), entries);
+        for (int i = 0; i < entries.size(); i += 7) {
+            assertSame(storage.get(entries.get(i).key()), entries.get(i));
+            // Odd keys fall between stored keys
+            assertNull(storage.get(keyAt("some/long/shared/key/prefix/", i * 2 + 1)));
+        }
+
+        assertSame(storage.get(keyAt("some/long/shared/key/prefix/", 1001), keyAt("some/long/shared/key/prefix/", 3001)),
+                entries.subList(501, 1501));
+        assertSame(storage.allFrom(keyAt("some/long/shared/key/prefix/", 9997)), entries.subList(4999, 5000));
+        assertSame(storage.allTo(keyAt("some/long/shared/key/prefix/", 0)), List.of());
+        assertNull(storage.get("a"));
+        assertNull(storage.get("z"));
+    }
+
+    @Test
+    void valuesLargerThanBlock() throws IOException {
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage();
+
+        List<Entry<String>> entries = bigValues(100, 40_000);
+        entries.forEach(storage::upsert);
+        storage.upsert(entry(keyAt(50), null));
+        storage.close();
+
+        storage = StorageFactory.reopen(storage);
+        assertNull(storage.get(keyAt(50)));
+        assertSame(storage.get(keyAt(51)), entries.get(51));
+        assertSame(storage.get(keyAt(40), keyAt(60)), concat(entries.subList(40, 50), entries.subList(51, 60)));
+    }
+
+    @Test
+    void legacyTablesReadable() throws IOException {
+        Path dir = Files.createTempDirectory("legacy");
+        List<Entry<String>> entries = entries(100);
+        writeLegacyTable(dir.resolve("sstable_0.dat"), entries);
+
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage(config -> new Config(dir,
+                config.flushThresholdBytes(),
+                config.bloomFilterFalsePositiveProbability(),
+                config.bloomFilterHashFunctionsCount()));
+        assertSame(storage.all(), entries);
+        assertSame(storage.get(keyAt(42)), entries.get(42));
+
+        // Newer data goes to block-based tables on top of the legacy one
+        storage.upsert(entry(keyAt(42), null));
+        storage.close();
+        storage = StorageFactory.reopen(storage);
+        assertNull(storage.get(keyAt(42)));
+
+        storage.compact();
+        storage.close();
+        storage = StorageFactory.reopen(storage);
+        assertSame(storage.all(), concat(entries.subList(0, 42), entries.subList(43, 100)));
+    }
+
+    private static List<Entry<String>> concat(List<Entry<String>> first, List<Entry<String>> second) {
+        List<Entry<String>> result = new ArrayList<>(first);
+        result.addAll(second);
+        return result;
+    }
+
+    /**
+     * Version 1 layout: {@code [bloomFilterLength][hashFunctions][entriesCount]}, bloom filter longs,
+     * entry offsets, entries {@code [keySize][key][valueSize][value]}.
+     */
+    private static void writeLegacyTable(Path path, List<Entry<String>> entries) throws IOException {
+        int size = 3 * Long.BYTES + Long.BYTES + entries.size() * Long.BYTES;
+        for (Entry<String> entry : entries) {
+            size += 2 * Long.BYTES + entry.key().length() + entry.value().length();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.nativeOrder());
+        buffer.putLong(1).putLong(2).putLong(entries.size());
+        // Filter with all bits set passes every key
+        buffer.putLong(-1L);
+
+        long offset = 4L * Long.BYTES + (long) entries.size() * Long.BYTES;
+        for (Entry<String> entry : entries) {
+            buffer.putLong(offset);
+            offset += 2L * Long.BYTES + entry.key().length() + entry.value().length();
+        }
+        for (Entry<String> entry : entries) {
+            byte[] key = entry.key().getBytes(StandardCharsets.UTF_8);
+            byte[] value = entry.value().getBytes(StandardCharsets.UTF_8);
+            buffer.putLong(key.length).put(key).putLong(value.length).put(value);
+        }
+
+        Files.write(path, buffer.array());
+    }
+}
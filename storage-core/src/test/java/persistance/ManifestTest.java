@@ -0,0 +1,69 @@
+package persistance;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.axothy.api.Entry;
+import ru.axothy.api.Storage;
+import ru.axothy.storage.StorageFactory;
+import utils.BaseTest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ManifestTest extends BaseTest {
+
+    @Test
+    void editsSurviveReopen() throws IOException {
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage();
+
+        // Every reopen flushes a table overwriting half of the previous one
+        List<Entry<String>> expected = new ArrayList<>(entries(250));
+        for (int round = 0; round < 4; round++) {
+            for (int i = round * 50; i < round * 50 + 100; i++) {
+                Entry<String> entry = entry(keyAt(i), valueAt(i) + "_" + round);
+                storage.upsert(entry);
+                expected.set(i, entry);
+            }
+            storage.close();
+            storage = StorageFactory.reopen(storage);
+        }
+        assertSame(storage.all(), expected);
+
+        storage.compact();
+        storage.upsert(entry(keyAt(0), null));
+        storage.close();
+        storage = StorageFactory.reopen(storage);
+
+        Path basePath = StorageFactory.extractConfig(storage).basePath();
+        Assertions.assertTrue(Files.exists(basePath.resolve("MANIFEST")));
+        Assertions.assertFalse(Files.exists(basePath.resolve("sstable_.tmp")));
+        assertSame(storage.all(), expected.subList(1, expected.size()));
+        assertSame(storage.get(keyAt(150)), expected.get(150));
+    }
+
+    @Test
+    void tornEditIsDropped() throws IOException {
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage();
+
+        List<Entry<String>> entries = entries(100);
+        entries.forEach(storage::upsert);
+        storage.close();
+
+        // Partially written edit at the end of the manifest
+        Path basePath = StorageFactory.extractConfig(storage).basePath();
+        Files.write(basePath.resolve("MANIFEST"), new byte[]{0, 0, 0, 42, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        storage = StorageFactory.reopen(storage);
+        assertSame(storage.all(), entries);
+
+        // The torn edit must not hide edits appended after it
+        storage.upsert(entry(keyAt(100), valueAt(100)));
+        storage.close();
+        storage = StorageFactory.reopen(storage);
+        assertSame(storage.all(), entries(101));
+    }
+}
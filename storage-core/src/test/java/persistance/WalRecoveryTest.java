@@ -0,0 +1,107 @@
+package persistance;
+
+import org.junit.jupiter.api.Test;
+import ru.axothy.api.Entry;
+import ru.axothy.api.Storage;
+import ru.axothy.config.WalSyncMode;
+import ru.axothy.storage.StorageFactory;
+import utils.BaseTest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class WalRecoveryTest extends BaseTest {
+
+    @Test
+    void recoverWithoutClose() throws IOException {
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage();
+
+        List<Entry<String>> entries = entries(1000);
+        entries.forEach(storage::upsert);
+
+        // Crash: reopen without close, nothing was flushed
+        storage = StorageFactory.reopen(storage);
+        assertSame(storage.all(), entries);
+    }
+
+    @Test
+    void recoverTombstones() throws IOException {
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage();
+
+        for (int i = 0; i < 100; i++) {
+            storage.upsert(entryAt(i));
+        }
+        storage.close();
+        storage = StorageFactory.reopen(storage);
+
+        // Remove flushed entries and crash
+        for (int i = 0; i < 50; i++) {
+            storage.upsert(entry(keyAt(i), null));
+        }
+        storage = StorageFactory.reopen(storage);
+
+        assertSame(storage.all(), entries(100).subList(50, 100));
+    }
+
+    @Test
+    void recoverBatchSync() throws Exception {
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage(
+                config -> config.withWalSyncMode(WalSyncMode.BATCH));
+
+        int count = 10_000;
+        List<Entry<String>> entries = entries(count);
+        runInParallel(8, count, i -> storage.upsert(entries.get(i))).close();
+
+        Storage<String, Entry<String>> recovered = StorageFactory.reopen(storage);
+        assertSame(recovered.all(), entries);
+    }
+
+    @Test
+    void recoverConcurrentOverwrites() throws Exception {
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage();
+
+        int keys = 4;
+        runInParallel(8, 20_000, i -> storage.upsert(entry(keyAt(i % keys), valueAt(i)))).close();
+        List<Entry<String>> written = list(storage.all());
+
+        // Crash: the log has to replay into the same values the memtable holds
+        Storage<String, Entry<String>> recovered = StorageFactory.reopen(storage);
+        assertSame(recovered.all(), written);
+    }
+
+    @Test
+    void tornTail() throws IOException {
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage();
+
+        List<Entry<String>> entries = entries(100);
+        entries.forEach(storage::upsert);
+
+        // Partially written record at the end of the log
+        Path basePath = StorageFactory.extractConfig(storage).basePath();
+        try (Stream<Path> files = Files.list(basePath)) {
+            for (Path log : files.filter(path -> path.toString().endsWith(".log")).toList()) {
+                Files.write(log, new byte[]{42, 0, 0, 0, 1, 2}, StandardOpenOption.APPEND);
+            }
+        }
+
+        storage = StorageFactory.reopen(storage);
+        assertSame(storage.all(), entries);
+    }
+
+    @Test
+    void logsRemovedAfterFlush() throws IOException {
+        Storage<String, Entry<String>> storage = BaseTest.getStringEntryStorage();
+
+        entries(100).forEach(storage::upsert);
+        storage.close();
+
+        Path basePath = StorageFactory.extractConfig(storage).basePath();
+        try (Stream<Path> files = Files.list(basePath)) {
+            assertEmpty(files.filter(path -> path.toString().endsWith(".log")).iterator());
+        }
+    }
+}
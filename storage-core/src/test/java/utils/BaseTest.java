@@ -11,7 +11,10 @@ import ru.axothy.storage.MemorySegmentStorageFactory;
 import ru.axothy.storage.StorageFactory;
 
 import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
 import java.nio.channels.IllegalBlockingModeException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -28,6 +31,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -36,10 +40,14 @@ public class BaseTest {
     private final CopyOnWriteArrayList<ExecutorService> executors = new CopyOnWriteArrayList<>();
 
     public static Storage<String, Entry<String>> getStringEntryStorage() throws IOException {
+        return getStringEntryStorage(UnaryOperator.identity());
+    }
+
+    public static Storage<String, Entry<String>> getStringEntryStorage(UnaryOperator<Config> customizer) throws IOException {
         Path tmp = Files.createTempDirectory("storage");
         long flushThreshold = 1 << 20; // 1 MB
 
-        return new MemorySegmentStorageFactory().createStringStorage(new Config(tmp, flushThreshold, 0.2, 2));
+        return new MemorySegmentStorageFactory().createStringStorage(customizer.apply(new Config(tmp, flushThreshold, 0.2, 2)));
     }
 
     public void assertEmpty(Iterator<?> iterator) {
@@ -161,6 +169,14 @@ public class BaseTest {
         return prefix + paddedIdx;
     }
 
+    public static MemorySegment segment(String value) {
+        return MemorySegment.ofArray(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String string(MemorySegment segment) {
+        return new String(segment.toArray(ValueLayout.JAVA_BYTE), StandardCharsets.UTF_8);
+    }
+
     public <T> List<T> list(Iterator<T> iterator) {
         List<T> result = new ArrayList<>();
         iterator.forEachRemaining(result::add);